@@ -9,12 +9,128 @@ repositories {
     mavenCentral()
 }
 
+// Micro-benchmarks live in their own source set so JMH never leaks onto the main or test classpath.
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+// UnicodeUtils.width() reads a two-stage lookup table generated from the UCD files in src/main/unicode.
+val generateWidthTable by tasks.registering {
+    description = "Generates the WidthTable lookup class from EastAsianWidth.txt and DerivedGeneralCategory.txt."
+    val ucdDir = layout.projectDirectory.dir("src/main/unicode")
+    val outDir = layout.buildDirectory.dir("generated/sources/unicode/java/main")
+    inputs.dir(ucdDir)
+    outputs.dir(outDir)
+    doLast {
+        val ucd = ucdDir.asFile
+        val widths = ByteArray(0x110000) { 1 }
+
+        fun ucdEntries(name: String, withMissing: Boolean) = ucd.resolve(name).readLines().mapNotNull { raw ->
+            val line = if (withMissing && raw.startsWith("# @missing:")) raw.removePrefix("# @missing:")
+                       else raw.substringBefore('#')
+            if (line.isBlank()) null
+            else line.split(';').let { (range, value) ->
+                val bounds = range.trim().split("..").map { it.toInt(16) }
+                Triple(bounds.first(), bounds.last(), value.trim())
+            }
+        }
+
+        // @missing defaults come first in the file, so explicit entries override them.
+        for ((first, last, value) in ucdEntries("EastAsianWidth.txt", withMissing = true)) {
+            val width: Byte = if (value == "W" || value == "F") 2 else 1
+            widths.fill(width, first, last + 1)
+        }
+        // Nonspacing/enclosing marks and format characters take no column (SOFT HYPHEN is the usual exception),
+        // and neither do the conjoining Hangul medial vowels and final consonants.
+        for ((first, last, value) in ucdEntries("DerivedGeneralCategory.txt", withMissing = false)) {
+            if (value == "Mn" || value == "Me" || value == "Cf") widths.fill(0, first, last + 1)
+        }
+        widths[0x00AD] = 1
+        widths.fill(0, 0x1160, 0x1200)
+        widths.fill(0, 0xD7B0, 0xD800)
+
+        // Two-stage table: stage 1 maps each 256-code-point block to a deduplicated stage-2 block.
+        val blockIndex = LinkedHashMap<String, Int>()
+        val stage1 = CharArray(0x110000 shr 8) { block ->
+            val key = String(CharArray(256) { (widths[(block shl 8) + it] + '0'.code).toChar() })
+            blockIndex.getOrPut(key) { blockIndex.size }.toChar()
+        }
+        // Stage 2 is packed 2 bits per code point, 8 code points per char, to keep the class-file constant small.
+        val stage2 = StringBuilder()
+        for (key in blockIndex.keys) {
+            for (i in 0 until 256 step 8) {
+                var packed = 0
+                for (j in 0 until 8) packed = packed or ((key[i + j] - '0') shl (2 * j))
+                stage2.append(packed.toChar())
+            }
+        }
+        // Unicode escapes are translated before lexing, so line terminators, quote and backslash need octal escapes.
+        fun escape(c: Char) = if (c.code in setOf(0x0A, 0x0D, 0x22, 0x5C)) "\\%03o".format(c.code)
+                              else "\\u%04x".format(c.code)
+        fun literal(chars: CharSequence) = chars.chunked(16).joinToString("\"\n            + \"", "\"", "\"") { chunk ->
+            chunk.map(::escape).joinToString("")
+        }
+
+        val out = outDir.get().asFile.resolve("com/zxuhan/WidthTable.java")
+        out.parentFile.mkdirs()
+        out.writeText("""
+            |// Generated by the generateWidthTable Gradle task from src/main/unicode — do not edit.
+            |package com.zxuhan;
+            |
+            |/** Terminal column widths (0, 1 or 2) for every code point, as a two-stage lookup table. */
+            |final class WidthTable {
+            |
+            |    private WidthTable() {}
+            |
+            |    /** Stage-2 block index for each 256-code-point block, indexed by {@code cp >>> 8}. */
+            |    static final char[] STAGE1 = (${literal(String(stage1))}).toCharArray();
+            |
+            |    /** ${blockIndex.size} distinct blocks of 256 widths, indexed by {@code (STAGE1[cp >>> 8] << 8) | (cp & 0xFF)}. */
+            |    static final byte[] STAGE2 = unpack(${literal(stage2)});
+            |
+            |    private static byte[] unpack(String packed) {
+            |        byte[] widths = new byte[packed.length() * 8];
+            |        for (int i = 0; i < widths.length; i++) {
+            |            widths[i] = (byte) ((packed.charAt(i >>> 3) >>> ((i & 7) * 2)) & 3);
+            |        }
+            |        return widths;
+            |    }
+            |}
+            |""".trimMargin())
+    }
+}
+
+sourceSets.main {
+    java.srcDir(generateWidthTable)
+}
+
 dependencies {
     testImplementation(platform("org.junit:junit-bom:5.10.0"))
     testImplementation("org.junit.jupiter:junit-jupiter")
     testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
 }
 
 tasks.test {
     useJUnitPlatform()
-}
\ No newline at end of file
+}
+
+// Keep the benchmarks compiling with every build, even though they only run on demand.
+tasks.check {
+    dependsOn(tasks.named(jmh.classesTaskName))
+}
+
+// ./gradlew jmh                                  — run every benchmark with the GC profiler
+// ./gradlew jmh -PjmhArgs="WriteText -f 1 -wi 2" — extra JMH command-line arguments
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs the JMH benchmarks with the GC profiler (reports gc.alloc.rate.norm in bytes/op)."
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    args("-prof", "gc", "-rf", "json", "-rff", layout.buildDirectory.file("jmh/results.json").get().asFile.path)
+    (findProperty("jmhArgs") as String?)?.let { args(it.split(" ").filter(String::isNotBlank)) }
+    doFirst { layout.buildDirectory.dir("jmh").get().asFile.mkdirs() }
+}
@@ -0,0 +1,47 @@
+package com.zxuhan;
+
+/** Deterministic text fixtures shared by the benchmarks. */
+final class BenchmarkText {
+
+    private BenchmarkText() {}
+
+    /** Returns text of the given kind that occupies exactly {@code columns} terminal columns. */
+    static String ofColumns(String kind, int columns) {
+        StringBuilder sb = new StringBuilder(columns);
+        int used = 0;
+        int i = 0;
+        while (used < columns) {
+            boolean wide = switch (kind) {
+                case "ascii" -> false;
+                case "cjk" -> columns - used >= 2;
+                case "mixed" -> i % 4 == 3 && columns - used >= 2;
+                default -> throw new IllegalArgumentException(kind);
+            };
+            if (wide) {
+                sb.appendCodePoint(0x4E00 + i % 0x5000);
+                used += 2;
+            } else {
+                sb.append((char) ('!' + i % 94));
+                used++;
+            }
+            i++;
+        }
+        return sb.toString();
+    }
+
+    /** Returns a buffer whose screen and scrollback are completely filled with ASCII rows. */
+    static TerminalBuffer filledBuffer(int width, int height, int maxScrollback) {
+        TerminalBuffer buf = new TerminalBuffer(width, height, maxScrollback);
+        String row = ofColumns("ascii", width);
+        for (int i = 0; i < maxScrollback + height; i++) {
+            buf.setCursor(0, height - 1);
+            buf.writeText(row);
+            buf.insertEmptyLineAtBottom();
+        }
+        for (int r = 0; r < height; r++) {
+            buf.setCursor(0, r);
+            buf.writeText(row);
+        }
+        return buf;
+    }
+}
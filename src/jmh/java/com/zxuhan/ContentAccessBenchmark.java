@@ -0,0 +1,115 @@
+package com.zxuhan;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole-history export through {@code getFullContent} or streamed with {@code writeFullContent}, a
+ * renderer-style walk over every screen cell reading its attributes or style id, and polling the text of
+ * unchanged screen and scrollback lines.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ContentAccessBenchmark {
+
+    @Param({"1000", "10000"})
+    int maxScrollback;
+
+    TerminalBuffer buf;
+
+    @Setup
+    public void setUp() {
+        buf = BenchmarkText.filledBuffer(120, 40, maxScrollback);
+    }
+
+    @Benchmark
+    public String getFullContent() {
+        return buf.getFullContent();
+    }
+
+    @Benchmark
+    public long writeFullContentToChannel(DiscardChannel out) throws IOException {
+        buf.writeFullContent(out, StandardCharsets.UTF_8);
+        return out.written;
+    }
+
+    @Benchmark
+    public long getFullContentAsBytes() {
+        return buf.getFullContent().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /** Counts and drops the bytes written to it, as a socket or file would take them off the buffer. */
+    @State(Scope.Thread)
+    public static class DiscardChannel implements WritableByteChannel {
+        long written;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            written += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Benchmark
+    public void screenLines(Blackhole bh) {
+        for (int row = 0; row < 40; row++) {
+            bh.consume(buf.getScreenLine(row));
+        }
+    }
+
+    @Benchmark
+    public void scrollbackLines(Blackhole bh) {
+        for (int row = 0; row < 40; row++) {
+            bh.consume(buf.getScrollbackLine(row));
+        }
+    }
+
+    @Benchmark
+    public void screenAttributes(Blackhole bh) {
+        for (int row = 0; row < 40; row++) {
+            for (int col = 0; col < 120; col++) {
+                bh.consume(buf.getScreenAttributes(col, row));
+            }
+        }
+    }
+
+    @Benchmark
+    public void screenStyleIds(Blackhole bh) {
+        for (int row = 0; row < 40; row++) {
+            for (int col = 0; col < 120; col++) {
+                bh.consume(buf.getScreenStyleId(col, row));
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.zxuhan;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One op inserts a short string into a half-full screen at the given cursor position.
+ * The screen is restored before every invocation, since each insert consumes trailing free slots.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InsertTextBenchmark {
+
+    private static final int WIDTH = 200;
+    private static final int HEIGHT = 60;
+
+    /** Cursor position as a fraction of the filled content: start of screen, middle, end of content. */
+    @Param({"start", "middle", "end"})
+    String position;
+
+    @Param({"ascii", "cjk"})
+    String kind;
+
+    TerminalBuffer buf;
+    Line[] pristine;
+    String text;
+    int col;
+    int row;
+
+    @Setup
+    public void setUp() {
+        buf = new TerminalBuffer(WIDTH, HEIGHT, 0);
+        String line = BenchmarkText.ofColumns("mixed", WIDTH);
+        for (int r = 0; r < HEIGHT / 2; r++) {
+            buf.setCursor(0, r);
+            buf.writeText(line);
+        }
+        pristine = new Line[HEIGHT];
+        for (int r = 0; r < HEIGHT; r++) {
+            pristine[r] = buf.screen[r].copy();
+        }
+        text = BenchmarkText.ofColumns(kind, 8);
+        switch (position) {
+            case "start" -> { col = 0; row = 0; }
+            case "middle" -> { col = WIDTH / 2; row = HEIGHT / 4; }
+            case "end" -> { col = 0; row = HEIGHT / 2; }
+            default -> throw new IllegalArgumentException(position);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void restore() {
+        for (int r = 0; r < HEIGHT; r++) {
+            buf.screen[r].copyFrom(pristine[r], 0, 0, WIDTH);
+        }
+        buf.setCursor(col, row);
+    }
+
+    @Benchmark
+    public TerminalBuffer insertText() {
+        buf.insertText(text);
+        return buf;
+    }
+}
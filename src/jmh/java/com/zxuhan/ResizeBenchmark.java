@@ -0,0 +1,43 @@
+package com.zxuhan;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** One op is a width change (alternating wider and narrower) on a buffer with a full scrollback. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResizeBenchmark {
+
+    @Param({"1000", "100000"})
+    int maxScrollback;
+
+    TerminalBuffer buf;
+    boolean wide;
+
+    @Setup
+    public void setUp() {
+        buf = BenchmarkText.filledBuffer(120, 40, maxScrollback);
+    }
+
+    @Benchmark
+    public TerminalBuffer resizeWidth() {
+        wide = !wide;
+        buf.resize(wide ? 160 : 120, 40);
+        return buf;
+    }
+}
@@ -0,0 +1,56 @@
+package com.zxuhan;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** Row-level operations: {@code fillLine} and scrolling into a scrollback that is already at {@code maxScrollback}. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ScreenOperationsBenchmark {
+
+    @Param({"200"})
+    int width;
+
+    @Param({"100000"})
+    int maxScrollback;
+
+    TerminalBuffer buf;
+
+    @Setup
+    public void setUp() {
+        buf = BenchmarkText.filledBuffer(width, 60, maxScrollback);
+    }
+
+    @Benchmark
+    public TerminalBuffer fillLineNarrow() {
+        buf.fillLine((int) '=');
+        return buf;
+    }
+
+    @Benchmark
+    public TerminalBuffer fillLineWide() {
+        buf.fillLine(0x4E2D);
+        return buf;
+    }
+
+    @Benchmark
+    public TerminalBuffer insertEmptyLineAtBottom() {
+        buf.insertEmptyLineAtBottom();
+        return buf;
+    }
+}
@@ -0,0 +1,99 @@
+package com.zxuhan;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finding a rare string in a log-like history: {@code search} through the trigram index, and a regex
+ * through {@code findAll}, each against scanning the text from {@code getFullContent}; the regex again through
+ * {@code searchParallel}, for every match and for the first one only.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SearchBenchmark {
+
+    private static final String QUERY = "worker-2 id=4242 ";
+    private static final Pattern REGEX = Pattern.compile("worker-2 id=4242 status=\\d+");
+
+    @Param({"10000", "100000"})
+    int maxScrollback;
+
+    TerminalBuffer buf;
+
+    @Setup
+    public void setUp() {
+        buf = new TerminalBuffer(120, 40, maxScrollback);
+        for (int i = 0; i < maxScrollback + 40; i++) {
+            buf.setCursor(0, 39);
+            buf.writeText("GET /api/items/" + (i * 7919 % 100_000) + " worker-" + i % 16 + " id=" + i % 5000
+                    + " status=200 in " + i % 97 + " ms");
+            buf.insertEmptyLineAtBottom();
+        }
+        buf.search(QUERY); // builds the index
+    }
+
+    @Benchmark
+    public List<SearchHit> search() {
+        return buf.search(QUERY);
+    }
+
+    @Benchmark
+    public List<SearchHit> scanFullContent() {
+        List<SearchHit> hits = new ArrayList<>();
+        String content = buf.getFullContent();
+        int row = 0;
+        int lineStart = 0;
+        for (int at = content.indexOf(QUERY); at >= 0; at = content.indexOf(QUERY, at + 1)) {
+            for (int nl = content.indexOf('\n', lineStart); nl < at; nl = content.indexOf('\n', lineStart)) {
+                row++;
+                lineStart = nl + 1;
+            }
+            hits.add(new SearchHit(row, at - lineStart));
+        }
+        return hits;
+    }
+
+    @Benchmark
+    public List<MatchRange> findAll() {
+        return buf.findAll(REGEX);
+    }
+
+    @Benchmark
+    public int regexOverFullContent() {
+        int matches = 0;
+        Matcher m = REGEX.matcher(buf.getFullContent());
+        while (m.find()) {
+            matches++;
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public List<SearchHit> searchParallel() {
+        return buf.searchParallel(REGEX, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public List<SearchHit> searchParallelFirst() {
+        return buf.searchParallel(REGEX, 1);
+    }
+}
@@ -0,0 +1,57 @@
+package com.zxuhan;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One op is a render frame on a 200x60 screen: a one-character echo followed by a copy of the screen for
+ * the render thread, either as a copy-on-write {@code snapshot()} or as a deep copy of every line.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SnapshotBenchmark {
+
+    TerminalBuffer buf;
+    int col;
+
+    @Setup
+    public void setUp() {
+        buf = BenchmarkText.filledBuffer(200, 60, 0);
+    }
+
+    private void echo() {
+        buf.setCursor(col, 30);
+        buf.writeText("x");
+        col = col + 1 == 200 ? 0 : col + 1;
+    }
+
+    @Benchmark
+    public ScreenSnapshot echoAndSnapshot() {
+        echo();
+        return buf.snapshot();
+    }
+
+    @Benchmark
+    public Line[] echoAndDeepCopy() {
+        echo();
+        Line[] copy = new Line[buf.height];
+        for (int r = 0; r < buf.height; r++) {
+            copy[r] = buf.screen[r].copy();
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,74 @@
+package com.zxuhan;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One op feeds 4 KiB of typical terminal output (SGR-colored 80-column lines ending in CR LF, scrolling)
+ * to a {@link VtParser}: {@code plain} has no escape sequences, {@code sgr} switches color every word.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VtParserBenchmark {
+
+    private static final int CHUNK = 4096;
+
+    @Param({"plain", "sgr"})
+    String kind;
+
+    VtParser parser;
+    ByteBuffer heap;
+    ByteBuffer direct;
+
+    @Setup
+    public void setUp() {
+        TerminalBuffer buf = new TerminalBuffer(80, 24, 1000);
+        parser = new VtParser(buf);
+
+        StringBuilder sb = new StringBuilder();
+        int word = 0;
+        while (sb.length() < CHUNK) {
+            if (kind.equals("sgr")) {
+                sb.append("\u001b[").append(31 + word % 7).append('m');
+            }
+            sb.append("word").append(word % 10).append(' ');
+            if (++word % 13 == 0) {
+                sb.append("\u001b[0m\r\n");
+            }
+        }
+        byte[] bytes = sb.substring(0, CHUNK).getBytes(StandardCharsets.US_ASCII);
+        heap = ByteBuffer.wrap(bytes);
+        direct = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+    }
+
+    @Benchmark
+    public VtParser feedHeap() {
+        heap.clear();
+        parser.feed(heap);
+        return parser;
+    }
+
+    @Benchmark
+    public VtParser feedDirect() {
+        direct.clear();
+        parser.feed(direct);
+        return parser;
+    }
+}
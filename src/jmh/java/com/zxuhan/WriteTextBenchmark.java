@@ -0,0 +1,75 @@
+package com.zxuhan;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One op overwrites a full screen row with {@code writeText}, either as one String or, like a PTY reader,
+ * as 16-char chunks of a char[] through the range overload; or with {@code writeBytes} from UTF-8.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WriteTextBenchmark {
+
+    @Param({"ascii", "cjk", "mixed"})
+    String kind;
+
+    @Param({"80", "200"})
+    int width;
+
+    TerminalBuffer buf;
+    String row;
+    char[] rowChars;
+    byte[] rowBytes;
+    int nextRow;
+
+    @Setup
+    public void setUp() {
+        buf = new TerminalBuffer(width, 50, 1000);
+        row = BenchmarkText.ofColumns(kind, width);
+        rowChars = row.toCharArray();
+        rowBytes = row.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public TerminalBuffer writeText() {
+        buf.setCursor(0, nextRow);
+        buf.writeText(row);
+        nextRow = nextRow + 1 == 50 ? 0 : nextRow + 1;
+        return buf;
+    }
+
+    @Benchmark
+    public TerminalBuffer writeTextCharArrayChunks() {
+        buf.setCursor(0, nextRow);
+        for (int off = 0; off < rowChars.length; off += 16) {
+            buf.writeText(rowChars, off, Math.min(16, rowChars.length - off));
+        }
+        nextRow = nextRow + 1 == 50 ? 0 : nextRow + 1;
+        return buf;
+    }
+
+    @Benchmark
+    public TerminalBuffer writeBytes() {
+        buf.setCursor(0, nextRow);
+        buf.writeBytes(rowBytes, 0, rowBytes.length);
+        nextRow = nextRow + 1 == 50 ? 0 : nextRow + 1;
+        return buf;
+    }
+}
@@ -1,11 +1,46 @@
 package com.zxuhan;
 
 /**
- * A single mutable cell in the terminal grid.
- * Use {@link #blank()} for empty cells; call {@link #copy()} before storing elsewhere.
+ * A single terminal cell, decoded.
+ * {@link Line} stores cells packed into one {@code long} each; a Cell is a transient, detached view
+ * of such a word. Mutating a Cell never changes the line it came from — write it back with
+ * {@link Line#setCell(int, Cell)}.
+ *
+ * Packed layout (low to high bits):
+ * <pre>
+ *   0..20  code point
+ *  21..25  fg ordinal
+ *  26..30  bg ordinal
+ *  31      bold
+ *  32      italic
+ *  33      underline
+ *  34..35  CellType ordinal
+ * </pre>
  */
 public class Cell {
 
+    static final int FG_SHIFT = 21;
+    static final int BG_SHIFT = 26;
+    static final int BOLD_SHIFT = 31;
+    static final int ITALIC_SHIFT = 32;
+    static final int UNDERLINE_SHIFT = 33;
+    static final int TYPE_SHIFT = 34;
+
+    static final long CH_MASK = (1L << FG_SHIFT) - 1;
+    static final long COLOR_MASK = 0x1F;
+    static final long TYPE_MASK = 0x3;
+
+    static final long WIDE_BITS = (long) CellType.WIDE.ordinal() << TYPE_SHIFT;
+    static final long CONTINUATION_BITS = (long) CellType.CONTINUATION.ordinal() << TYPE_SHIFT;
+
+    /** Packed blank cell: space, default attributes, type NORMAL. */
+    static final long BLANK = ' ';
+    /** Packed CONTINUATION cell: blank content, type CONTINUATION. */
+    static final long CONTINUATION = BLANK | CONTINUATION_BITS;
+
+    private static final Color[] COLORS = Color.values();
+    private static final CellType[] TYPES = CellType.values();
+
     /** Unicode code point — int to support code points above U+FFFF. */
     int ch;
     Color fg;
@@ -37,10 +72,70 @@ public class Cell {
         return c;
     }
 
-    /** Returns a deep copy; prevents aliasing when storing into scrollback. */
+    /** Returns a deep copy. */
     public Cell copy() {
         Cell c = new Cell(ch, fg, bg, bold, italic, underline);
         c.type = type;
         return c;
     }
-}
\ No newline at end of file
+
+    // --- Packed encoding ---
+
+    /** Packs this cell into its {@code long} storage form. */
+    long pack() {
+        return pack(ch, fg, bg, bold, italic, underline) | ((long) type.ordinal() << TYPE_SHIFT);
+    }
+
+    /** Packs a NORMAL cell; OR in {@link #WIDE_BITS} or {@link #CONTINUATION_BITS} for the other types. */
+    static long pack(int ch, Color fg, Color bg, boolean bold, boolean italic, boolean underline) {
+        return (ch & CH_MASK)
+                | ((long) fg.ordinal() << FG_SHIFT)
+                | ((long) bg.ordinal() << BG_SHIFT)
+                | (bold ? 1L << BOLD_SHIFT : 0)
+                | (italic ? 1L << ITALIC_SHIFT : 0)
+                | (underline ? 1L << UNDERLINE_SHIFT : 0);
+    }
+
+    /** Decodes a packed word into a new, detached Cell. */
+    static Cell unpack(long word) {
+        Cell c = new Cell(codePoint(word), fg(word), bg(word), bold(word), italic(word), underline(word));
+        c.type = type(word);
+        return c;
+    }
+
+    static int codePoint(long word) {
+        return (int) (word & CH_MASK);
+    }
+
+    static Color fg(long word) {
+        return COLORS[(int) ((word >>> FG_SHIFT) & COLOR_MASK)];
+    }
+
+    static Color bg(long word) {
+        return COLORS[(int) ((word >>> BG_SHIFT) & COLOR_MASK)];
+    }
+
+    static boolean bold(long word) {
+        return (word & (1L << BOLD_SHIFT)) != 0;
+    }
+
+    static boolean italic(long word) {
+        return (word & (1L << ITALIC_SHIFT)) != 0;
+    }
+
+    static boolean underline(long word) {
+        return (word & (1L << UNDERLINE_SHIFT)) != 0;
+    }
+
+    static CellType type(long word) {
+        return TYPES[(int) ((word >>> TYPE_SHIFT) & TYPE_MASK)];
+    }
+
+    static boolean isWide(long word) {
+        return (word & (TYPE_MASK << TYPE_SHIFT)) == WIDE_BITS;
+    }
+
+    static boolean isContinuation(long word) {
+        return (word & (TYPE_MASK << TYPE_SHIFT)) == CONTINUATION_BITS;
+    }
+}
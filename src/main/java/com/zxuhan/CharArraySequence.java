@@ -0,0 +1,40 @@
+package com.zxuhan;
+
+/**
+ * A reusable, mutable {@link CharSequence} window over a {@code char[]} range.
+ * Lets the char[] entry points share the CharSequence code paths without copying or allocating per call.
+ */
+final class CharArraySequence implements CharSequence {
+
+    private char[] chars;
+    private int offset;
+    private int length;
+
+    /** Points this view at {@code chars[offset, offset+length)}; returns {@code this}. */
+    CharArraySequence reset(char[] chars, int offset, int length) {
+        this.chars = chars;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return chars[offset + index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new String(chars, offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, offset, length);
+    }
+}
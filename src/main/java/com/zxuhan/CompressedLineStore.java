@@ -0,0 +1,256 @@
+package com.zxuhan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link LineStore} that keeps cold lines compressed on the heap. Lines are grouped into blocks of
+ * {@code blockLines}; the newest block stays open as plain packed words, and each full block is sealed:
+ * the code points are written as varints and deflated, the remaining bits of each word (style id and
+ * {@link CellType}) are run-length encoded, since long stretches of cells share one style.
+ *
+ * Reading a cell decodes only its block. A small access-ordered cache keeps the most recently decoded
+ * blocks, so scrolling through history decodes each block once.
+ */
+final class CompressedLineStore implements LineStore {
+
+    static final int DEFAULT_BLOCK_LINES = 256;
+    static final int DEFAULT_CACHED_BLOCKS = 4;
+
+    /** A sealed block: line offsets into the decoded words, deflated code points, RLE attribute bits. */
+    private static final class Block {
+        final int[] offsets;
+        final byte[] text;
+        final int textLength;
+        final byte[] attrs;
+
+        Block(int[] offsets, byte[] text, int textLength, byte[] attrs) {
+            this.offsets = offsets;
+            this.text = text;
+            this.textLength = textLength;
+            this.attrs = attrs;
+        }
+    }
+
+    private final int blockLines;
+    private final int cachedBlocks;
+    private final List<Block> blocks = new ArrayList<>();
+
+    // Open block: words of its lines back to back, offsets[i] = first word of line i
+    private long[] open = new long[1024];
+    private final int[] openOffsets;
+    private int openLines;
+    private int size;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private byte[] scratch = new byte[1024];
+    /** Read position of {@link #readVarint}; guarded by this, like the inflater. */
+    private int readPos;
+
+    // Decoded blocks, least recently used first. Keyed by Block identity so an entry decoded by a reader
+    // racing a clear() can never be mistaken for a later block at the same index. Guarded by this.
+    private final Map<Block, long[]> cache;
+
+    CompressedLineStore() {
+        this(DEFAULT_BLOCK_LINES, DEFAULT_CACHED_BLOCKS);
+    }
+
+    CompressedLineStore(int blockLines, int cachedBlocks) {
+        if (blockLines < 1 || cachedBlocks < 1) {
+            throw new IllegalArgumentException("blockLines and cachedBlocks must be positive");
+        }
+        this.blockLines = blockLines;
+        this.cachedBlocks = cachedBlocks;
+        this.openOffsets = new int[blockLines + 1];
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Block, long[]> eldest) {
+                return size() > CompressedLineStore.this.cachedBlocks;
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void append(Line line) {
+        int start = openOffsets[openLines];
+        int end = start + line.width;
+        if (end > open.length) {
+            open = Arrays.copyOf(open, Math.max(end, open.length * 2));
+        }
+        System.arraycopy(line.cells, 0, open, start, line.width);
+        openLines++;
+        openOffsets[openLines] = end;
+        size++;
+        if (openLines == blockLines) {
+            seal();
+        }
+    }
+
+    @Override
+    public int width(int index) {
+        int[] offsets = offsets(index);
+        int i = index % blockLines;
+        return offsets[i + 1] - offsets[i];
+    }
+
+    @Override
+    public long word(int index, int col) {
+        int b = index / blockLines;
+        int i = index % blockLines;
+        if (b == blocks.size()) {
+            return open[openOffsets[i] + col];
+        }
+        Block block = blocks.get(b);
+        return decoded(block)[block.offsets[i] + col];
+    }
+
+    @Override
+    public void clear() {
+        blocks.clear();
+        openLines = 0;
+        size = 0;
+        synchronized (this) {
+            cache.clear();
+        }
+    }
+
+    @Override
+    public void close() {
+        clear();
+        deflater.end();
+        synchronized (this) {
+            inflater.end();
+        }
+    }
+
+    /** Total bytes held by sealed blocks, excluding the open block and the cache. */
+    long sealedBytes() {
+        long bytes = 0;
+        for (Block block : blocks) {
+            bytes += block.text.length + block.attrs.length + (long) block.offsets.length * Integer.BYTES;
+        }
+        return bytes;
+    }
+
+    private int[] offsets(int index) {
+        int b = index / blockLines;
+        return b == blocks.size() ? openOffsets : blocks.get(b).offsets;
+    }
+
+    /** Compresses the full open block into a new sealed block and empties the open one. */
+    private void seal() {
+        int words = openOffsets[openLines];
+        byte[] text = new byte[words * 3];
+        int textLength = 0;
+        for (int w = 0; w < words; w++) {
+            textLength = putVarint(text, textLength, Cell.codePoint(open[w]));
+        }
+        deflater.reset();
+        deflater.setInput(text, 0, textLength);
+        deflater.finish();
+        int deflated = 0;
+        while (!deflater.finished()) {
+            if (deflated == scratch.length) {
+                scratch = Arrays.copyOf(scratch, scratch.length * 2);
+            }
+            deflated += deflater.deflate(scratch, deflated, scratch.length - deflated);
+        }
+        blocks.add(new Block(Arrays.copyOf(openOffsets, openLines + 1),
+                Arrays.copyOf(scratch, deflated), textLength, encodeAttrs(words)));
+        openLines = 0;
+    }
+
+    /** Run-length encodes the non-code-point bits of the open words as (run length, bits) varint pairs. */
+    private byte[] encodeAttrs(int words) {
+        byte[] out = new byte[16];
+        int len = 0;
+        int w = 0;
+        while (w < words) {
+            long bits = open[w] >>> Cell.FG_SHIFT;
+            int run = 1;
+            while (w + run < words && open[w + run] >>> Cell.FG_SHIFT == bits) {
+                run++;
+            }
+            if (len + 8 > out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            len = putVarint(out, len, run);
+            len = putVarint(out, len, (int) bits);
+            w += run;
+        }
+        return Arrays.copyOf(out, len);
+    }
+
+    /** Returns the decoded words of {@code block}, from the cache or by decompressing it. */
+    private synchronized long[] decoded(Block block) {
+        long[] words = cache.get(block);
+        if (words != null) {
+            return words;
+        }
+        words = new long[block.offsets[block.offsets.length - 1]];
+        byte[] text = new byte[block.textLength];
+        inflater.reset();
+        inflater.setInput(block.text);
+        try {
+            int read = 0;
+            while (read < text.length) {
+                int n = inflater.inflate(text, read, text.length - read);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalStateException("Truncated scrollback block");
+                }
+                read += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt scrollback block", e);
+        }
+        readPos = 0;
+        for (int w = 0; w < words.length; w++) {
+            words[w] = readVarint(text);
+        }
+        readPos = 0;
+        int w = 0;
+        while (w < words.length) {
+            int run = readVarint(block.attrs);
+            long high = (long) readVarint(block.attrs) << Cell.FG_SHIFT;
+            for (int end = w + run; w < end; w++) {
+                words[w] |= high;
+            }
+        }
+        cache.put(block, words);
+        return words;
+    }
+
+    /** Writes {@code value} (non-negative) as a little-endian base-128 varint; returns the new position. */
+    private static int putVarint(byte[] out, int pos, int value) {
+        while (value >= 0x80) {
+            out[pos++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    /** Reads the varint at {@link #readPos} and advances past it. */
+    private int readVarint(byte[] in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in[readPos++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.zxuhan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Per-row dirty column ranges of the screen. Each row keeps one {@code [from, to)} interval that is
+ * widened to cover every change; a clean row has {@code from >= to}. Marking is two compares and two
+ * stores, cheap enough to run once per written character.
+ */
+final class DamageTracker {
+
+    private int[] from;
+    private int[] to;
+
+    /** Creates a tracker for {@code height} rows with every row fully dirty. */
+    DamageTracker(int height, int width) {
+        reset(height, width);
+    }
+
+    /** Widens the dirty range of {@code row} to include {@code [startCol, endCol)}. */
+    void add(int row, int startCol, int endCol) {
+        if (startCol < from[row]) from[row] = startCol;
+        if (endCol > to[row]) to[row] = endCol;
+    }
+
+    /** Marks rows {@code [startRow, endRow)} dirty across the full width. */
+    void addRows(int startRow, int endRow, int width) {
+        for (int r = startRow; r < endRow; r++) {
+            from[r] = 0;
+            to[r] = width;
+        }
+    }
+
+    /** Re-sizes to {@code height} rows, all fully dirty — the previous geometry is meaningless to a renderer. */
+    void reset(int height, int width) {
+        from = new int[height];
+        to = new int[height];
+        Arrays.fill(to, width);
+    }
+
+    /** Returns the dirty ranges in row order and marks every row clean. */
+    List<DirtyRange> collect() {
+        List<DirtyRange> ranges = new ArrayList<>();
+        for (int r = 0; r < from.length; r++) {
+            if (from[r] < to[r]) {
+                ranges.add(new DirtyRange(r, from[r], to[r]));
+            }
+            from[r] = Integer.MAX_VALUE;
+            to[r] = 0;
+        }
+        return ranges;
+    }
+}
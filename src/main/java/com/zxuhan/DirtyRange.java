@@ -0,0 +1,4 @@
+package com.zxuhan;
+
+/** Screen cells {@code [startCol, endCol)} of {@code row} that changed since the last damage collection. */
+public record DirtyRange(int row, int startCol, int endCol) {}
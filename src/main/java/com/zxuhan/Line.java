@@ -1,51 +1,246 @@
 package com.zxuhan;
 
+import java.util.Arrays;
+
 /**
  * A single row in the terminal grid.
- * Each Line owns exactly {@code width} {@link Cell} objects.
+ * Cells are stored packed, one {@code long} per column (see {@link Cell} for the layout), so a line
+ * is a single primitive array rather than {@code width} objects.
  */
 public class Line {
 
     final int width;
-    final Cell[] cells;
+    final long[] cells;
+
+    /**
+     * Set once a {@link ScreenSnapshot} references this line. A shared line is never mutated again:
+     * {@link TerminalBuffer} replaces it with a private copy before its next write (copy-on-write).
+     */
+    boolean shared;
+
+    /**
+     * Set when autowrap continued this line's text on the next line (a soft wrap): the two are one logical
+     * line, which a reflowing resize rejoins and wraps again at the new width.
+     */
+    boolean wrapped;
+
+    /**
+     * Set with {@link #wrapped} when the last column was left blank because the wide char after it did not fit
+     * and moved to the next line: padding, not text, so a reflow leaves it out of the logical line.
+     */
+    boolean padded;
+
+    /** The text built by {@link #toString()}; {@code null} until then and again after any write. */
+    private String text;
+
+    /** Columns {@code [contentEnd, width)} all hold {@link Cell#BLANK}; kept exact by every write. */
+    private int contentEnd;
+
+    /** False only if no cell is WIDE; stays set after the last WIDE cell is overwritten, until {@link #clear()}. */
+    private boolean hasWide;
 
     public Line(int width) {
         this.width = width;
-        this.cells = new Cell[width];
-        for (int i = 0; i < width; i++) {
-            cells[i] = Cell.blank();
-        }
+        this.cells = new long[width];
+        Arrays.fill(cells, Cell.BLANK);
+    }
+
+    private Line(long[] cells) {
+        this.width = cells.length;
+        this.cells = cells;
     }
 
-    /** Returns the live cell reference at {@code col}; returns {@link Cell#blank()} if out of bounds. */
+    /** Returns a detached view of the cell at {@code col}; returns {@link Cell#blank()} if out of bounds. */
     public Cell getCell(int col) {
         if (col < 0 || col >= width) return Cell.blank();
-        return cells[col];
+        return Cell.unpack(cells[col]);
     }
 
-    /** Writes a defensive copy of {@code cell} at {@code col}; no-op if out of bounds. */
+    /** Stores {@code cell} at {@code col}; no-op if out of bounds. Later changes to {@code cell} are not seen. */
     public void setCell(int col, Cell cell) {
         if (col < 0 || col >= width) return;
-        cells[col] = cell.copy();
+        set(col, cell.pack());
+    }
+
+    /** Returns the packed word at {@code col}; returns {@link Cell#BLANK} if out of bounds. */
+    long get(int col) {
+        if (col < 0 || col >= width) return Cell.BLANK;
+        return cells[col];
+    }
+
+    /**
+     * Returns the packed word displayed at {@code col}: for a CONTINUATION, the word of its WIDE partner
+     * at {@code col-1}. Returns {@link Cell#BLANK} if out of bounds.
+     */
+    long visible(int col) {
+        long word = get(col);
+        if (Cell.isContinuation(word) && col > 0) {
+            word = cells[col - 1];
+        }
+        return word;
+    }
+
+    /** Stores a packed word at {@code col}; caller guarantees {@code col} is in bounds. */
+    void set(int col, long word) {
+        cells[col] = word;
+        text = null;
+        if (word != Cell.BLANK) {
+            if (col >= contentEnd) {
+                contentEnd = col + 1;
+            }
+            if (Cell.isWide(word)) {
+                hasWide = true;
+            }
+        } else if (col == contentEnd - 1) {
+            contentEnd = contentEndBefore(col);
+        }
+    }
+
+    /** Fills {@code [from, to)} with a packed word. */
+    void fill(int from, int to, long word) {
+        Arrays.fill(cells, from, to, word);
+        text = null;
+        if (from >= to) {
+            return;
+        }
+        if (word != Cell.BLANK) {
+            contentEnd = Math.max(contentEnd, to);
+            if (Cell.isWide(word)) {
+                hasWide = true;
+            }
+        } else if (from < contentEnd && to >= contentEnd) {
+            contentEnd = contentEndBefore(from);
+        }
+    }
+
+    /** Resets every column to {@link Cell#BLANK} and clears the soft-wrap and padding flags. */
+    void clear() {
+        Arrays.fill(cells, Cell.BLANK);
+        wrapped = false;
+        padded = false;
+        text = null;
+        contentEnd = 0;
+        hasWide = false;
+    }
+
+    /** Copies the cells {@code [srcPos, srcPos+n)} of {@code src}, which may be this line, to {@code [dstPos, dstPos+n)}. */
+    void copyFrom(Line src, int srcPos, int dstPos, int n) {
+        System.arraycopy(src.cells, srcPos, cells, dstPos, n);
+        text = null;
+        hasWide |= src.hasWide;
+        written(dstPos, dstPos + n);
+    }
+
+    /** Updates the cached state after the caller stored {@code [from, to)} of {@link #cells} directly, no cell WIDE. */
+    void narrowWritten(int from, int to) {
+        text = null;
+        written(from, to);
+    }
+
+    /**
+     * Returns the column just past the last cell that is not {@link Cell#BLANK}, 0 for a blank line. Kept up to
+     * date by every write, so reading it never scans the line.
+     */
+    int contentEnd() {
+        return contentEnd;
     }
 
-    /** Returns a deep copy: new Line with new Cell objects at every column. */
+    /** Returns {@code false} only if no cell is WIDE, letting narrow-only paths skip wide-pair checks. */
+    boolean hasWide() {
+        return hasWide;
+    }
+
+    /**
+     * Returns the text cached by {@link #toString()}, or {@code null} if it was not built since the last write.
+     * Unlike {@code toString()}, safe to call while a write may be in progress: it never stores anything.
+     */
+    String cachedText() {
+        return text;
+    }
+
+    /** Returns a deep copy: new Line with its own cell array and the same soft-wrap flags and text, not shared. */
     public Line copy() {
-        Line copy = new Line(width);
+        Line copy = new Line(cells.clone());
+        copy.wrapped = wrapped;
+        copy.padded = padded;
+        copy.text = text;
+        copy.contentEnd = contentEnd;
+        copy.hasWide = hasWide;
+        return copy;
+    }
+
+    /** Moves {@link #contentEnd} after a direct write to {@code [from, to)}; only a write reaching it can move it. */
+    private void written(int from, int to) {
+        if (from >= to || to < contentEnd) {
+            return;
+        }
+        for (int col = to - 1; col >= from; col--) {
+            if (cells[col] != Cell.BLANK) {
+                contentEnd = col + 1;
+                return;
+            }
+        }
+        if (contentEnd > from) {
+            contentEnd = contentEndBefore(from);
+        }
+    }
+
+    /** Returns the column just past the last non-BLANK cell in {@code [0, col)}, 0 if there is none. */
+    private int contentEndBefore(int col) {
+        while (col > 0 && cells[col - 1] == Cell.BLANK) {
+            col--;
+        }
+        return col;
+    }
+
+    /**
+     * Writes this line's text, as returned by {@link #toString()}, to {@code dst} from index 0 and returns its
+     * length in chars; {@code dst} must hold at least {@code 2 * width} chars.
+     */
+    int getChars(char[] dst) {
+        return getChars(dst, 0);
+    }
+
+    /**
+     * Same as {@link #getChars(char[])}, but writes from index {@code at}; {@code dst} must hold at least
+     * {@code 2 * width} chars past it.
+     */
+    int getChars(char[] dst, int at) {
+        String cached = text;
+        if (cached != null) {
+            cached.getChars(0, cached.length(), dst, at);
+            return cached.length();
+        }
+        int n = at;
         for (int i = 0; i < width; i++) {
-            copy.cells[i] = cells[i].copy();
+            long word = cells[i];
+            if (!Cell.isContinuation(word)) {
+                n += Character.toChars(Cell.codePoint(word), dst, n);
+            }
         }
-        return copy;
+        return n - at;
     }
 
+    /**
+     * Returns the line's text, CONTINUATION cells skipped. The string is built once and cached until the next
+     * write, so repeated reads of an unchanged line allocate nothing. Building stores the cache, so a line a
+     * writer may be changing must only be read this way under the buffer's lock (see {@link #cachedText()}).
+     */
     @Override
     public String toString() {
-        StringBuilder sb = new StringBuilder();
+        String cached = text;
+        if (cached != null) {
+            return cached;
+        }
+        StringBuilder sb = new StringBuilder(width);
         for (int i = 0; i < width; i++) {
-            if (cells[i].type != CellType.CONTINUATION) {
-                sb.appendCodePoint(cells[i].ch);
+            long word = cells[i];
+            if (!Cell.isContinuation(word)) {
+                sb.appendCodePoint(Cell.codePoint(word));
             }
         }
-        return sb.toString();
+        cached = sb.toString();
+        text = cached;
+        return cached;
     }
-}
\ No newline at end of file
+}
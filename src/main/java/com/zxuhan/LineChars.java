@@ -0,0 +1,161 @@
+package com.zxuhan;
+
+import java.util.Arrays;
+
+/**
+ * A reusable {@link CharSequence} view of the text of one or more {@link Line}s, read straight from their
+ * packed cells. CONTINUATION cells are skipped and a supplementary code point reads as its surrogate pair,
+ * so the text of one line equals {@link Line#toString()}; lines added with {@link #append} follow on
+ * without a separator, as the rows of a soft-wrapped logical line do, and the blank {@link Line#padded}
+ * padding cell before each is left out, as a reflow leaves it out. {@link #row}, {@link #column} and
+ * {@link #index} map between char indices and cells. Lets a regex run over lines without building a String.
+ */
+final class LineChars implements CharSequence {
+
+    private long[][] rowCells = new long[1][];
+    private int rowCount;
+    private int length;
+    /** Row (among the appended lines) and cell column of each char; only read when {@link #direct} is false. */
+    private int[] rows = new int[0];
+    private int[] columns = new int[0];
+    /** Whether char {@code i} is cell {@code i} of the only line: no CONTINUATION, no supplementary code point. */
+    private boolean direct;
+    /** Whether the last char is the blank padding cell of a padded line, dropped if another line follows. */
+    private boolean padding;
+
+    /** Points this view at {@code line}; returns {@code this}. The line must not change while it is read. */
+    LineChars reset(Line line) {
+        rowCount = 0;
+        length = 0;
+        return append(line);
+    }
+
+    /** Continues the text with {@code line}'s; returns {@code this}. The line must not change while it is read. */
+    LineChars append(Line line) {
+        long[] cells = line.cells;
+        if (rowCount == rowCells.length) {
+            rowCells = Arrays.copyOf(rowCells, rowCount * 2);
+        }
+        int row = rowCount++;
+        rowCells[row] = cells;
+        if (row > 0 && padding) {
+            length--;
+        }
+        if (columns.length < length + 2 * cells.length) {
+            int grown = Math.max(2 * columns.length, length + 2 * cells.length);
+            rows = Arrays.copyOf(rows, grown);
+            columns = Arrays.copyOf(columns, grown);
+        }
+        int n = length;
+        direct = row == 0;
+        for (int col = 0; col < cells.length; col++) {
+            long word = cells[col];
+            if (Cell.isContinuation(word)) {
+                direct = false;
+                continue;
+            }
+            rows[n] = row;
+            columns[n++] = col;
+            if (!Character.isBmpCodePoint(Cell.codePoint(word))) {
+                rows[n] = row;
+                columns[n++] = col;
+                direct = false;
+            }
+        }
+        length = n;
+        padding = line.wrapped && line.padded && cells.length > 0 && cells[cells.length - 1] == Cell.BLANK;
+        return this;
+    }
+
+    /** Returns which appended line (0 for the first) holds char {@code index}; {@code length()} maps to the last. */
+    int row(int index) {
+        if (index >= length) {
+            return rowCount - 1;
+        }
+        return direct ? 0 : rows[index];
+    }
+
+    /**
+     * Returns the cell column of char {@code index} within its line; {@code length()} maps to the width of the
+     * last line, and the low half of a surrogate pair to the column of its code point.
+     */
+    int column(int index) {
+        if (index >= length) {
+            return rowCells[rowCount - 1].length;
+        }
+        return direct ? index : columns[index];
+    }
+
+    /** Returns the index of the first char at or right of cell {@code col} of the first line; {@code length()} if none. */
+    int index(int col) {
+        if (col <= 0) {
+            return 0;
+        }
+        int end = firstOfRow(1);
+        if (direct) {
+            return Math.min(col, end);
+        }
+        int lo = 0;
+        int hi = end;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (columns[mid] < col) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (direct) {
+            return (char) Cell.codePoint(rowCells[0][index]);
+        }
+        int col = columns[index];
+        int cp = Cell.codePoint(rowCells[rows[index]][col]);
+        if (Character.isBmpCodePoint(cp)) {
+            return (char) cp;
+        }
+        boolean low = index > 0 && columns[index - 1] == col && rows[index - 1] == rows[index];
+        return low ? Character.lowSurrogate(cp) : Character.highSurrogate(cp);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            sb.append(charAt(i));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length).toString();
+    }
+
+    /** Returns the index of the first char of appended line {@code row}; {@code length()} if there is none. */
+    private int firstOfRow(int row) {
+        if (row >= rowCount) {
+            return length;
+        }
+        int lo = 0;
+        int hi = length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (rows[mid] < row) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
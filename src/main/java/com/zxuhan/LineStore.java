@@ -0,0 +1,28 @@
+package com.zxuhan;
+
+/**
+ * Append-only store for the oldest scrollback lines, behind the on-heap ring of {@link Scrollback}.
+ * Lines are kept at the width they had when appended; {@link Scrollback} adapts them to the current width
+ * on read. Cells are read one packed word at a time, so reading a character never decodes a whole line.
+ */
+interface LineStore extends AutoCloseable {
+
+    /** Number of stored lines. */
+    int size();
+
+    /** Appends a copy of {@code line}'s cells; the caller may reuse {@code line} afterwards. */
+    void append(Line line);
+
+    /** Returns the width line {@code index} had when it was appended. */
+    int width(int index);
+
+    /** Returns the packed word at {@code col} of line {@code index}; caller guarantees both are in range. */
+    long word(int index, int col);
+
+    /** Discards every line. */
+    void clear();
+
+    /** Releases the underlying resources; the store must not be used afterwards. */
+    @Override
+    void close();
+}
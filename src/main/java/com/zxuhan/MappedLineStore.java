@@ -0,0 +1,156 @@
+package com.zxuhan;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link LineStore} in a memory-mapped file. Each line is one fixed-width record of packed cell words
+ * (the {@link Cell} layout, native byte order), so cell {@code col} of line {@code i} is a single
+ * absolute read at a computed offset.
+ *
+ * The file is mapped in chunks of {@code chunkBytes} as it grows; records never straddle a chunk.
+ * Consecutive lines of one width form a segment that starts on a fresh chunk, so a width change only
+ * costs the unused tail of a chunk. Heap use is a few objects per chunk, independent of the line count:
+ * the cells live in the page cache.
+ */
+final class MappedLineStore implements LineStore {
+
+    static final int DEFAULT_CHUNK_BYTES = 64 << 20;
+
+    private final FileChannel channel;
+    private final int chunkBytes;
+    /** Chunk {@code k} maps file bytes {@code [k*chunkBytes, (k+1)*chunkBytes)}; kept across {@link #clear()}. */
+    private final List<LongBuffer> chunks = new ArrayList<>();
+
+    // Segments, oldest first: first line index, record width, first chunk, records per chunk
+    private int[] segFirst = new int[4];
+    private int[] segWidth = new int[4];
+    private int[] segChunk = new int[4];
+    private int[] segPerChunk = new int[4];
+    private int segCount;
+
+    private int size;
+
+    MappedLineStore(Path file) throws IOException {
+        this(file, DEFAULT_CHUNK_BYTES);
+    }
+
+    MappedLineStore(Path file, int chunkBytes) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.chunkBytes = chunkBytes;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void append(Line line) {
+        int s = segCount - 1;
+        if (s < 0 || segWidth[s] != line.width) {
+            s = startSegment(line.width);
+        }
+        int rel = size - segFirst[s];
+        LongBuffer chunk = chunk(segChunk[s] + rel / segPerChunk[s]);
+        chunk.put((rel % segPerChunk[s]) * line.width, line.cells);
+        size++;
+    }
+
+    @Override
+    public int width(int index) {
+        return segWidth[segment(index)];
+    }
+
+    @Override
+    public long word(int index, int col) {
+        int s = segment(index);
+        int rel = index - segFirst[s];
+        return chunks.get(segChunk[s] + rel / segPerChunk[s]).get((rel % segPerChunk[s]) * segWidth[s] + col);
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        segCount = 0;
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        chunks.clear();
+    }
+
+    /** Opens a segment for lines of {@code width} on the first chunk after the current segment's last one. */
+    private int startSegment(int width) {
+        int firstChunk = 0;
+        if (segCount > 0) {
+            int last = segCount - 1;
+            int lines = size - segFirst[last];
+            firstChunk = segChunk[last] + (lines == 0 ? 0 : (lines - 1) / segPerChunk[last] + 1);
+        }
+        int recordBytes = width * Long.BYTES;
+        if (recordBytes > chunkBytes) {
+            throw new IllegalArgumentException("Line width " + width + " exceeds chunk size " + chunkBytes);
+        }
+        if (segCount == segFirst.length) {
+            int n = segCount * 2;
+            segFirst = Arrays.copyOf(segFirst, n);
+            segWidth = Arrays.copyOf(segWidth, n);
+            segChunk = Arrays.copyOf(segChunk, n);
+            segPerChunk = Arrays.copyOf(segPerChunk, n);
+        }
+        segFirst[segCount] = size;
+        segWidth[segCount] = width;
+        segChunk[segCount] = firstChunk;
+        segPerChunk[segCount] = width == 0 ? Integer.MAX_VALUE : chunkBytes / recordBytes;
+        return segCount++;
+    }
+
+    /** Returns the segment holding line {@code index}: the last one in the common case, else a binary search. */
+    private int segment(int index) {
+        int s = segCount - 1;
+        if (index >= segFirst[s]) {
+            return s;
+        }
+        int lo = 0;
+        int hi = s - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (segFirst[mid] <= index) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /** Returns chunk {@code k}, mapping it (and growing the file) first if needed. */
+    private LongBuffer chunk(int k) {
+        try {
+            while (chunks.size() <= k) {
+                long position = (long) chunks.size() * chunkBytes;
+                chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, position, chunkBytes)
+                        .order(ByteOrder.nativeOrder())
+                        .asLongBuffer());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return chunks.get(k);
+    }
+}
@@ -0,0 +1,7 @@
+package com.zxuhan;
+
+/**
+ * A regex match found by {@link TerminalBuffer#findAll} or {@link TerminalBuffer#findNext}: cells
+ * {@code [startCol, endCol)} of {@code row}, rows counted in {@link TerminalBuffer#getFullContent()} order.
+ */
+public record MatchRange(int row, int startCol, int endCol) {}
@@ -0,0 +1,196 @@
+package com.zxuhan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * One parallel search behind {@link TerminalBuffer#searchParallel}: the rows are cut into chunks of about
+ * {@link #CHUNK_ROWS}, and a fork/join task searches each chunk. A soft-wrapped run of rows is searched as one
+ * logical line, so a cut is only made where a logical line ends and no match crosses a chunk boundary.
+ *
+ * Every chunk keeps its own hits, and they are concatenated in chunk order, so the result is in reading order
+ * however the chunks were scheduled. Once the finished chunks at the front hold {@code limit} hits, every
+ * later chunk is skipped or abandoned between logical lines. A chunk also stops at {@code limit} hits of its
+ * own, since only the earliest of them can be returned.
+ *
+ * Rows are read through {@link Rows}, once to cut the chunks and then once per chunk, so a caller that locks
+ * the rows for each read holds its lock for one chunk at a time rather than for the whole search.
+ */
+final class ParallelSearch {
+
+    static final int CHUNK_ROWS = 1024;
+
+    /** The rows searched, which may change between reads. */
+    interface Rows {
+        /**
+         * Runs {@code task} with a function returning row {@code i}, numbered as when the search started, or
+         * {@code null} for a row no longer present. Rows stay unchanged until {@code task} returns.
+         */
+        void read(Consumer<IntFunction<Line>> task);
+    }
+
+    private final Rows rows;
+    private final Pattern pattern;
+    private final boolean overlapping;
+    private final int limit;
+
+    /** First row of each chunk, plus the row count at the end. */
+    private final int[] starts;
+    private final List<List<SearchHit>> found;
+    /** Hits of each finished chunk; -1 while it runs. */
+    private final int[] counts;
+    /** Chunks after this one are not needed. */
+    private final AtomicInteger lastNeeded;
+
+    /**
+     * Prepares a search of rows {@code [0, rowCount)}, read through {@code rows}, for {@code pattern}. With
+     * {@code overlapping} every start position of a match is a hit; otherwise matches are found as by
+     * {@link Matcher#find()}.
+     */
+    ParallelSearch(int rowCount, Rows rows, Pattern pattern, boolean overlapping, int limit) {
+        this.rows = rows;
+        this.pattern = pattern;
+        this.overlapping = overlapping;
+        this.limit = limit;
+        int[][] cut = new int[1][];
+        rows.read(row -> cut[0] = chunkStarts(rowCount, row));
+        this.starts = cut[0];
+        int chunks = starts.length - 1;
+        this.found = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            found.add(List.of());
+        }
+        this.counts = new int[chunks];
+        Arrays.fill(counts, -1);
+        this.lastNeeded = new AtomicInteger(chunks - 1);
+    }
+
+    /** Runs the search, on {@code pool} if there is more than one chunk; returns the first {@code limit} hits. */
+    List<SearchHit> run(ForkJoinPool pool) {
+        int chunks = starts.length - 1;
+        if (chunks == 1) {
+            search(0);
+        } else if (chunks > 1) {
+            pool.invoke(new Chunks(0, chunks));
+        }
+        List<SearchHit> hits = new ArrayList<>();
+        for (int i = 0; i < chunks && hits.size() < limit; i++) {
+            List<SearchHit> chunk = found.get(i);
+            hits.addAll(chunk.subList(0, Math.min(chunk.size(), limit - hits.size())));
+        }
+        return hits;
+    }
+
+    /** Splits a range of chunks in halves until each task holds one chunk. */
+    private final class Chunks extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        Chunks(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                search(from);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Chunks(from, mid), new Chunks(mid, to));
+            }
+        }
+    }
+
+    private void search(int chunk) {
+        List<SearchHit> hits = new ArrayList<>();
+        if (chunk <= lastNeeded.get()) {
+            rows.read(row -> search(chunk, row, hits));
+        }
+        found.set(chunk, hits);
+        finished(chunk, hits.size());
+    }
+
+    /** Adds the hits in {@code chunk} to {@code hits}, skipping rows no longer present. */
+    private void search(int chunk, IntFunction<Line> rows, List<SearchHit> hits) {
+        LineChars chars = new LineChars();
+        Matcher matcher = pattern.matcher("");
+        int end = starts[chunk + 1];
+        int row = starts[chunk];
+        while (row < end && hits.size() < limit && chunk <= lastNeeded.get()) {
+            int first = row;
+            Line line = rows.apply(row++);
+            if (line == null) {
+                continue;
+            }
+            chars.reset(line);
+            while (line.wrapped && row < end && rows.apply(row) != null) {
+                line = rows.apply(row++);
+                chars.append(line);
+            }
+            matcher.reset(chars);
+            int from = 0;
+            while (hits.size() < limit && from <= chars.length() && matcher.find(from)) {
+                int start = matcher.start();
+                SearchHit hit = new SearchHit(first + chars.row(start), chars.column(start));
+                // Both halves of a surrogate pair are in one cell, so a match at either is the same hit
+                if (hits.isEmpty() || !hits.get(hits.size() - 1).equals(hit)) {
+                    hits.add(hit);
+                }
+                if (overlapping || matcher.end() == start) {
+                    from = start < chars.length() ? start + Character.charCount(Character.codePointAt(chars, start))
+                            : start + 1;
+                } else {
+                    from = matcher.end();
+                }
+            }
+        }
+    }
+
+    /** Records a finished chunk and moves {@link #lastNeeded} to the end of the shortest prefix holding enough hits. */
+    private synchronized void finished(int chunk, int hits) {
+        counts[chunk] = hits;
+        int last = hits >= limit ? chunk : Integer.MAX_VALUE;
+        int sum = 0;
+        for (int i = 0; i < counts.length && counts[i] >= 0 && i < last; i++) {
+            sum += counts[i];
+            if (sum >= limit) {
+                last = i;
+            }
+        }
+        lastNeeded.accumulateAndGet(last, Math::min);
+    }
+
+    /**
+     * Cuts {@code [0, rowCount)} about every {@link #CHUNK_ROWS} rows, moving each cut past any soft wrap; a
+     * row no longer present counts as unwrapped.
+     */
+    private static int[] chunkStarts(int rowCount, IntFunction<Line> rows) {
+        int[] starts = new int[rowCount / CHUNK_ROWS + 2];
+        int count = 0;
+        starts[count++] = 0;
+        int cut = CHUNK_ROWS;
+        while (cut < rowCount) {
+            while (cut < rowCount && rows.apply(cut - 1) != null && rows.apply(cut - 1).wrapped) {
+                cut++;
+            }
+            if (cut < rowCount) {
+                starts[count++] = cut;
+            }
+            cut += CHUNK_ROWS;
+        }
+        starts[count++] = rowCount;
+        return rowCount == 0 ? new int[] {0} : Arrays.copyOf(starts, count);
+    }
+}
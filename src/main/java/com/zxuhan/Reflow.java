@@ -0,0 +1,103 @@
+package com.zxuhan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rewraps logical lines — runs of physical lines joined by {@link Line#wrapped} — at a new width.
+ * Physical lines are fed oldest first; one without the flag ends its logical line. The text of a logical
+ * line is every cell of its wrapped lines plus the cells of the last one up to its last non-blank cell, so
+ * trailing blanks never produce extra rows. A wide char that would straddle the new right edge moves to
+ * the next row, leaving a blank behind; on a one-column width it cannot fit at all and becomes a blank.
+ * Such a blank is flagged as {@link Line#padded} padding and, like the one autowrap leaves, is not text:
+ * a padded row contributes every cell but its last. Every row but the last of a logical line is flagged
+ * wrapped, so the output can be reflowed again.
+ */
+final class Reflow {
+
+    private final int width;
+    private final List<Line> rows = new ArrayList<>();
+    /** Row being filled, or {@code null} between logical lines. */
+    private Line row;
+    private int col;
+
+    /** Row and column the marked cell landed on; {@code cursorRow} is -1 until a marked cell is fed. */
+    int cursorRow = -1;
+    int cursorCol;
+
+    Reflow(int width) {
+        this.width = width;
+    }
+
+    /** Feeds the next physical line. */
+    void add(Line line) {
+        add(line, -1);
+    }
+
+    /**
+     * Feeds the next physical line and tracks cell {@code markCol} of it (if non-negative) into
+     * {@link #cursorRow}/{@link #cursorCol}. The marked cell counts as text even if blank, so the cursor
+     * keeps its place after the last character.
+     */
+    void add(Line line, int markCol) {
+        int end = line.width;
+        if (!line.wrapped) {
+            end = Math.max(line.contentEnd(), Math.min(markCol + 1, line.width));
+        } else if (line.padded && markCol != end - 1 && line.cells[end - 1] == Cell.BLANK) {
+            end--;
+        }
+        if (row == null) {
+            newRow();
+        }
+        boolean afterWide = false;
+        for (int c = 0; c < end; c++) {
+            long word = line.cells[c];
+            if (Cell.isContinuation(word)) {
+                if (c == markCol) {
+                    mark(afterWide ? col - 1 : col);
+                }
+                afterWide = false;
+                continue; // placed together with its WIDE
+            }
+            boolean wide = Cell.isWide(word);
+            afterWide = wide;
+            if (wide && width < 2) {
+                word = Cell.BLANK;
+                wide = false;
+            }
+            int need = wide ? 2 : 1;
+            if (col + need > width) {
+                row.wrapped = true;
+                row.padded = col < width;
+                newRow();
+            }
+            if (c == markCol) {
+                mark(col);
+            }
+            row.set(col, word);
+            if (wide) {
+                row.set(col + 1, Cell.CONTINUATION);
+            }
+            col += need;
+        }
+        if (!line.wrapped) {
+            row = null;
+        }
+    }
+
+    /** Returns the rewrapped rows so far, oldest first; each is a new line of the target width. */
+    List<Line> rows() {
+        return rows;
+    }
+
+    private void newRow() {
+        row = new Line(width);
+        rows.add(row);
+        col = 0;
+    }
+
+    private void mark(int markedCol) {
+        cursorRow = rows.size() - 1;
+        cursorCol = markedCol;
+    }
+}
@@ -0,0 +1,78 @@
+package com.zxuhan;
+
+/**
+ * Immutable view of the screen and cursor at the moment {@link TerminalBuffer#snapshot()} was called.
+ * The lines are shared with the buffer, which never mutates a shared line again, so a snapshot can be
+ * read from any thread while the buffer keeps changing. Accessors follow the screen getters of
+ * {@link TerminalBuffer}, including their out-of-bounds defaults and CONTINUATION rule.
+ */
+public final class ScreenSnapshot {
+
+    private final int width;
+    private final int height;
+    private final Line[] lines;
+    private final int cursorCol;
+    private final int cursorRow;
+
+    ScreenSnapshot(int width, int height, Line[] lines, int cursorCol, int cursorRow) {
+        this.width = width;
+        this.height = height;
+        this.lines = lines;
+        this.cursorCol = cursorCol;
+        this.cursorRow = cursorRow;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getCursorCol() {
+        return cursorCol;
+    }
+
+    public int getCursorRow() {
+        return cursorRow;
+    }
+
+    /** Returns the code point at {@code (col, row)}; space if out of bounds. */
+    public int getChar(int col, int row) {
+        if (row < 0 || row >= height) {
+            return ' ';
+        }
+        return Cell.codePoint(lines[row].visible(col));
+    }
+
+    /** Returns the interned style id at {@code (col, row)}; the default style id (0) if out of bounds. */
+    public int getStyleId(int col, int row) {
+        if (row < 0 || row >= height) {
+            return StyleTable.DEFAULT_ID;
+        }
+        return StyleTable.id(lines[row].visible(col));
+    }
+
+    /** Returns the shared attributes at {@code (col, row)}; default attributes if out of bounds. */
+    public CellAttributes getAttributes(int col, int row) {
+        return StyleTable.get(getStyleId(col, row));
+    }
+
+    /** Returns the string content of row {@code row}; all-spaces if out of bounds. */
+    public String getLine(int row) {
+        if (row < 0 || row >= height) {
+            return " ".repeat(width);
+        }
+        return lines[row].toString();
+    }
+
+    /** Returns all rows from 0 to height-1, each terminated with {@code \n}. */
+    public String getContent() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < height; i++) {
+            sb.append(lines[i].toString()).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,557 @@
+package com.zxuhan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Scrollback history, oldest line first.
+ * The newest lines live in a circular array bounded by a fixed capacity: adding past capacity overwrites
+ * the oldest slot in O(1) instead of shifting every line down. The array grows by doubling until it
+ * reaches capacity, so a large limit does not allocate its full slot array up front.
+ *
+ * With a {@link LineStore}, lines pushed out of the ring are appended to the store instead of being
+ * dropped, and history is unbounded.
+ *
+ * A resize never rewrites history. Every line keeps the width and cells it was added with and is read as
+ * if every later resize had been applied to it: truncated to the narrowest width seen since it was added
+ * (blanking a WIDE left in the last column if a narrowing resize reached that width, even one back to the
+ * line's own width), then padded to the current width. Resizing costs O(1) here however long the history is.
+ *
+ * A reflowing resize ({@link #reflow}) instead marks every ring line pending, to be rewrapped at the new
+ * width by the writer: each {@link #step()} rewraps the oldest pending logical lines, at least
+ * {@value #STEP_LINES} ring lines, into settled rows that take their place ahead of the ring, and the last
+ * one moves the settled rows into the ring. The resize itself stays O(1) here too, and no read ever waits
+ * for the rewrap: until it is done, reads see the lines still pending clipped. Stored lines are never
+ * reflowed.
+ *
+ * A {@link TrigramIndex} of every line is kept up to date as lines come and go: a line is indexed when it is
+ * added and withdrawn when dropped. A narrowing resize leaves each line with a subset of its indexed
+ * trigrams, which only costs a search some candidates. A reflow renumbers the lines, so it empties the
+ * index, and {@link #step()} indexes the history again, {@value #STEP_LINES} lines at a time, once the
+ * pending lines are settled. Lines the index has not caught up to are candidates for every query.
+ */
+class Scrollback {
+
+    private static final int INITIAL_SLOTS = 16;
+
+    private final int capacity;
+    private Line[] lines;
+    /** Slot index of the oldest line. */
+    private int head;
+    private int size;
+
+    /** Older lines spilled from the ring, or {@code null} to drop them. */
+    private final LineStore store;
+    /** Current width, or {@link #UNSIZED} to read every line at its own width until {@link #resized}. */
+    private int width;
+    /** Lines added since the last clear; line {@code index} was the {@code (appended - size() + index)}th. */
+    private long appended;
+
+    // Resizes seen by the history, as a stack of (lines added before the resize, new width). The line with
+    // sequence number n is clipped to the smallest width among entries with clipAt > n. Entries made
+    // redundant by a later, narrower resize are popped, so widths and clipAt both increase bottom to top.
+    private long[] clipAt = new long[4];
+    private int[] clipWidth = new int[4];
+    private int clipCount;
+
+    /** The oldest {@code pendingCount} ring lines are still to be rewrapped at {@link #width}. */
+    private int pendingCount;
+    /**
+     * Rows rewrapped from pending lines so far, oldest at {@code settledFrom}; they come after the stored lines
+     * and before the ring. Empty unless lines are pending.
+     */
+    private final List<Line> settled = new ArrayList<>();
+    private int settledFrom;
+
+    /** Trigram index of the lines by sequence number; empty from a reflow until the pending lines are settled. */
+    private TrigramIndex index = new TrigramIndex();
+    /** Every line with a lower sequence number is indexed, none from it on; behind {@link #appended} after a reflow. */
+    private long indexedTo;
+
+    /** Lines indexed by one {@link #step()}. */
+    static final int STEP_LINES = 512;
+
+    private static final int UNSIZED = -1;
+
+    Scrollback(int capacity) {
+        this(capacity, UNSIZED, null);
+    }
+
+    Scrollback(int capacity, int width, LineStore store) {
+        this.capacity = Math.max(0, capacity);
+        this.lines = new Line[Math.min(this.capacity, INITIAL_SLOTS)];
+        this.width = width;
+        this.store = store;
+    }
+
+    /** Total number of lines: stored, settled and in the ring. */
+    int size() {
+        return storedSize() + settledSize() + size;
+    }
+
+    /** Sequence number of the next line added; line {@code index} is number {@code appended() - size() + index}. */
+    long appended() {
+        return appended;
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /** Number of lines in the {@link LineStore}; they come first, indices {@code [0, storedSize())}. */
+    int storedSize() {
+        return store == null ? 0 : store.size();
+    }
+
+    /**
+     * Returns line {@code index}, 0 being the oldest; caller guarantees {@code index} is in [0, size-1].
+     * A ring line or settled row that no resize has touched is returned as is; any other line is decoded into
+     * a new Line at the current width. Stores keep no soft-wrap flag, so a stored line never reads as wrapped.
+     */
+    Line get(int index) {
+        int stored = storedSize();
+        Line ring = index < stored ? null : held(index - stored);
+        int lineWidth = ring == null ? store.width(index) : ring.width;
+        int entry = clipEntry(index);
+        int clip = clip(entry, lineWidth);
+        boolean narrowed = narrowed(entry, clip, lineWidth);
+        if (ring != null && clip == lineWidth && (width == UNSIZED || lineWidth == width)
+                && (!narrowed || !Cell.isWide(ring.cells[clip - 1]))) {
+            return ring;
+        }
+        Line line = new Line(width);
+        for (int col = 0; col < clip; col++) {
+            line.set(col, clipped(ring == null ? store.word(index, col) : ring.cells[col], col, clip, narrowed));
+        }
+        line.wrapped = ring != null && ring.wrapped;
+        return line;
+    }
+
+    /**
+     * Returns the text of line {@code index} without caching it on a heap line, for reads that may race a
+     * writer: a ring line's or settled row's cached text, or {@code null} if it has none; a line decoded by
+     * {@link #get} belongs to the caller, so its text is built. Caller guarantees {@code index} is in [0, size-1].
+     */
+    String cachedText(int index) {
+        Line line = get(index);
+        int stored = storedSize();
+        boolean inRing = index >= stored && line == held(index - stored);
+        return inRing ? line.cachedText() : line.toString();
+    }
+
+    /**
+     * Returns the packed word at {@code col} of line {@code index} without decoding the whole line;
+     * {@link Cell#BLANK} if {@code col} is out of bounds. Caller guarantees {@code index} is in [0, size-1].
+     */
+    long word(int index, int col) {
+        int stored = storedSize();
+        Line ring = index < stored ? null : held(index - stored);
+        int lineWidth = ring == null ? store.width(index) : ring.width;
+        int entry = clipEntry(index);
+        int clip = clip(entry, lineWidth);
+        if (col < 0 || col >= clip) {
+            return Cell.BLANK;
+        }
+        return clipped(ring == null ? store.word(index, col) : ring.cells[col], col, clip, narrowed(entry, clip, lineWidth));
+    }
+
+    /** Same as {@link Line#visible(int)} for line {@code index}. */
+    long visible(int index, int col) {
+        long word = word(index, col);
+        if (Cell.isContinuation(word) && col > 0) {
+            word = word(index, col - 1);
+        }
+        return word;
+    }
+
+    /**
+     * Appends {@code line} as the newest entry.
+     * When the ring was already full, its oldest line (or settled row) is moved to the store (copied) or
+     * dropped, and returned so the caller may reuse it; otherwise returns {@code null}.
+     * With zero capacity {@code line} itself goes straight to the store (or is dropped) and is returned.
+     */
+    Line add(Line line) {
+        Line evicted = null;
+        if (settledSize() > 0 && settledSize() + size == capacity) {
+            evicted = pollSettled();
+        } else if (size == capacity && pendingCount > 0) {
+            evictPendingHead();
+        }
+        long seq = appended++;
+        if (capacity == 0) {
+            spill(line);
+            if (store != null) {
+                index(seq, line);
+            }
+            return line;
+        }
+        index(seq, line);
+        if (settledSize() + size < capacity) {
+            if (size == lines.length) {
+                grow();
+            }
+            lines[slot(size)] = line;
+            size++;
+            return evicted;
+        }
+        evicted = lines[head];
+        spill(evicted);
+        if (store == null && seq - capacity < indexedTo) {
+            index.remove(seq - capacity, evicted);
+        }
+        lines[head] = line;
+        head = head + 1 == lines.length ? 0 : head + 1;
+        return evicted;
+    }
+
+    /**
+     * Records a width change; every line present now is clipped to it when read. Lines still pending are
+     * settled first, at once.
+     */
+    void resized(int newWidth) {
+        settle();
+        width = newWidth;
+        clipBefore(appended, newWidth);
+    }
+
+    /**
+     * Records a reflowing width change: every ring line, settled rows included, becomes pending and is
+     * rewrapped at {@code newWidth} by the steps; stored lines are clipped as by {@link #resized}.
+     * Clips that earlier resizes left on ring lines are first applied to them for good.
+     */
+    void reflow(int newWidth) {
+        if (settledSize() > 0) {
+            mergeSettled();
+        }
+        index = new TrigramIndex();
+        indexedTo = appended - size();
+        long firstRing = appended - size;
+        int k = clipCount;
+        while (k > 0 && clipAt[k - 1] > firstRing) {
+            k--;
+        }
+        if (k < clipCount) {
+            int stored = storedSize();
+            for (int r = 0; r < size; r++) {
+                Line line = lines[slot(r)];
+                int entry = clipEntry(stored + r);
+                int clip = clip(entry, line.width);
+                boolean narrowed = narrowed(entry, clip, line.width);
+                if (narrowed) {
+                    Line clipped = new Line(clip);
+                    for (int col = 0; col < clip; col++) {
+                        clipped.set(col, clipped(line.cells[col], col, clip, true));
+                    }
+                    clipped.wrapped = line.wrapped;
+                    lines[slot(r)] = clipped;
+                }
+            }
+            // The baked entries now only concern stored lines; the narrowest of them is enough
+            if (k > 0 && clipAt[k - 1] == firstRing) {
+                clipCount = k;
+            } else {
+                clipAt[k] = firstRing;
+                clipCount = k + 1;
+            }
+        }
+        width = newWidth;
+        pendingCount = size;
+        clipBefore(firstRing, newWidth);
+    }
+
+    /**
+     * Returns, ascending, the indices of the lines that may contain {@code query} (code points); every other
+     * line certainly does not. Lines not indexed yet are all candidates. Returns {@code null} if every line
+     * must be checked: none is indexed yet, or the query is too short to narrow the search.
+     */
+    int[] candidates(int[] query) {
+        long first = appended - size();
+        long indexedTo = this.indexedTo;
+        long[] seqs = indexedTo <= first ? null : index.candidates(query);
+        if (seqs == null) {
+            return null;
+        }
+        int[] rows = new int[seqs.length + (int) (appended - indexedTo)];
+        int count = 0;
+        for (long seq : seqs) {
+            if (seq >= first && seq < indexedTo) {
+                rows[count++] = (int) (seq - first);
+            }
+        }
+        for (long seq = indexedTo; seq < appended; seq++) {
+            rows[count++] = (int) (seq - first);
+        }
+        return count == rows.length ? rows : Arrays.copyOf(rows, count);
+    }
+
+    /** Returns whether a reflow left work for {@link #step()}: lines pending, or lines not indexed yet. */
+    boolean behind() {
+        return pendingCount > 0 || indexedTo < appended;
+    }
+
+    /**
+     * Does one bounded share of the work a reflow left behind, for the writer to call between writes:
+     * rewraps pending lines (see {@link #settleStep()}), or once none is left indexes up to
+     * {@value #STEP_LINES} of the lines the index has not caught up to.
+     */
+    void step() {
+        if (pendingCount > 0) {
+            settleStep();
+            return;
+        }
+        long first = appended - size();
+        indexedTo = Math.max(indexedTo, first);
+        long end = Math.min(appended, indexedTo + STEP_LINES);
+        while (indexedTo < end) {
+            index.add(indexedTo, get((int) (indexedTo - first)));
+            indexedTo++;
+        }
+    }
+
+    /** Returns whether ring lines are waiting to be rewrapped by the steps. */
+    boolean reflowPending() {
+        return pendingCount > 0;
+    }
+
+    /** Rewraps every pending ring line at the current width, as the remaining steps would. */
+    void settle() {
+        while (pendingCount > 0) {
+            settleStep();
+        }
+    }
+
+    /**
+     * Rewraps the oldest pending logical lines, at least {@value #STEP_LINES} ring lines unless fewer are
+     * pending, and appends the rows to {@link #settled}. Rows beyond capacity are moved to the store or
+     * dropped, oldest first, as by {@link #add}. Once no line is pending, the settled rows join the ring.
+     */
+    private void settleStep() {
+        int before = size();
+        Reflow reflow = new Reflow(width);
+        int k = 0;
+        boolean more = false;
+        while (k < pendingCount && (k < STEP_LINES || more)) {
+            Line line = lines[slot(k)];
+            reflow.add(line);
+            more = line.wrapped;
+            k++;
+        }
+        for (int i = 0; i < k; i++) {
+            lines[slot(i)] = null;
+        }
+        head = slot(k);
+        size -= k;
+        pendingCount -= k;
+        settled.addAll(reflow.rows());
+        while (settledSize() + size > capacity) {
+            pollSettled();
+        }
+        if (pendingCount == 0) {
+            mergeSettled();
+        }
+        appended += size() - before;
+    }
+
+    /** Number of settled rows, the lines {@code [storedSize(), storedSize() + settledSize())}. */
+    private int settledSize() {
+        return settled.size() - settledFrom;
+    }
+
+    /** Returns heap line {@code i}: settled rows first, then the ring. */
+    private Line held(int i) {
+        int settledSize = settledSize();
+        return i < settledSize ? settled.get(settledFrom + i) : lines[slot(i - settledSize)];
+    }
+
+    /**
+     * Removes the oldest settled row, moves it to the store or drops it, and returns it. It is not indexed:
+     * the index does not reach lines while any is pending.
+     */
+    private Line pollSettled() {
+        Line row = settled.set(settledFrom++, null);
+        spill(row);
+        return row;
+    }
+
+    /** Moves the settled rows into the ring, ahead of its lines: one pass of reference copies. */
+    private void mergeSettled() {
+        int count = settledSize();
+        Line[] merged = new Line[Math.min(capacity, Math.max(INITIAL_SLOTS, count + size))];
+        for (int i = 0; i < count; i++) {
+            merged[i] = settled.get(settledFrom + i);
+        }
+        for (int r = 0; r < size; r++) {
+            merged[count + r] = lines[slot(r)];
+        }
+        lines = merged;
+        head = 0;
+        size += count;
+        settled.clear();
+        settledFrom = 0;
+    }
+
+    /**
+     * Removes and returns, oldest first, the newest ring lines that soft-wrap into whatever follows them
+     * (the top of the screen): a reflowing resize rewraps them together with the screen.
+     */
+    List<Line> pollWrappedTail() {
+        List<Line> tail = new ArrayList<>();
+        while (size > 0 && lines[slot(size - 1)].wrapped) {
+            int s = slot(size - 1);
+            tail.add(lines[s]);
+            lines[s] = null;
+            size--;
+            appended--;
+        }
+        pendingCount = Math.min(pendingCount, size);
+        Collections.reverse(tail);
+        return tail;
+    }
+
+    /**
+     * Clips every line added before sequence number {@code at} to {@code newWidth}: pops entries made
+     * redundant, then pushes one unless no such line exists or the same lines are already clipped narrower.
+     */
+    private void clipBefore(long at, int newWidth) {
+        while (clipCount > 0 && clipWidth[clipCount - 1] >= newWidth) {
+            clipCount--;
+        }
+        if (at <= appended - size() || (clipCount > 0 && clipAt[clipCount - 1] == at)) {
+            return;
+        }
+        if (clipCount == clipAt.length) {
+            clipAt = Arrays.copyOf(clipAt, clipCount * 2);
+            clipWidth = Arrays.copyOf(clipWidth, clipCount * 2);
+        }
+        clipAt[clipCount] = at;
+        clipWidth[clipCount] = newWidth;
+        clipCount++;
+    }
+
+    void clear() {
+        Arrays.fill(lines, null);
+        settled.clear();
+        settledFrom = 0;
+        head = 0;
+        size = 0;
+        appended = 0;
+        pendingCount = 0;
+        index = new TrigramIndex();
+        indexedTo = 0;
+        if (store != null) {
+            store.clear();
+        }
+        clipCount = 0;
+    }
+
+    /** Closes the store, if any. */
+    void close() {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    /** Indexes line {@code seq} as it is added, unless the index is still catching up after a reflow. */
+    private void index(long seq, Line line) {
+        if (indexedTo == seq) {
+            index.add(seq, line);
+            indexedTo = seq + 1;
+        }
+    }
+
+    private void spill(Line line) {
+        if (store != null) {
+            store.append(line);
+        }
+    }
+
+    /**
+     * Makes room in a full ring whose oldest line is pending and that has no settled rows: rewraps the oldest
+     * logical line and moves its rows to the store (or drops them), so no line leaves the ring at a stale width.
+     */
+    private void evictPendingHead() {
+        int before = size();
+        Reflow reflow = new Reflow(width);
+        int k = 0;
+        boolean more;
+        do {
+            Line line = lines[slot(k)];
+            reflow.add(line);
+            more = line.wrapped;
+            k++;
+        } while (more && k < pendingCount);
+        for (Line row : reflow.rows()) {
+            spill(row);
+        }
+        for (int i = 0; i < k; i++) {
+            lines[slot(i)] = null;
+        }
+        head = slot(k);
+        size -= k;
+        pendingCount -= k;
+        appended += size() - before;
+    }
+
+    /**
+     * Returns the clip entry that applies to line {@code index}: the first one added after it, whose width is
+     * the narrowest of every later resize; {@code clipCount} if no resize followed the line.
+     */
+    private int clipEntry(int index) {
+        long seq = appended - size() + index;
+        // First entry with clipAt > seq: entries above it have larger widths
+        int lo = 0;
+        int hi = clipCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (clipAt[mid] > seq) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /** Returns the number of leading columns of a line {@code lineWidth} wide that survive clip entry {@code entry}. */
+    private int clip(int entry, int lineWidth) {
+        int clip = entry < clipCount ? Math.min(lineWidth, clipWidth[entry]) : lineWidth;
+        return width == UNSIZED ? clip : Math.min(clip, width);
+    }
+
+    /**
+     * Returns whether a narrowing resize reached {@code clip}: the line is cut below its width, or a resize
+     * brought it back down to exactly its width after a wider one. The narrowest later width is never reached
+     * by widening, so an entry as wide as the line means the latter.
+     */
+    private boolean narrowed(int entry, int clip, int lineWidth) {
+        return clip < lineWidth || (entry < clipCount && clipWidth[entry] == lineWidth);
+    }
+
+    /**
+     * Returns {@code word} at {@code col < clip}, blanking a WIDE in the last column if a narrowing resize
+     * reached it: its CONTINUATION was cut off then, or it never had one in this line.
+     */
+    private static long clipped(long word, int col, int clip, boolean narrowed) {
+        if (narrowed && col == clip - 1 && Cell.isWide(word)) {
+            return Cell.BLANK;
+        }
+        return word;
+    }
+
+    private int slot(int index) {
+        int s = head + index;
+        return s >= lines.length ? s - lines.length : s;
+    }
+
+    /** Doubles the slot array (up to capacity), unrolling the ring so the oldest line lands at slot 0. */
+    private void grow() {
+        Line[] grown = new Line[(int) Math.min(capacity, Math.max(INITIAL_SLOTS, 2L * lines.length))];
+        int firstPart = lines.length - head;
+        System.arraycopy(lines, head, grown, 0, firstPart);
+        System.arraycopy(lines, 0, grown, firstPart, head);
+        lines = grown;
+        head = 0;
+    }
+}
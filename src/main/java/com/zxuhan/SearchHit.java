@@ -0,0 +1,7 @@
+package com.zxuhan;
+
+/**
+ * A match found by {@link TerminalBuffer#search}: {@code row} counts lines in {@link TerminalBuffer#getFullContent()}
+ * order (scrollback oldest first, then the screen), {@code col} is the cell column where the match starts.
+ */
+public record SearchHit(int row, int col) {}
@@ -0,0 +1,55 @@
+package com.zxuhan;
+
+/**
+ * Interned cell styles. A style id is the 13-bit attribute field of a packed cell word
+ * (bits 21..33: fg, bg, bold, italic, underline), so every cell already carries its id and interning
+ * costs nothing at write time. Each valid id maps to one shared {@link CellAttributes}, built once.
+ * Id 0 is the default style.
+ */
+final class StyleTable {
+
+    static final int STYLE_SHIFT = Cell.FG_SHIFT;
+    static final int STYLE_BITS = Cell.TYPE_SHIFT - Cell.FG_SHIFT;
+    static final long STYLE_MASK = (1L << STYLE_BITS) - 1;
+
+    static final int DEFAULT_ID = 0;
+
+    private static final CellAttributes[] STYLES = buildStyles();
+
+    static final CellAttributes DEFAULT = STYLES[DEFAULT_ID];
+
+    private StyleTable() {}
+
+    /** Returns the style id of a packed cell word. */
+    static int id(long word) {
+        return (int) ((word >>> STYLE_SHIFT) & STYLE_MASK);
+    }
+
+    /** Returns the style id for the given attributes. */
+    static int id(Color fg, Color bg, boolean bold, boolean italic, boolean underline) {
+        return id(Cell.pack(0, fg, bg, bold, italic, underline));
+    }
+
+    /** Returns the shared attributes for {@code id}, or {@code null} if no style has that id. */
+    static CellAttributes get(int id) {
+        return id >= 0 && id < STYLES.length ? STYLES[id] : null;
+    }
+
+    private static CellAttributes[] buildStyles() {
+        CellAttributes[] styles = new CellAttributes[1 << STYLE_BITS];
+        boolean[] flags = {false, true};
+        for (Color fg : Color.values()) {
+            for (Color bg : Color.values()) {
+                for (boolean bold : flags) {
+                    for (boolean italic : flags) {
+                        for (boolean underline : flags) {
+                            styles[id(fg, bg, bold, italic, underline)] =
+                                    new CellAttributes(fg, bg, bold, italic, underline);
+                        }
+                    }
+                }
+            }
+        }
+        return styles;
+    }
+}
@@ -1,20 +1,68 @@
 package com.zxuhan;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
 import java.util.ArrayList;
-
-public class TerminalBuffer {
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Terminal text buffer: a {@code width × height} screen of cells, a cursor, and scrollback history.
+ * Scrollback keeps {@code maxScrollback} lines on the heap; optionally, older lines spill to a
+ * memory-mapped file and history is unbounded.
+ *
+ * Thread safety: one writer thread and any number of reader threads. Every operation that changes the
+ * screen, scrollback, cursor or damage state takes the write lock. Read accessors first read without
+ * locking under an optimistic stamp and only take the read lock if a write intervened, so readers do not
+ * contend with each other and normally never hold up the writer. Pen setters belong to the writer thread.
+ */
+public class TerminalBuffer implements AutoCloseable {
 
     // Buffer configuration
     int width;
     int height;
     Line[] screen;
-    ArrayList<Line> scrollback;
+    Scrollback scrollback;
     int maxScrollback;
 
     // Cursor position
     int cursorCol;
     int cursorRow;
 
+    // Autowrap mode; wrapPending is set once a character filled the last column, and the next one wraps
+    boolean autowrap;
+    boolean wrapPending;
+
+    // Screen cells changed since the last collectDamage()
+    DamageTracker damage;
+
+    // Guards screen, scrollback, cursor and damage; not reentrant, so locked methods never call each other
+    private final StampedLock lock = new StampedLock();
+
+    // Reusable CharSequence view for the char[] overloads, so they share the CharSequence code path
+    private final CharArraySequence charView = new CharArraySequence();
+
+    // UTF-8 decoding state for writeBytes; survives between calls so split sequences are completed
+    private final Utf8Decoder utf8 = new Utf8Decoder();
+    // Staging array for writeBytes on buffers without an accessible backing array; allocated on first use
+    private byte[] byteStaging;
+    // insertText's cross-row guard: per column, the flat index of the first WIDE cell it scanned there
+    private int[] firstWideInColumn = new int[0];
+
     // Current cell attributes
     Color currentFg;
     Color currentBg;
@@ -23,6 +71,28 @@ public class TerminalBuffer {
     boolean currentUnderline;
 
     public TerminalBuffer(int width, int height, int maxScrollback) {
+        this(width, height, maxScrollback, (LineStore) null);
+    }
+
+    /**
+     * Creates a buffer with unbounded scrollback: the newest {@code maxScrollback} lines stay on the heap,
+     * older ones are written to {@code spillFile} (created or truncated) and read back through a memory
+     * mapping, so heap use does not grow with history. {@link #close()} releases the file.
+     */
+    public TerminalBuffer(int width, int height, int maxScrollback, Path spillFile) throws IOException {
+        this(width, height, maxScrollback, new MappedLineStore(spillFile));
+    }
+
+    /**
+     * Creates a buffer with unbounded scrollback kept compressed on the heap: the newest {@code hotLines}
+     * lines stay expanded, older ones are packed into compressed blocks. Reading an old line decompresses
+     * only its block; the few most recently read blocks are cached.
+     */
+    public static TerminalBuffer withCompressedScrollback(int width, int height, int hotLines) {
+        return new TerminalBuffer(width, height, hotLines, new CompressedLineStore());
+    }
+
+    TerminalBuffer(int width, int height, int maxScrollback, LineStore spillStore) {
         this.width = width;
         this.height = height;
         this.maxScrollback = maxScrollback;
@@ -32,7 +102,8 @@ public class TerminalBuffer {
             screen[i] = new Line(width);
         }
 
-        scrollback = new ArrayList<>();
+        scrollback = new Scrollback(maxScrollback, width, spillStore);
+        damage = new DamageTracker(height, width);
 
         cursorCol = 0;
         cursorRow = 0;
@@ -47,33 +118,63 @@ public class TerminalBuffer {
     // --- Cursor ---
 
     public int getCursorCol() {
-        return cursorCol;
+        return readInt((buf, col, row) -> buf.cursorCol, 0, 0);
     }
 
     public int getCursorRow() {
-        return cursorRow;
+        return readInt((buf, col, row) -> buf.cursorRow, 0, 0);
     }
 
     /** Clamps both axes to valid ranges: col to [0, width-1], row to [0, height-1]. */
     public void setCursor(int col, int row) {
-        cursorCol = Math.max(0, Math.min(col, width - 1));
-        cursorRow = Math.max(0, Math.min(row, height - 1));
+        long stamp = lock.writeLock();
+        try {
+            placeCursor(col, row);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
 
     public void moveCursorUp(int n) {
-        setCursor(cursorCol, cursorRow - n);
+        long stamp = lock.writeLock();
+        try {
+            placeCursor(cursorCol, cursorRow - n);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
 
     public void moveCursorDown(int n) {
-        setCursor(cursorCol, cursorRow + n);
+        long stamp = lock.writeLock();
+        try {
+            placeCursor(cursorCol, cursorRow + n);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
 
     public void moveCursorLeft(int n) {
-        setCursor(cursorCol - n, cursorRow);
+        long stamp = lock.writeLock();
+        try {
+            placeCursor(cursorCol - n, cursorRow);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
 
     public void moveCursorRight(int n) {
-        setCursor(cursorCol + n, cursorRow);
+        long stamp = lock.writeLock();
+        try {
+            placeCursor(cursorCol + n, cursorRow);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void placeCursor(int col, int row) {
+        cursorCol = Math.max(0, Math.min(col, width - 1));
+        cursorRow = Math.max(0, Math.min(row, height - 1));
+        wrapPending = false;
     }
 
     // --- Attributes ---
@@ -106,6 +207,23 @@ public class TerminalBuffer {
         currentUnderline = false;
     }
 
+    // --- Modes ---
+
+    /**
+     * Enables or disables autowrap (off by default). With autowrap, text written past the right edge
+     * continues at the start of the next line, scrolling at the bottom, and the line it left is flagged as
+     * soft-wrapped. A width change then reflows instead of truncating: soft-wrapped lines are rejoined and
+     * wrapped again at the new width (see {@link #resize}). Like the pen setters, call from the writer thread.
+     */
+    public void setAutowrap(boolean autowrap) {
+        this.autowrap = autowrap;
+        wrapPending = false;
+    }
+
+    public boolean isAutowrap() {
+        return autowrap;
+    }
+
     // --- Editing operations ---
 
     /**
@@ -118,44 +236,340 @@ public class TerminalBuffer {
      * If only one column remains (cursorCol == width-1), the wide char is skipped entirely.
      * Orphan cleanup on overwrite: narrow-over-WIDE blanks col+1; wide-over-adjacent-WIDE blanks col+2.
      * Cursor advances by 2 for wide, 1 for narrow, clamped to width-1.
+     *
+     * With {@link #setAutowrap autowrap} nothing stops at the edge: the character after the one that
+     * filled the last column (or a wide char with one column left) goes to column 0 of the next line,
+     * which scrolls the screen when the cursor is on the bottom row. The cursor stays on the last column
+     * until then, so a cursor move in between cancels the wrap.
      */
     public void writeText(String text) {
-        if (text.isEmpty()) {
-            return;
-        }
-        snapCursorOffContinuation();
-        int[] codePoints = text.codePoints().toArray();
-        for (int i = 0; i < codePoints.length; i++) {
+        writeText(text, 0, text.length());
+    }
 
-            int cp = codePoints[i];
-            if (UnicodeUtils.isWide(cp)) {
-                if (cursorCol == width - 1) return;
-                // If the cell at cursorCol+1 is WIDE, blank its orphaned CONTINUATION at cursorCol+2
-                if (screen[cursorRow].getCell(cursorCol + 1).type == CellType.WIDE && cursorCol + 2 < width) {
-                    screen[cursorRow].setCell(cursorCol + 2, Cell.blank());
+    /**
+     * Same as {@link #writeText(String)} for the chars {@code [start, end)} of {@code text}.
+     * Surrogate pairs are decoded in place; no intermediate code point array is built. Runs of narrow
+     * characters are stored in one pass by {@link #writeNarrowRun}; the rest are written one at a time.
+     */
+    public void writeText(CharSequence text, int start, int end) {
+        long stamp = lock.writeLock();
+        try {
+            stepScrollback();
+            Objects.checkFromToIndex(start, end, text.length());
+            if (start == end) {
+                return;
+            }
+            snapCursorOffContinuation();
+            long pen = penWord();
+            Line line = writableLine(cursorRow);
+            int i = start;
+            while (i < end) {
+                int runEnd = UnicodeUtils.narrowRunEnd(text, i, end);
+                if (runEnd > i) {
+                    if (!autowrap) {
+                        if (!writeNarrowRun(line, pen, text, i, runEnd)) {
+                            return;
+                        }
+                        i = runEnd;
+                        continue;
+                    }
+                    // Autowrap: one run per line the text spans
+                    while (i < runEnd) {
+                        if (wrapPending) {
+                            line = wrapToNextLine(line, false);
+                        }
+                        int n = Math.min(runEnd - i, width - cursorCol);
+                        wrapPending = !writeNarrowRun(line, pen, text, i, i + n);
+                        i += n;
+                    }
+                    continue;
+                }
+                int cp = UnicodeUtils.codePointAt(text, i, end);
+                i += Character.charCount(cp);
+                if (autowrap) {
+                    line = writeWrapping(line, pen, cp);
+                } else if (!writeCodePoint(line, pen, cp)) {
+                    return;
                 }
-                Cell wide = new Cell(cp, currentFg, currentBg, currentBold, currentItalic, currentUnderline);
-                wide.type = CellType.WIDE;
-                screen[cursorRow].cells[cursorCol] = wide;
-                screen[cursorRow].cells[cursorCol + 1] = Cell.continuation();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /** Same as {@link #writeText(String)} for the chars {@code [offset, offset+length)} of {@code text}. */
+    public void writeText(char[] text, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, text.length);
+        try {
+            writeText(charView.reset(text, offset, length), 0, length);
+        } finally {
+            charView.reset(null, 0, 0);
+        }
+    }
+
+    /**
+     * Decodes UTF-8 from {@code bytes[offset, offset+length)} and writes it like {@link #writeText(String)}.
+     * Each call is one write: the cursor snaps once, and once the right edge stops writing the rest of
+     * this call's bytes are only run through the decoder. A sequence left incomplete at the end of the
+     * range is completed by the next call. Malformed input is written as U+FFFD.
+     */
+    public void writeBytes(byte[] bytes, int offset, int length) {
+        long stamp = lock.writeLock();
+        try {
+            stepScrollback();
+            Objects.checkFromIndexSize(offset, length, bytes.length);
+            if (length == 0) {
+                return;
+            }
+            snapCursorOffContinuation();
+            decodeAndWrite(bytes, offset, offset + length, true);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
 
-                cursorCol = Math.min(cursorCol + 2, width - 1);
+    /** Same as {@link #writeBytes(byte[], int, int)} for the remaining bytes of {@code src}, which is consumed. */
+    public void writeBytes(ByteBuffer src) {
+        long stamp = lock.writeLock();
+        try {
+            stepScrollback();
+            if (!src.hasRemaining()) {
+                return;
+            }
+            snapCursorOffContinuation();
+            if (src.hasArray()) {
+                int from = src.arrayOffset() + src.position();
+                decodeAndWrite(src.array(), from, from + src.remaining(), true);
+                src.position(src.limit());
+                return;
+            }
+            if (byteStaging == null) {
+                byteStaging = new byte[4096];
+            }
+            boolean writing = true;
+            while (src.hasRemaining()) {
+                int n = Math.min(src.remaining(), byteStaging.length);
+                src.get(byteStaging, 0, n);
+                writing = decodeAndWrite(byteStaging, 0, n, writing);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Ends the UTF-8 stream of {@link #writeBytes}: a sequence it left incomplete is dropped and written as
+     * U+FFFD, as an ASCII byte in its place would be. For callers that take control bytes out of the stream
+     * before it reaches {@code writeBytes}, like {@link VtParser}. A no-op while no sequence is pending.
+     */
+    void endBytes() {
+        if (utf8.idle()) {
+            return; // the decoder belongs to the writer thread, which is the caller
+        }
+        long stamp = lock.writeLock();
+        try {
+            utf8.reset();
+            snapCursorOffContinuation();
+            long pen = penWord();
+            Line line = writableLine(cursorRow);
+            if (autowrap) {
+                writeWrapping(line, pen, Utf8Decoder.REPLACEMENT);
             } else {
-                // If overwriting a WIDE cell, blank its orphaned CONTINUATION
-                if (screen[cursorRow].getCell(cursorCol).type == CellType.WIDE && cursorCol + 1 < width) {
-                    screen[cursorRow].setCell(cursorCol + 1, Cell.blank());
-                }
-                Cell normal = new Cell(cp, currentFg, currentBg, currentBold, currentItalic, currentUnderline);
-                screen[cursorRow].cells[cursorCol] = normal;
+                writeCodePoint(line, pen, Utf8Decoder.REPLACEMENT);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
 
-                if (cursorCol == width - 1) {
-                    return;
+    /**
+     * Decodes {@code bytes[from, to)} into the cursor row. Runs of ASCII bytes seen while the decoder is idle
+     * bypass it and go through {@link #writeAsciiRun}. Returns whether writing may continue; when
+     * {@code writing} is {@code false} bytes only advance the decoder state.
+     */
+    private boolean decodeAndWrite(byte[] bytes, int from, int to, boolean writing) {
+        long pen = penWord();
+        Line line = writableLine(cursorRow);
+        int i = from;
+        while (i < to) {
+            if (writing && utf8.idle() && bytes[i] >= 0) {
+                int runEnd = Utf8Decoder.asciiRunEnd(bytes, i, to);
+                if (!autowrap) {
+                    writing = writeAsciiRun(line, pen, bytes, i, runEnd);
+                    i = runEnd;
+                    continue;
                 }
-                cursorCol = Math.min(cursorCol + 1, width - 1);
+                // Autowrap: one run per line the text spans
+                while (i < runEnd) {
+                    if (wrapPending) {
+                        line = wrapToNextLine(line, false);
+                    }
+                    int n = Math.min(runEnd - i, width - cursorCol);
+                    wrapPending = !writeAsciiRun(line, pen, bytes, i, i + n);
+                    i += n;
+                }
+                continue;
+            }
+            int b = bytes[i++] & 0xFF;
+            int cp = utf8.feed(b);
+            if (cp == Utf8Decoder.RETRY) {
+                if (autowrap) {
+                    line = writeWrapping(line, pen, Utf8Decoder.REPLACEMENT);
+                } else if (writing) {
+                    writing = writeCodePoint(line, pen, Utf8Decoder.REPLACEMENT);
+                }
+                cp = utf8.feed(b);
+            }
+            if (cp >= 0 && autowrap) {
+                line = writeWrapping(line, pen, cp);
+            } else if (cp >= 0 && writing) {
+                writing = writeCodePoint(line, pen, cp);
+            }
+        }
+        return writing;
+    }
+
+    /**
+     * Writes the ASCII bytes {@code bytes[from, to)} at the cursor with the same result as calling
+     * {@link #writeCodePoint} for each, but as one branch-free store loop. Only the cell after the last
+     * written column can need orphan cleanup: every other cell a per-character write would blank is
+     * overwritten by the run itself. Returns {@code false} if the run reached the right edge.
+     */
+    private boolean writeAsciiRun(Line line, long pen, byte[] bytes, int from, int to) {
+        int start = cursorCol;
+        int n = Math.min(to - from, width - start);
+        int damageEnd = blankRunOrphan(line, start, n);
+        long[] cells = line.cells;
+        for (int k = 0; k < n; k++) {
+            cells[start + k] = pen | bytes[from + k];
+        }
+        return finishNarrowRun(line, start, n, damageEnd);
+    }
+
+    /**
+     * Same as {@link #writeAsciiRun} for chars {@code text[from, to)}, each a whole narrow code point
+     * (see {@link UnicodeUtils#narrowRunEnd}).
+     */
+    private boolean writeNarrowRun(Line line, long pen, CharSequence text, int from, int to) {
+        int start = cursorCol;
+        int n = Math.min(to - from, width - start);
+        int damageEnd = blankRunOrphan(line, start, n);
+        long[] cells = line.cells;
+        for (int k = 0; k < n; k++) {
+            cells[start + k] = pen | text.charAt(from + k);
+        }
+        return finishNarrowRun(line, start, n, damageEnd);
+    }
+
+    /**
+     * Before a narrow run overwrites columns {@code [start, start+n)}: blanks the cell after it if a
+     * per-character write would, and returns the end of the columns the run changes.
+     */
+    private int blankRunOrphan(Line line, int start, int n) {
+        int last = start + n - 1;
+        // A per-character write blanks last+1 if cell `last` is WIDE at that moment, i.e. it was WIDE and
+        // was not already blanked as the orphan of a WIDE just before it — an odd-length run of WIDE cells.
+        int wideRun = 0;
+        while (line.hasWide() && last - wideRun >= start && Cell.isWide(line.cells[last - wideRun])) {
+            wideRun++;
+        }
+        if (wideRun % 2 == 1 && last + 1 < width) {
+            line.set(last + 1, Cell.BLANK);
+            return last + 2;
+        }
+        return last + 1;
+    }
+
+    /** After a narrow run was stored in {@code [start, start+n)}: records it and moves the cursor past it. */
+    private boolean finishNarrowRun(Line line, int start, int n, int damageEnd) {
+        line.narrowWritten(start, start + n);
+        damage.add(cursorRow, start, damageEnd);
+        int last = start + n - 1;
+        if (last == width - 1) {
+            cursorCol = width - 1;
+            return false;
+        }
+        cursorCol = last + 1;
+        return true;
+    }
+
+    /**
+     * Writes one code point at the cursor of {@code line} (the cursor row) and advances the cursor.
+     * Returns {@code false} when writing must stop: a wide char that does not fit, or the right edge was hit.
+     */
+    private boolean writeCodePoint(Line line, long pen, int cp) {
+        if (UnicodeUtils.isWide(cp)) {
+            if (cursorCol == width - 1) return false;
+            int end = cursorCol + 2;
+            // If the cell at cursorCol+1 is WIDE, blank its orphaned CONTINUATION at cursorCol+2
+            if (Cell.isWide(line.get(cursorCol + 1)) && cursorCol + 2 < width) {
+                line.set(cursorCol + 2, Cell.BLANK);
+                end = cursorCol + 3;
+            }
+            line.set(cursorCol, pen | cp | Cell.WIDE_BITS);
+            line.set(cursorCol + 1, Cell.CONTINUATION);
+            damage.add(cursorRow, cursorCol, end);
+
+            cursorCol = Math.min(cursorCol + 2, width - 1);
+        } else {
+            int end = cursorCol + 1;
+            // If overwriting a WIDE cell, blank its orphaned CONTINUATION
+            if (Cell.isWide(line.get(cursorCol)) && cursorCol + 1 < width) {
+                line.set(cursorCol + 1, Cell.BLANK);
+                end = cursorCol + 2;
             }
+            line.set(cursorCol, pen | cp);
+            damage.add(cursorRow, cursorCol, end);
 
+            if (cursorCol == width - 1) {
+                return false;
+            }
+            cursorCol = Math.min(cursorCol + 1, width - 1);
+        }
+        return true;
+    }
 
+    /**
+     * Autowrap version of {@link #writeCodePoint}: first wraps to the next line if a wrap is pending or a
+     * wide char has only the last column left, then writes and leaves a wrap pending if the character
+     * reached the right edge. The last column a wide char leaves behind is blanked and flagged as padding,
+     * so whatever it held does not become part of the logical line. A wide char on a one-column screen can
+     * never fit and is skipped. Returns the line the cursor is on afterwards.
+     */
+    private Line writeWrapping(Line line, long pen, int cp) {
+        boolean wide = UnicodeUtils.isWide(cp);
+        if (wide && width < 2) {
+            return line;
+        }
+        if (wrapPending) {
+            line = wrapToNextLine(line, false);
+        } else if (wide && cursorCol == width - 1) {
+            line.set(cursorCol, Cell.BLANK);
+            damage.add(cursorRow, cursorCol, width);
+            line = wrapToNextLine(line, true);
+        }
+        boolean reachesEdge = cursorCol + (wide ? 2 : 1) >= width;
+        writeCodePoint(line, pen, cp);
+        wrapPending = reachesEdge;
+        return line;
+    }
+
+    /**
+     * Soft-wraps: flags {@code line} (the cursor row) as continued, and as ending in padding if
+     * {@code padded}, moves the cursor to column 0 of the next line, scrolling if it is the bottom row,
+     * and returns that line ready for writing.
+     */
+    private Line wrapToNextLine(Line line, boolean padded) {
+        line.wrapped = true;
+        line.padded = padded;
+        wrapPending = false;
+        cursorCol = 0;
+        if (cursorRow == height - 1) {
+            scrollUp();
+        } else {
+            cursorRow++;
         }
+        return writableLine(cursorRow);
     }
 
     /**
@@ -163,118 +577,231 @@ public class TerminalBuffer {
      * Screen is treated as a flat 1D array: (row, col) → row * width + col.
      * Cursor snaps left if it starts on a CONTINUATION.
      *
-     * Phase 1 — available slots: scan backward from the last cell counting consecutive blank NORMAL cells.
+     * Phase 1 — available slots: the consecutive blank NORMAL cells at the end of the screen, found from
+     *   each line's content end, one row at a time from the last row (see {@link #contentEnd}).
      *   CONTINUATION cells are not blank; they are part of an existing wide pair, not free space.
      * Phase 2 — truncate text: walk codepoints accumulating cost (wide=2, narrow=1) until slots run out.
      *   insertCount = total slot we can insert.
      * Phase 3 — cross-row guard: a WIDE cell in the shift range that would land at col width-1 after the
      *   shift would leave its CONTINUATION on the next row, splitting the pair. Decrement insertCount by 1
-     *   and repeat until no such violation exists.
-     * Phase 4 — shift: copy cells from (total-1-insertCount) down to cursorFlat, each moving right by
-     *   insertCount. Reverse order prevents overwriting a source cell before it is copied.
+     *   until no such violation exists; one pass, see {@link #crossRowGuard}.
+     * Phase 4 — shift: move cells [cursorFlat, total-availableSlots) right by insertCount, as one backward
+     *   arraycopy per row segment. Reverse order prevents overwriting a source cell before it is copied.
+     *   The trailing blanks need no move: they would only land on other blanks.
      * Phase 5 — write: fill the freed slots with the truncated text. If a wide char has only 1 slot left,
      *   write a normal space instead. Cursor advances by insertCount flat positions, clamped to last cell.
+     *
+     * Cost: O(k) to write k code points plus O(height) for phase 1, and the content between the cursor and
+     * the last non-blank cell is moved, so it is not O(k) amortized. The screen deliberately stays an
+     * array of {@link Line} rows rather than a gap buffer over the flat view: snapshots, the scrollback and
+     * search take those rows by reference, and a gap that moves across rows would have to be closed before
+     * any of them reads a row, moving the same cells the shift moves now.
      */
     public void insertText(String text) {
-        if (text.isEmpty()) {
-            return;
+        insertText(text, 0, text.length());
+    }
+
+    /** Same as {@link #insertText(String)} for the chars {@code [offset, offset+length)} of {@code text}. */
+    public void insertText(char[] text, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, text.length);
+        try {
+            insertText(charView.reset(text, offset, length), 0, length);
+        } finally {
+            charView.reset(null, 0, 0);
         }
-        snapCursorOffContinuation();
-        int[] codePoints = text.codePoints().toArray();
-        int total = height * width;
-        int cursorFlat = cursorRow * width + cursorCol;
+    }
 
-        // Phase 1: count trailing blank NORMAL cells
-        int availableSlots = 0;
-        for (int i = total - 1; i >= cursorFlat; i--) {
-            if (isBlank(screen[i / width].getCell(i % width))) {
-                availableSlots++;
-            } else {
-                break;
+    /**
+     * Same as {@link #insertText(String)} for the chars {@code [start, end)} of {@code text}.
+     * The text is walked twice (budget, then write), decoding surrogate pairs in place each time.
+     */
+    public void insertText(CharSequence text, int start, int end) {
+        long stamp = lock.writeLock();
+        try {
+            stepScrollback();
+            Objects.checkFromToIndex(start, end, text.length());
+            if (start == end) {
+                return;
             }
-        }
+            wrapPending = false;
+            snapCursorOffContinuation();
+            int total = height * width;
+            int cursorFlat = cursorRow * width + cursorCol;
+
+            // Phase 1: count trailing blank NORMAL cells
+            int availableSlots = total - contentEnd(cursorFlat);
+
+            // Phase 2: slot budget — largest prefix of text that fits (wide=2, narrow=1)
+            int insertCount = 0;
+            for (int i = start; i < end; ) {
+                int cp = UnicodeUtils.codePointAt(text, i, end);
+                i += Character.charCount(cp);
+                int cost = UnicodeUtils.isWide(cp) ? 2 : 1;
+                if (insertCount + cost > availableSlots) {
+                    break;
+                }
 
-        // Phase 2: slot budget — largest prefix of text that fits (wide=2, narrow=1)
-        int insertCount = 0;
-        for (int cp : codePoints) {
-            int cost = UnicodeUtils.isWide(cp) ? 2 : 1;
-            if (insertCount + cost > availableSlots) {
-                break;
+                insertCount += cost;
+            }
+            if (insertCount == 0) {
+                return;
             }
 
-            insertCount += cost;
-        }
-        if (insertCount == 0) {
-            return;
-        }
+            // Phase 3: cross-row guard
+            insertCount = crossRowGuard(cursorFlat, insertCount);
+            if (insertCount == 0) {
+                return;
+            }
 
-        // Phase 3: cross-row guard — re-scan from cursorFlat after every decrement, since
-        // reducing insertCount changes which flat index each existing WIDE cell lands on
-        boolean foundViolation = true;
-        while (insertCount > 0 && foundViolation) {
-            foundViolation = false;
-            for (int i = cursorFlat; i < cursorFlat + insertCount; i++) {
-                if (screen[i / width].getCell(i % width).type == CellType.WIDE
-                        && (i + insertCount) % width == width - 1) {
-                    insertCount--;
-                    foundViolation = true;
+            // Phase 4: shift existing content rightward by insertCount positions.
+            // Cells from changedEnd on only receive blanks shifted from the trailing blank run: unchanged
+            int changedEnd = total - availableSlots + insertCount;
+            for (int r = cursorRow; r <= (changedEnd - 1) / width; r++) {
+                writableLine(r);
+            }
+            shiftFlatRight(cursorFlat, total - availableSlots - cursorFlat, insertCount);
+            damageFlat(cursorFlat, changedEnd);
+
+            // Phase 5: write characters into freed slots; insertCount is the slot budget
+            long pen = penWord();
+            int flat = cursorFlat;
+            for (int i = start; i < end; ) {
+                if (insertCount <= 0) {
                     break;
                 }
+                int cp = UnicodeUtils.codePointAt(text, i, end);
+                i += Character.charCount(cp);
+                if (UnicodeUtils.isWide(cp)) {
+                    if (insertCount < 2) {
+                        screen[flat / width].set(flat % width, Cell.BLANK);
+                        flat++;
+                        break;
+                    }
+                    screen[flat / width].set(flat % width, pen | cp | Cell.WIDE_BITS);
+                    screen[(flat + 1) / width].set((flat + 1) % width, Cell.CONTINUATION);
+                    flat += 2;
+                    insertCount -= 2;
+                } else {
+                    screen[flat / width].set(flat % width, pen | cp);
+                    flat++;
+                    insertCount--;
+                }
             }
-        }
-        if (insertCount == 0) {
-            return;
-        }
 
-        // Phase 4: shift existing content rightward by insertCount positions
-        for (int i = total - 1 - insertCount; i >= cursorFlat; i--) {
-            Cell src = screen[i / width].getCell(i % width);
-            screen[(i + insertCount) / width].setCell((i + insertCount) % width, src);
+            int newFlat = Math.min(flat, total - 1);
+            cursorRow = newFlat / width;
+            cursorCol = newFlat % width;
+        } finally {
+            lock.unlockWrite(stamp);
         }
+    }
 
-        // Phase 5: write characters into freed slots; insertCount is the slot budget
-        int flat = cursorFlat;
-        for (int cp : codePoints) {
-            if (insertCount <= 0) {
-                break;
+    /**
+     * Returns the largest {@code count <= insertCount} for which no WIDE cell in {@code [from, from+count)}
+     * lands on the last column when shifted right by {@code count}, or 0 if there is none. Same result as
+     * trying each count from {@code insertCount} down and rescanning the range, but in one pass.
+     *
+     * A WIDE cell at flat index {@code i} lands on the last column exactly when its column is
+     * {@code (width - 1 - count) mod width}, and it is in the range exactly when {@code i < from + count}.
+     * So recording the first WIDE cell of each column in {@code [from, from+insertCount)} answers each
+     * count with a single lookup: O(insertCount + width) instead of O(insertCount²). Lines without WIDE
+     * cells are skipped.
+     */
+    int crossRowGuard(int from, int insertCount) {
+        if (firstWideInColumn.length < width) {
+            firstWideInColumn = new int[width];
+        }
+        int[] firstWide = firstWideInColumn;
+        Arrays.fill(firstWide, 0, width, Integer.MAX_VALUE);
+        int end = from + insertCount;
+        for (int rowStart = from - from % width; rowStart < end; rowStart += width) {
+            Line line = screen[rowStart / width];
+            if (!line.hasWide()) {
+                continue;
             }
-            if (UnicodeUtils.isWide(cp)) {
-                if (insertCount < 2) {
-                    screen[flat / width].cells[flat % width] = Cell.blank();
-                    flat++;
-                    break;
+            int last = Math.min(end - rowStart, width);
+            for (int col = Math.max(from - rowStart, 0); col < last; col++) {
+                if (Cell.isWide(line.cells[col]) && firstWide[col] == Integer.MAX_VALUE) {
+                    firstWide[col] = rowStart + col;
                 }
-                Cell wide = new Cell(cp, currentFg, currentBg, currentBold, currentItalic, currentUnderline);
-                wide.type = CellType.WIDE;
-                screen[flat / width].cells[flat % width] = wide;
-                screen[(flat + 1) / width].cells[(flat + 1) % width] = Cell.continuation();
-                flat += 2;
-                insertCount -= 2;
-            } else {
-                screen[flat / width].cells[flat % width] =
-                        new Cell(cp, currentFg, currentBg, currentBold, currentItalic, currentUnderline);
-                flat++;
-                insertCount--;
             }
         }
+        for (int count = insertCount; count > 0; count--) {
+            if (firstWide[Math.floorMod(width - 1 - count, width)] >= from + count) {
+                return count;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the flat index just past the last cell at or after {@code from} that is not a blank NORMAL cell,
+     * or {@code from} if there is none. Each line tracks its own content end, so this is O(rows).
+     */
+    private int contentEnd(int from) {
+        int fromRow = from / width;
+        for (int r = height - 1; r > fromRow; r--) {
+            int end = screen[r].contentEnd();
+            if (end > 0) {
+                return r * width + end;
+            }
+        }
+        return fromRow * width + Math.max(from % width, screen[fromRow].contentEnd());
+    }
+
+    /**
+     * Moves the flat range {@code [from, from+len)} right by {@code count} positions.
+     * Copies backward in segments that stay within one source row and one destination row,
+     * so each segment is a single {@link System#arraycopy}.
+     */
+    private void shiftFlatRight(int from, int len, int count) {
+        int remaining = len;
+        while (remaining > 0) {
+            int srcLast = from + remaining - 1;
+            int dstLast = srcLast + count;
+            int n = Math.min(remaining, Math.min(srcLast % width, dstLast % width) + 1);
+            screen[dstLast / width].copyFrom(screen[srcLast / width], srcLast % width - n + 1, dstLast % width - n + 1, n);
+            remaining -= n;
+        }
+    }
 
-        int newFlat = Math.min(flat, total - 1);
-        cursorRow = newFlat / width;
-        cursorCol = newFlat % width;
+    /**
+     * Returns screen line {@code row} ready for mutation: if a snapshot shares it, it is first replaced by
+     * a private copy, so the snapshot keeps seeing the old content.
+     */
+    private Line writableLine(int row) {
+        Line line = screen[row];
+        if (line.shared) {
+            line = line.copy();
+            screen[row] = line;
+        }
+        return line;
+    }
+
+    /** Marks the flat screen range {@code [from, to)} dirty, one range per row it covers. */
+    private void damageFlat(int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        int firstRow = from / width;
+        int lastRow = (to - 1) / width;
+        if (firstRow == lastRow) {
+            damage.add(firstRow, from % width, (to - 1) % width + 1);
+            return;
+        }
+        damage.add(firstRow, from % width, width);
+        damage.addRows(firstRow + 1, lastRow, width);
+        damage.add(lastRow, 0, (to - 1) % width + 1);
     }
 
-    private boolean isBlank(Cell cell) {
-        return cell.type == CellType.NORMAL
-                && cell.ch == ' '
-                && cell.fg == Color.DEFAULT
-                && cell.bg == Color.DEFAULT
-                && !cell.bold
-                && !cell.italic
-                && !cell.underline;
+    /** Returns the packed style bits of the current pen; OR in a code point (and type bits) to get a cell. */
+    private long penWord() {
+        return Cell.pack(0, currentFg, currentBg, currentBold, currentItalic, currentUnderline);
     }
 
+    /** Moves the cursor off a CONTINUATION onto its WIDE, unless a wrap is pending (the line is full). */
     private void snapCursorOffContinuation() {
-        if (screen[cursorRow].getCell(cursorCol).type == CellType.CONTINUATION) {
+        if (!wrapPending && Cell.isContinuation(screen[cursorRow].get(cursorCol))) {
             cursorCol = Math.max(0, cursorCol - 1);
         }
     }
@@ -287,59 +814,136 @@ public class TerminalBuffer {
      * Cursor does not move.
      */
     public void fillLine(Integer ch) {
-        if (ch == null) {
-            for (int col = 0; col < width; col++) {
-                screen[cursorRow].cells[col] = Cell.blank();
+        long stamp = lock.writeLock();
+        try {
+            stepScrollback();
+            Line line = writableLine(cursorRow);
+            damage.add(cursorRow, 0, width);
+            if (ch == null) {
+                line.clear();
+            } else if (UnicodeUtils.isWide(ch)) {
+                long wide = Cell.pack(ch, currentFg, currentBg, currentBold, currentItalic, currentUnderline)
+                        | Cell.WIDE_BITS;
+                for (int col = 0; col + 1 < width; col += 2) {
+                    line.set(col, wide);
+                    line.set(col + 1, Cell.CONTINUATION);
+                }
+                if (width % 2 != 0) {
+                    line.set(width - 1, Cell.BLANK);
+                }
+            } else {
+                line.fill(0, width, Cell.pack(ch, currentFg, currentBg, currentBold, currentItalic, currentUnderline));
             }
-        } else if (UnicodeUtils.isWide(ch)) {
-            for (int col = 0; col + 1 < width; col += 2) {
-                Cell wide = new Cell(ch, currentFg, currentBg, currentBold, currentItalic, currentUnderline);
-                wide.type = CellType.WIDE;
-                screen[cursorRow].cells[col] = wide;
-                screen[cursorRow].cells[col + 1] = Cell.continuation();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Blanks columns [fromCol, toCol) of the cursor row (clamped to the line).
+     * A wide character cut by either boundary is blanked whole. Cursor does not move.
+     */
+    void eraseCells(int fromCol, int toCol) {
+        long stamp = lock.writeLock();
+        try {
+            stepScrollback();
+            int from = Math.max(0, fromCol);
+            int to = Math.min(width, toCol);
+            if (from >= to) {
+                return;
             }
-            if (width % 2 != 0) {
-                screen[cursorRow].cells[width - 1] = Cell.blank();
+            Line line = writableLine(cursorRow);
+            if (Cell.isContinuation(line.get(from))) {
+                from = Math.max(0, from - 1);
             }
-        } else {
-            for (int col = 0; col < width; col++) {
-                screen[cursorRow].cells[col] =
-                        new Cell(ch, currentFg, currentBg, currentBold, currentItalic, currentUnderline);
+            if (Cell.isWide(line.get(to - 1))) {
+                to = Math.min(width, to + 1);
             }
+            line.fill(from, to, Cell.BLANK);
+            damage.add(cursorRow, from, to);
+        } finally {
+            lock.unlockWrite(stamp);
         }
     }
 
     // --- Screen-level operations ---
 
     /**
-     * Pushes screen[0] into scrollback (evicting oldest if over limit),
-     * shifts all screen lines up by one, and appends a fresh blank line at the bottom.
-     * Cursor position is unchanged.
+     * Moves screen[0] into scrollback by reference (evicting oldest if over limit),
+     * shifts all screen lines up by one, and appends a blank line at the bottom.
+     * The bottom line is the evicted scrollback line cleared in place when possible, so steady-state
+     * scrolling allocates nothing. Cursor position is unchanged.
      */
     public void insertEmptyLineAtBottom() {
-        scrollback.add(screen[0].copy());
-        if (scrollback.size() > maxScrollback) {
-            scrollback.remove(0);
+        long stamp = lock.writeLock();
+        try {
+            stepScrollback();
+            scrollUp();
+        } finally {
+            lock.unlockWrite(stamp);
         }
+    }
+
+    private void scrollUp() {
+        Line evicted = scrollback.add(screen[0]);
 
         // Shift lines up — reference copy, not deep copy
         System.arraycopy(screen, 1, screen, 0, height - 1);
 
-        screen[height - 1] = new Line(width);
+        screen[height - 1] = recycle(evicted);
+        damage.addRows(0, height, width);
+    }
+
+    /**
+     * Does one bounded step of the scrollback work a reflow left behind (see {@link Scrollback#step()}). The
+     * writes call it under the write lock, so the work is spread over the writes that follow a resize and
+     * readers never take the write lock for it.
+     */
+    private void stepScrollback() {
+        if (scrollback.behind()) {
+            scrollback.step();
+        }
+    }
+
+    /**
+     * Returns {@code evicted} cleared to blanks if it has the current width and no snapshot holds it,
+     * otherwise a new blank line.
+     */
+    private Line recycle(Line evicted) {
+        if (evicted == null || evicted.width != width || evicted.shared) {
+            return new Line(width);
+        }
+        evicted.clear();
+        return evicted;
     }
 
     /** Replaces every screen line with a fresh blank line and resets the cursor to (0, 0). */
     public void clearScreen() {
-        for (int i = 0; i < height; i++) {
-            screen[i] = new Line(width);
+        long stamp = lock.writeLock();
+        try {
+            resetScreen();
+        } finally {
+            lock.unlockWrite(stamp);
         }
-        setCursor(0, 0);
     }
 
     /** Same as {@link #clearScreen()}, but also discards all scrollback history. */
     public void clearScreenAndScrollback() {
-        clearScreen();
-        scrollback.clear();
+        long stamp = lock.writeLock();
+        try {
+            resetScreen();
+            scrollback.clear();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void resetScreen() {
+        for (int i = 0; i < height; i++) {
+            screen[i] = new Line(width);
+        }
+        damage.addRows(0, height, width);
+        placeCursor(0, 0);
     }
 
     // --- Screen resizing ---
@@ -347,7 +951,7 @@ public class TerminalBuffer {
     /**
      * Resizes the buffer to {@code newWidth × newHeight}.
      *
-     * Height decrease: top rows are pushed into scrollback (same eviction rule as
+     * Height decrease: top rows are moved into scrollback (same eviction rule as
      * {@link #insertEmptyLineAtBottom}); cursor row shifts up by the same delta.
      *
      * Height increase: blank lines are appended at the bottom; content and cursor are untouched.
@@ -357,77 +961,189 @@ public class TerminalBuffer {
      *
      * Width increase: every line is padded with blank cells on the right.
      *
+     * Only screen lines are rebuilt. Scrollback lines keep their cells and are truncated and padded when
+     * read, so the cost is O(height × width) however long the history is.
+     *
+     * With {@link #setAutowrap autowrap} a width change reflows instead: logical lines (runs of soft-wrapped
+     * lines) are rejoined and wrapped again at the new width, with the cursor kept on the same character. A
+     * wrap pending after the last character written stays pending while that character still ends its row;
+     * otherwise the cursor moves to the column after it, where the next character goes.
+     * The screen is reflowed together with the scrollback lines that soft-wrap into its top row; blank rows
+     * below the cursor are dropped first, rows that no longer fit move into scrollback, and a screen left
+     * short is padded with blank rows at the bottom, as for a height increase. The rest of the on-heap
+     * history is rewrapped by the writes that follow, a few hundred lines per write (this resize does the
+     * first share), and reads see the lines not reached yet clipped; lines already spilled to a store are
+     * clipped.
+     *
      * No-op when dimensions are unchanged.
      */
     public void resize(int newWidth, int newHeight) {
-        if (newWidth == width && newHeight == height) {
-            return;
-        }
+        long stamp = lock.writeLock();
+        try {
+            if (newWidth == width && newHeight == height) {
+                return;
+            }
 
-        // Step 1: height decrease — push top rows into scrollback
-        if (newHeight < height) {
-            int delta = height - newHeight;
-            for (int i = 0; i < delta; i++) {
-                scrollback.add(screen[i].copy());
-                if (scrollback.size() > maxScrollback) {
-                    scrollback.remove(0);
+            // Step 1: height decrease — move top rows into scrollback; they leave the screen, so no copy
+            if (newHeight < height) {
+                int delta = height - newHeight;
+                for (int i = 0; i < delta; i++) {
+                    scrollback.add(screen[i]);
                 }
+                Line[] newScreen = new Line[newHeight];
+                System.arraycopy(screen, delta, newScreen, 0, newHeight);
+                screen = newScreen;
+                height = newHeight;
+                cursorRow = Math.max(0, cursorRow - delta);
             }
-            Line[] newScreen = new Line[newHeight];
-            System.arraycopy(screen, delta, newScreen, 0, newHeight);
-            screen = newScreen;
-            height = newHeight;
-            cursorRow = Math.max(0, cursorRow - delta);
-        }
 
-        // Step 2: height increase — append blank lines at the bottom
-        if (newHeight > height) {
-            Line[] newScreen = new Line[newHeight];
-            System.arraycopy(screen, 0, newScreen, 0, height);
-            for (int i = height; i < newHeight; i++) {
-                newScreen[i] = new Line(width);
+            // Step 2: height increase — append blank lines at the bottom
+            if (newHeight > height) {
+                Line[] newScreen = new Line[newHeight];
+                System.arraycopy(screen, 0, newScreen, 0, height);
+                for (int i = height; i < newHeight; i++) {
+                    newScreen[i] = new Line(width);
+                }
+                screen = newScreen;
+                height = newHeight;
             }
-            screen = newScreen;
-            height = newHeight;
-        }
 
-        // Step 3: width change — rebuild every line at the new width
-        if (newWidth != width) {
-            int copyLen = Math.min(width, newWidth);
-            for (int r = 0; r < height; r++) {
-                Line newLine = new Line(newWidth);
-                for (int c = 0; c < copyLen; c++) {
-                    newLine.cells[c] = screen[r].cells[c].copy();
-                }
-                if (newWidth < width) {
-                    fixWideBoundary(newLine, newWidth);
+            // Step 3: width change — reflow, or rebuild every screen line at the new width
+            if (newWidth != width && autowrap) {
+                reflowScreen(newWidth);
+            } else if (newWidth != width) {
+                int copyLen = Math.min(width, newWidth);
+                for (int r = 0; r < height; r++) {
+                    Line newLine = new Line(newWidth);
+                    newLine.copyFrom(screen[r], 0, 0, copyLen);
+                    if (newWidth < width) {
+                        fixWideBoundary(newLine, newWidth);
+                    }
+                    screen[r] = newLine;
                 }
-                screen[r] = newLine;
+                // Scrollback is not rewritten: its lines are clipped and padded to the new width when read
+                scrollback.resized(newWidth);
             }
-            for (int r = 0; r < scrollback.size(); r++) {
-                Line src = scrollback.get(r);
-                Line newLine = new Line(newWidth);
-                for (int c = 0; c < copyLen; c++) {
-                    newLine.cells[c] = src.cells[c].copy();
-                }
-                if (newWidth < width) {
-                    fixWideBoundary(newLine, newWidth);
-                }
-                scrollback.set(r, newLine);
+
+            // Step 4: commit new width; the whole new geometry is damaged
+            width = newWidth;
+            damage.reset(height, width);
+
+            // Step 5: clamp cursor, keep a pending wrap, and snap off CONTINUATION
+            boolean pending = wrapPending;
+            placeCursor(cursorCol, cursorRow);
+            if (pending) {
+                resumeAfterCursorChar();
             }
+            snapCursorOffContinuation();
+            stepScrollback();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Rewraps the screen, plus the scrollback lines that soft-wrap into it, at {@code newWidth} and moves
+     * the cursor to where its character landed; the caller commits the width and clamps the cursor.
+     */
+    private void reflowScreen(int newWidth) {
+        scrollback.reflow(newWidth);
+        Reflow reflow = new Reflow(newWidth);
+        List<Line> tail = scrollback.pollWrappedTail();
+        for (Line line : tail) {
+            reflow.add(line);
+        }
+        int last = height - 1;
+        while (last > cursorRow && isBlank(screen[last])) {
+            last--;
+        }
+        for (int r = 0; r <= last; r++) {
+            reflow.add(screen[r], r == cursorRow ? cursorCol : -1);
         }
+        List<Line> rows = reflow.rows();
+        int overflow = Math.max(0, rows.size() - height);
+        for (int i = 0; i < overflow; i++) {
+            scrollback.add(rows.get(i));
+        }
+        for (int r = 0; r < height; r++) {
+            screen[r] = overflow + r < rows.size() ? rows.get(overflow + r) : new Line(newWidth);
+        }
+        cursorRow = Math.max(0, reflow.cursorRow - overflow);
+        cursorCol = reflow.cursorCol;
+    }
 
-        // Step 4: commit new width
-        width = newWidth;
+    /**
+     * Puts the cursor back after the character under it, as it was before a resize cleared a pending wrap:
+     * one past it, or on it with the wrap pending again if the character still ends at the right edge.
+     */
+    private void resumeAfterCursorChar() {
+        Line line = screen[cursorRow];
+        int col = cursorCol;
+        if (Cell.isContinuation(line.get(col)) && col > 0) {
+            col--;
+        }
+        int end = col + (Cell.isWide(line.get(col)) ? 2 : 1);
+        if (end >= width) {
+            cursorCol = width - 1;
+            wrapPending = true;
+        } else {
+            cursorCol = end;
+        }
+    }
 
-        // Step 5: clamp cursor and snap off CONTINUATION
-        setCursor(cursorCol, cursorRow);
-        snapCursorOffContinuation();
+    private static boolean isBlank(Line line) {
+        if (line.wrapped) {
+            return false;
+        }
+        for (long word : line.cells) {
+            if (word != Cell.BLANK) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private void fixWideBoundary(Line line, int newWidth) {
-        if (line.cells[newWidth - 1].type == CellType.WIDE) {
-            line.cells[newWidth - 1] = Cell.blank();
+        if (Cell.isWide(line.cells[newWidth - 1])) {
+            line.set(newWidth - 1, Cell.BLANK);
+        }
+    }
+
+    // --- Damage tracking ---
+
+    /**
+     * Returns the screen cells changed since the previous call, at most one range per row in row order,
+     * and marks the screen clean. A new buffer and a resized one report every row fully damaged.
+     * Scrolling and clearing damage every row; writes, inserts, fills and erases only the cells they touch.
+     * Cursor movement and attribute changes are not damage.
+     */
+    public List<DirtyRange> collectDamage() {
+        long stamp = lock.writeLock();
+        try {
+            return damage.collect();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // --- Snapshots ---
+
+    /**
+     * Returns an immutable copy of the screen and cursor, safe to hand to another thread.
+     * No cells are copied: the snapshot references the current lines and marks them shared, and the buffer
+     * copies a shared line only when it next writes to it. Taking a snapshot is O(height); each frame then
+     * costs one line copy per row changed since the previous snapshot. May be called from any thread.
+     */
+    public ScreenSnapshot snapshot() {
+        long stamp = lock.writeLock();
+        try {
+            Line[] lines = screen.clone();
+            for (Line line : lines) {
+                line.shared = true;
+            }
+            return new ScreenSnapshot(width, height, lines, cursorCol, cursorRow);
+        } finally {
+            lock.unlockWrite(stamp);
         }
     }
 
@@ -436,31 +1152,53 @@ public class TerminalBuffer {
     /** Returns the code point at {@code (col, row)}; row in [0, height-1]. Returns space if out of bounds.
      *  If the cell is a CONTINUATION, returns the code point of its WIDE partner at {@code col-1}. */
     public int getScreenChar(int col, int row) {
+        return readInt(TerminalBuffer::screenChar, col, row);
+    }
+
+    private int screenChar(int col, int row) {
         if (row < 0 || row >= height) {
             return ' ';
         }
-        Cell cell = screen[row].getCell(col);
-        if (cell.type == CellType.CONTINUATION && col > 0) {
-            cell = screen[row].getCell(col - 1);
-        }
-        return cell.ch;
+        return Cell.codePoint(screen[row].visible(col));
     }
 
     /** Returns the cell attributes at {@code (col, row)}; row in [0, height-1]. Returns default attributes if out of bounds.
-     *  If the cell is a CONTINUATION, returns the attributes of its WIDE partner at {@code col-1}. */
+     *  If the cell is a CONTINUATION, returns the attributes of its WIDE partner at {@code col-1}.
+     *  The returned instance is shared by every cell with the same style; nothing is allocated. */
     public CellAttributes getScreenAttributes(int col, int row) {
+        return StyleTable.get(getScreenStyleId(col, row));
+    }
+
+    /** Returns the interned style id at {@code (col, row)}; row in [0, height-1]. Returns the default style id (0) if out of bounds.
+     *  If the cell is a CONTINUATION, returns the style of its WIDE partner at {@code col-1}.
+     *  Equal ids mean equal attributes; resolve an id with {@link #getStyleAttributes(int)}. */
+    public int getScreenStyleId(int col, int row) {
+        return readInt(TerminalBuffer::screenStyleId, col, row);
+    }
+
+    private int screenStyleId(int col, int row) {
         if (row < 0 || row >= height) {
-            return new CellAttributes(Color.DEFAULT, Color.DEFAULT, false, false, false);
-        }
-        Cell cell = screen[row].getCell(col);
-        if (cell.type == CellType.CONTINUATION && col > 0) {
-            cell = screen[row].getCell(col - 1);
+            return StyleTable.DEFAULT_ID;
         }
-        return new CellAttributes(cell.fg, cell.bg, cell.bold, cell.italic, cell.underline);
+        return StyleTable.id(screen[row].visible(col));
     }
 
-    /** Returns the string content of screen row {@code row}; row in [0, height-1]. Returns all-spaces if out of bounds. */
+    /**
+     * Returns the string content of screen row {@code row}; row in [0, height-1]. Returns all-spaces if out of bounds.
+     * The string is cached on the line until it next changes, so polling an unchanged row allocates nothing.
+     */
     public String getScreenLine(int row) {
+        return readCaching((buf, col, r) -> buf.cachedScreenLine(r), (buf, col, r) -> buf.screenLine(r), 0, row);
+    }
+
+    private String cachedScreenLine(int row) {
+        if (row < 0 || row >= height) {
+            return " ".repeat(width);
+        }
+        return screen[row].cachedText();
+    }
+
+    private String screenLine(int row) {
         if (row < 0 || row >= height) {
             return " ".repeat(width);
         }
@@ -469,9 +1207,14 @@ public class TerminalBuffer {
 
     /** Returns all screen lines from row 0 to row height-1, each terminated with {@code \n}. */
     public String getScreenContent() {
-        StringBuilder sb = new StringBuilder();
+        return read((buf, col, row) -> buf.screenContent(), 0, 0);
+    }
+
+    private String screenContent() {
+        StringBuilder sb = new StringBuilder(height * (width + 1));
+        char[] chars = new char[2 * width];
         for (int i = 0; i < height; i++) {
-            sb.append(screen[i].toString()).append('\n');
+            sb.append(chars, 0, screen[i].getChars(chars)).append('\n');
         }
         return sb.toString();
     }
@@ -481,31 +1224,61 @@ public class TerminalBuffer {
     /** Returns the code point at {@code (col, row)}; row in [0, scrollback.size()-1], oldest first. Returns space if out of bounds.
      *  If the cell is a CONTINUATION, returns the code point of its WIDE partner at {@code col-1}. */
     public int getScrollbackChar(int col, int row) {
+        return readInt(TerminalBuffer::scrollbackChar, col, row);
+    }
+
+    private int scrollbackChar(int col, int row) {
         if (row < 0 || row >= scrollback.size()) {
             return ' ';
         }
-        Cell cell = scrollback.get(row).getCell(col);
-        if (cell.type == CellType.CONTINUATION && col > 0) {
-            cell = scrollback.get(row).getCell(col - 1);
-        }
-        return cell.ch;
+        return Cell.codePoint(scrollback.visible(row, col));
     }
 
     /** Returns the cell attributes at {@code (col, row)}; row in [0, scrollback.size()-1], oldest first. Returns default attributes if out of bounds.
-     *  If the cell is a CONTINUATION, returns the attributes of its WIDE partner at {@code col-1}. */
+     *  If the cell is a CONTINUATION, returns the attributes of its WIDE partner at {@code col-1}.
+     *  The returned instance is shared by every cell with the same style; nothing is allocated. */
     public CellAttributes getScrollbackAttributes(int col, int row) {
+        return StyleTable.get(getScrollbackStyleId(col, row));
+    }
+
+    /** Returns the interned style id at {@code (col, row)}; row in [0, scrollback.size()-1], oldest first.
+     *  Returns the default style id (0) if out of bounds. Same CONTINUATION rule as {@link #getScreenStyleId}. */
+    public int getScrollbackStyleId(int col, int row) {
+        return readInt(TerminalBuffer::scrollbackStyleId, col, row);
+    }
+
+    private int scrollbackStyleId(int col, int row) {
         if (row < 0 || row >= scrollback.size()) {
-            return new CellAttributes(Color.DEFAULT, Color.DEFAULT, false, false, false);
+            return StyleTable.DEFAULT_ID;
         }
-        Cell cell = scrollback.get(row).getCell(col);
-        if (cell.type == CellType.CONTINUATION && col > 0) {
-            cell = scrollback.get(row).getCell(col - 1);
+        return StyleTable.id(scrollback.visible(row, col));
+    }
+
+    /** Returns the shared attributes for a style id obtained from this buffer. */
+    public CellAttributes getStyleAttributes(int styleId) {
+        CellAttributes attrs = StyleTable.get(styleId);
+        if (attrs == null) {
+            throw new IllegalArgumentException("Unknown style id: " + styleId);
         }
-        return new CellAttributes(cell.fg, cell.bg, cell.bold, cell.italic, cell.underline);
+        return attrs;
     }
 
-    /** Returns the string content of scrollback row {@code row}; row in [0, scrollback.size()-1], oldest first. Returns all-spaces if out of bounds. */
+    /**
+     * Returns the string content of scrollback row {@code row}; row in [0, scrollback.size()-1], oldest first.
+     * Returns all-spaces if out of bounds. Lines still in the heap ring cache their string, as screen lines do.
+     */
     public String getScrollbackLine(int row) {
+        return readCaching((buf, col, r) -> buf.cachedScrollbackLine(r), (buf, col, r) -> buf.scrollbackLine(r), 0, row);
+    }
+
+    private String cachedScrollbackLine(int row) {
+        if (row < 0 || row >= scrollback.size()) {
+            return " ".repeat(width);
+        }
+        return scrollback.cachedText(row);
+    }
+
+    private String scrollbackLine(int row) {
         if (row < 0 || row >= scrollback.size()) {
             return " ".repeat(width);
         }
@@ -517,13 +1290,433 @@ public class TerminalBuffer {
      * each terminated with {@code \n}.
      */
     public String getFullContent() {
-        StringBuilder sb = new StringBuilder();
-        for (Line line : scrollback) {
-            sb.append(line.toString()).append('\n');
-        }
-        for (int i = 0; i < height; i++) {
-            sb.append(screen[i].toString()).append('\n');
+        return read((buf, col, row) -> buf.fullContent(), 0, 0);
+    }
+
+    private String fullContent() {
+        int history = scrollback.size();
+        // Presized for narrow text; a line is never longer than twice its width
+        StringBuilder sb = new StringBuilder((int) Math.min(Integer.MAX_VALUE - 8, (long) (history + height) * (width + 1)));
+        char[] chars = new char[2 * width];
+        for (int row = 0; row < history + height; row++) {
+            Line line = row < history ? scrollback.get(row) : screen[row - history];
+            sb.append(chars, 0, line.getChars(chars)).append('\n');
         }
         return sb.toString();
     }
+
+    // --- Export ---
+
+    /** Size of the buffer that {@link #writeFullContent(WritableByteChannel, Charset)} encodes into. */
+    static final int EXPORT_BUFFER_BYTES = 64 * 1024;
+
+    /** Lines that {@code writeFullContent} copies per hold of the read lock. */
+    static final int EXPORT_BATCH_LINES = 256;
+
+    /**
+     * Writes the text of {@link #getFullContent()} to {@code out} without building it as one String. Lines are
+     * copied {@value #EXPORT_BATCH_LINES} at a time under the read lock, which is released before {@code out}
+     * sees them, so memory use is one batch however long the history and a slow {@code out} never holds up
+     * the writer thread. A {@link Writer} receives each batch as one {@code write(char[], int, int)}.
+     *
+     * The export covers the lines present when it starts. Lines that scroll meanwhile are followed into the
+     * scrollback, so scrolling neither repeats nor skips one; lines evicted before their batch is copied
+     * are skipped, and a resize or clear meanwhile can repeat or skip lines.
+     */
+    public void writeFullContent(Appendable out) throws IOException {
+        ExportBatch batch = startExport();
+        while (copyExportBatch(batch)) {
+            if (out instanceof Writer writer) {
+                writer.write(batch.chars, 0, batch.length);
+            } else {
+                out.append(CharBuffer.wrap(batch.chars, 0, batch.length));
+            }
+        }
+    }
+
+    /**
+     * Writes the text of {@link #getFullContent()} to {@code out} encoded in {@code charset}, characters it
+     * cannot encode replaced. Lines are copied as by {@link #writeFullContent(Appendable)} and encoded into a
+     * 64 KiB buffer that is written out whenever it fills, so memory use stays constant however long the
+     * history, and {@code out} is never called under the lock.
+     */
+    public void writeFullContent(WritableByteChannel out, Charset charset) throws IOException {
+        CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocate(EXPORT_BUFFER_BYTES);
+        ExportBatch batch = startExport();
+        CharBuffer view = CharBuffer.allocate(0);
+        while (copyExportBatch(batch)) {
+            view = CharBuffer.wrap(batch.chars, 0, batch.length);
+            while (encoder.encode(view, bytes, false).isOverflow()) {
+                drain(bytes, out);
+            }
+        }
+        while (encoder.encode(view, bytes, true).isOverflow()) {
+            drain(bytes, out);
+        }
+        while (encoder.flush(bytes).isOverflow()) {
+            drain(bytes, out);
+        }
+        drain(bytes, out);
+    }
+
+    /**
+     * Text of the lines an export copied last, and where it stands. Lines are addressed by sequence number:
+     * scrollback line {@code i} is {@code appended - size + i} and screen row {@code r} is {@code appended + r}
+     * (see {@link Scrollback#appended()}), so a line keeps its number when it scrolls into the scrollback.
+     */
+    private static final class ExportBatch {
+        /** Sequence number of the next line to copy. */
+        long next;
+        /** One past the last line to export: the bottom screen row when the export started. */
+        long end;
+        char[] chars = new char[0];
+        int length;
+    }
+
+    /** Starts an export of every line present now. */
+    private ExportBatch startExport() {
+        long stamp = lock.readLock();
+        try {
+            ExportBatch batch = new ExportBatch();
+            batch.next = scrollback.appended() - scrollback.size();
+            batch.end = scrollback.appended() + height;
+            return batch;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Copies the text of up to {@value #EXPORT_BATCH_LINES} more lines of {@code batch}, each followed by
+     * {@code \n}, into its chars under the read lock. Returns {@code false} once no line is left.
+     */
+    private boolean copyExportBatch(ExportBatch batch) {
+        long stamp = lock.readLock();
+        try {
+            long appended = scrollback.appended();
+            int history = scrollback.size();
+            long first = appended - history;
+            batch.next = Math.max(batch.next, first);
+            long stop = Math.min(Math.min(batch.end, appended + height), batch.next + EXPORT_BATCH_LINES);
+            int n = 0;
+            for (; batch.next < stop; batch.next++) {
+                int row = (int) (batch.next - first);
+                Line line = row < history ? scrollback.get(row) : screen[row - history];
+                if (batch.chars.length < n + 2 * line.width + 1) {
+                    batch.chars = Arrays.copyOf(batch.chars, Math.max(n + 2 * line.width + 1, 2 * batch.chars.length));
+                }
+                n += line.getChars(batch.chars, n);
+                batch.chars[n++] = '\n';
+            }
+            batch.length = n;
+            return n > 0;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /** Writes everything in {@code bytes} to {@code out} and clears it for the next line. */
+    private static void drain(ByteBuffer bytes, WritableByteChannel out) throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            out.write(bytes);
+        }
+        bytes.clear();
+    }
+
+    // --- Search ---
+
+    /**
+     * Returns every position where {@code query} occurs, ordered by row then column; overlapping matches are
+     * all reported, and a match never spans two lines, even two that autowrap joined: unlike
+     * {@link #searchParallel(String, int)}, text continued on a soft-wrapped row is not found. Rows count
+     * scrollback lines (oldest first) and then screen lines, as in {@link #getFullContent()}; columns are cell
+     * columns, so text after a wide character is found one column further right than its string index. An
+     * empty query matches nothing.
+     *
+     * The buffer keeps a trigram index of the scrollback up to date as lines scroll in and out, so a search
+     * only checks the scrollback lines that contain every space-free three-character run of {@code query},
+     * plus the screen. A query without such a run (shorter than three characters, or a space in every run)
+     * checks every line. After a reflowing resize the index is rebuilt a few hundred lines per write; lines
+     * it has not reached yet are all checked.
+     */
+    public List<SearchHit> search(String query) {
+        int[] codePoints = query.codePoints().toArray();
+        if (codePoints.length == 0) {
+            return List.of();
+        }
+        return read((buf, col, row) -> buf.searchLines(codePoints), 0, 0);
+    }
+
+    private List<SearchHit> searchLines(int[] query) {
+        List<SearchHit> hits = new ArrayList<>();
+        int history = scrollback.size();
+        int[] candidates = scrollback.candidates(query);
+        if (candidates == null) {
+            for (int row = 0; row < history; row++) {
+                matchLine(scrollback.get(row), row, query, hits);
+            }
+        } else {
+            for (int row : candidates) {
+                matchLine(scrollback.get(row), row, query, hits);
+            }
+        }
+        for (int row = 0; row < height; row++) {
+            matchLine(screen[row], history + row, query, hits);
+        }
+        return hits;
+    }
+
+    /** Adds a hit for every column of {@code line} at which the code points of {@code query} start. */
+    private static void matchLine(Line line, int row, int[] query, List<SearchHit> hits) {
+        long[] cells = line.cells;
+        for (int col = 0; col < cells.length; col++) {
+            if (Cell.isContinuation(cells[col])) {
+                continue;
+            }
+            int matched = 0;
+            for (int c = col; c < cells.length && matched < query.length; c++) {
+                long word = cells[c];
+                if (Cell.isContinuation(word)) {
+                    continue;
+                }
+                if (Cell.codePoint(word) != query[matched]) {
+                    break;
+                }
+                matched++;
+            }
+            if (matched == query.length) {
+                hits.add(new SearchHit(row, col));
+            }
+        }
+    }
+
+    /**
+     * Returns every match of {@code pattern}, ordered by row then column. The pattern runs against one line
+     * at a time, soft-wrapped or not, so a match never spans two lines and {@code ^} / {@code $} anchor at
+     * line boundaries. Rows are counted as in {@link #getFullContent()}; each match covers cells
+     * {@code [startCol, endCol)}, a wide character counting as both its cells.
+     *
+     * Each line is read through a view of its cells rather than copied into a String, so memory use is one
+     * line plus the matches found, however long the history.
+     */
+    public List<MatchRange> findAll(Pattern pattern) {
+        return read((buf, col, row) -> buf.findMatches(pattern, 0, 0, Integer.MAX_VALUE), 0, 0);
+    }
+
+    /**
+     * Returns the first match of {@code pattern}, as in {@link #findAll}, that starts at or after cell
+     * {@code (fromCol, fromRow)} in reading order, or {@code null} if there is none. Calling it again from
+     * one column right of the last match's start walks through every match.
+     */
+    public MatchRange findNext(Pattern pattern, int fromRow, int fromCol) {
+        List<MatchRange> found = read((buf, col, row) -> buf.findMatches(pattern, row, col, 1), fromCol, fromRow);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    /** Returns up to {@code limit} matches starting at or after {@code (fromCol, fromRow)}. */
+    private List<MatchRange> findMatches(Pattern pattern, int fromRow, int fromCol, int limit) {
+        List<MatchRange> matches = new ArrayList<>();
+        // Per call, not a field: concurrent readers each need their own view
+        LineChars chars = new LineChars();
+        Matcher matcher = pattern.matcher("");
+        int history = scrollback.size();
+        for (int row = Math.max(0, fromRow); row < history + height && matches.size() < limit; row++) {
+            chars.reset(row < history ? scrollback.get(row) : screen[row - history]);
+            matcher.reset(chars);
+            int from = row == fromRow ? chars.index(fromCol) : 0;
+            if (!matcher.find(from)) {
+                continue;
+            }
+            do {
+                matches.add(new MatchRange(row, chars.column(matcher.start()), chars.column(matcher.end())));
+            } while (matches.size() < limit && matcher.find());
+        }
+        return matches;
+    }
+
+    /**
+     * Returns the first {@code limit} positions where {@code query} occurs, searching the history in
+     * parallel on the common {@link ForkJoinPool}. Results are in reading order, as from
+     * {@link #search(String)}, but a soft-wrapped run of rows is searched as one logical line, so a match
+     * may continue on the following rows; its hit is where it starts. Lines in a scrollback store keep no
+     * soft-wrap flag and are searched one by one. The trigram index is not used.
+     *
+     * Rows are cut into chunks of about a thousand at logical-line ends and searched concurrently; once
+     * the first chunks hold {@code limit} hits, the later ones stop. Each chunk is searched under its own
+     * hold of the read lock, so the writer thread waits for one chunk at most. The search covers the rows
+     * present when it starts, numbered as then: rows that scroll meanwhile are followed into the scrollback,
+     * rows evicted before their chunk is searched are skipped, and a resize or clear meanwhile can give
+     * hits that no longer match.
+     */
+    public List<SearchHit> searchParallel(String query, int limit) {
+        if (query.isEmpty()) {
+            checkLimit(limit);
+            return List.of();
+        }
+        return searchParallel(Pattern.compile(query, Pattern.LITERAL), true, limit);
+    }
+
+    /**
+     * Same as {@link #searchParallel(String, int)} for the start of each match of {@code pattern}. Matches
+     * are found as by {@link #findAll}, one after another without overlap, and {@code ^} / {@code $} anchor at
+     * logical-line boundaries.
+     */
+    public List<SearchHit> searchParallel(Pattern pattern, int limit) {
+        return searchParallel(pattern, false, limit);
+    }
+
+    private List<SearchHit> searchParallel(Pattern pattern, boolean overlapping, int limit) {
+        checkLimit(limit);
+        SearchRows rows = searchRows();
+        return new ParallelSearch(rows.count, rows, pattern, overlapping, limit).run(ForkJoinPool.commonPool());
+    }
+
+    /** Returns the rows present now for {@link #searchParallel}, each read under the read lock. */
+    SearchRows searchRows() {
+        long stamp = lock.readLock();
+        try {
+            return new SearchRows(scrollback.appended() - scrollback.size(), scrollback.size() + height);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * The rows a parallel search covers, addressed by sequence number as in an export (see {@link ExportBatch}):
+     * row {@code i} is number {@code first + i}, so it keeps its number when it scrolls into the scrollback.
+     */
+    final class SearchRows implements ParallelSearch.Rows {
+        /** Sequence number of row 0. */
+        private final long first;
+        final int count;
+
+        private SearchRows(long first, int count) {
+            this.first = first;
+            this.count = count;
+        }
+
+        @Override
+        public void read(Consumer<IntFunction<Line>> task) {
+            long stamp = lock.readLock();
+            try {
+                int history = scrollback.size();
+                long shift = first - (scrollback.appended() - history);
+                task.accept(i -> {
+                    long row = shift + i;
+                    if (row < 0 || row >= history + height) {
+                        return null;
+                    }
+                    return row < history ? scrollback.get((int) row) : screen[(int) row - history];
+                });
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    private static void checkLimit(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
+    }
+
+    /** Releases the scrollback spill file, if any. The buffer must not be used afterwards. */
+    @Override
+    public void close() {
+        long stamp = lock.writeLock();
+        try {
+            scrollback.close();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // --- Optimistic reads ---
+
+    /** A read of buffer state at {@code (col, row)}; implemented by non-capturing lambdas, so calls allocate nothing. */
+    @FunctionalInterface
+    private interface IntRead {
+        int read(TerminalBuffer buf, int col, int row);
+    }
+
+    /** Same as {@link IntRead} for object results. */
+    @FunctionalInterface
+    private interface Read<T> {
+        T read(TerminalBuffer buf, int col, int row);
+    }
+
+    /**
+     * Runs {@code read} without locking and returns its result if no write happened meanwhile; otherwise
+     * (or if a write is in progress) runs it again under the read lock. An optimistic read can observe a
+     * half-finished write and throw; that result is discarded the same way.
+     */
+    private int readInt(IntRead read, int col, int row) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                int value = read.read(this, col, row);
+                if (lock.validate(stamp)) {
+                    return value;
+                }
+            } catch (RuntimeException tornRead) {
+                // fall through to the read lock
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return read.read(this, col, row);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Same as {@link #read}, for reads that fill a cache on the line they read. Storing text built from a
+     * half-finished write would outlive the failed validation, so the optimistic attempt runs {@code cached},
+     * which stores nothing and returns {@code null} on a cache miss; {@code read} then runs under the read lock.
+     */
+    private <T> T readCaching(Read<T> cached, Read<T> read, int col, int row) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T value = cached.read(this, col, row);
+                if (value != null && lock.validate(stamp)) {
+                    return value;
+                }
+            } catch (RuntimeException tornRead) {
+                // fall through to the read lock
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return read.read(this, col, row);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /** Same as {@link #readInt} for object results. */
+    private <T> T read(Read<T> read, int col, int row) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T value = read.read(this, col, row);
+                if (lock.validate(stamp)) {
+                    return value;
+                }
+            } catch (RuntimeException tornRead) {
+                // fall through to the read lock
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return read.read(this, col, row);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
 }
\ No newline at end of file
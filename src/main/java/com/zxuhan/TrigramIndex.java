@@ -0,0 +1,241 @@
+package com.zxuhan;
+
+import java.util.Arrays;
+
+/**
+ * Trigram index over scrollback lines, behind {@link TerminalBuffer#search}.
+ * Every three consecutive code points of a line (CONTINUATION cells skipped) form a trigram, and each
+ * trigram maps to the ascending sequence numbers of the lines containing it. A query then only has to
+ * check the lines in the intersection of its trigrams' posting lists.
+ *
+ * Lines are added newest last and removed either oldest first (eviction) or newest first, so a posting list
+ * is a window {@code [start, end)} of a growable {@code long[]} and removing a line costs O(1) per trigram.
+ *
+ * Trigrams containing a space are not indexed. A line read after a resize is a prefix of the line that was
+ * indexed followed by blanks, so it can hold space trigrams the index never saw, but never a new trigram
+ * without one; skipping them also keeps blank padding out of the posting lists.
+ *
+ * The table is open addressing with linear probing over packed trigram keys (three 21-bit code points),
+ * so adding a line allocates nothing once its posting lists have room. Keys whose list emptied are
+ * dropped when the table grows.
+ */
+final class TrigramIndex {
+
+    private static final int INITIAL_SLOTS = 1024;
+    private static final int CP_BITS = 21;
+    /** Marks an occupied slot; packed keys use only the low 63 bits. */
+    private static final long USED = 1L << 63;
+
+    private long[] keys = new long[INITIAL_SLOTS];
+    private long[][] postings = new long[INITIAL_SLOTS][];
+    private int[] starts = new int[INITIAL_SLOTS];
+    private int[] ends = new int[INITIAL_SLOTS];
+    private int occupied;
+
+    /** Code points of the line being added or removed. */
+    private int[] text = new int[80];
+
+    /** Posts {@code seq} for every trigram of {@code line}; {@code seq} must exceed every one added so far. */
+    void add(long seq, Line line) {
+        int n = codePoints(line);
+        for (int i = 2; i < n; i++) {
+            if (hasSpace(text, i)) {
+                continue;
+            }
+            long key = key(text[i - 2], text[i - 1], text[i]);
+            int s = slot(key);
+            if (keys[s] == 0) {
+                keys[s] = key | USED;
+                occupied++;
+            }
+            append(s, seq);
+            if (occupied * 2 > keys.length) {
+                rehash();
+            }
+        }
+    }
+
+    /** Withdraws {@code seq}, the oldest or the newest line indexed, for every trigram of {@code line}. */
+    void remove(long seq, Line line) {
+        int n = codePoints(line);
+        for (int i = 2; i < n; i++) {
+            if (hasSpace(text, i)) {
+                continue;
+            }
+            int s = slot(key(text[i - 2], text[i - 1], text[i]));
+            long[] list = postings[s];
+            if (list == null) {
+                continue;
+            }
+            if (list[starts[s]] == seq) {
+                starts[s]++;
+            } else if (list[ends[s] - 1] == seq) {
+                ends[s]--;
+            }
+            if (starts[s] == ends[s]) {
+                postings[s] = null;
+                starts[s] = 0;
+                ends[s] = 0;
+            }
+        }
+    }
+
+    /**
+     * Returns, ascending, the sequence numbers of the lines containing every trigram of {@code query}
+     * (code points), or {@code null} if the query has no trigram to narrow the search by.
+     */
+    long[] candidates(int[] query) {
+        int[] lists = new int[Math.max(0, query.length - 2)];
+        int count = 0;
+        for (int i = 2; i < query.length; i++) {
+            if (hasSpace(query, i)) {
+                continue;
+            }
+            int s = slot(key(query[i - 2], query[i - 1], query[i]));
+            if (postings[s] == null) {
+                return new long[0];
+            }
+            lists[count++] = s;
+        }
+        if (count == 0) {
+            return null;
+        }
+        // Start from the shortest list; each other list only filters it, by binary search
+        int shortest = 0;
+        for (int i = 1; i < count; i++) {
+            if (length(lists[i]) < length(lists[shortest])) {
+                shortest = i;
+            }
+        }
+        int first = lists[shortest];
+        long[] result = Arrays.copyOfRange(postings[first], starts[first], ends[first]);
+        int size = result.length;
+        for (int i = 0; i < count && size > 0; i++) {
+            int s = lists[i];
+            if (s == first) {
+                continue;
+            }
+            int from = starts[s];
+            int kept = 0;
+            for (int j = 0; j < size; j++) {
+                int at = Arrays.binarySearch(postings[s], from, ends[s], result[j]);
+                if (at >= 0) {
+                    result[kept++] = result[j];
+                    from = at + 1;
+                } else {
+                    from = -at - 1;
+                }
+            }
+            size = kept;
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    /** Number of lines posted for the trigram {@code (a, b, c)}; for tests. */
+    int postings(int a, int b, int c) {
+        return length(slot(key(a, b, c)));
+    }
+
+    private int length(int s) {
+        return ends[s] - starts[s];
+    }
+
+    private void append(int s, long seq) {
+        long[] list = postings[s];
+        if (list == null) {
+            postings[s] = new long[] {seq, 0};
+            starts[s] = 0;
+            ends[s] = 1;
+            return;
+        }
+        int end = ends[s];
+        if (list[end - 1] == seq) {
+            return; // the trigram occurs twice in this line
+        }
+        if (end == list.length) {
+            int start = starts[s];
+            int live = end - start;
+            if (start >= list.length / 2) {
+                System.arraycopy(list, start, list, 0, live); // evictions freed the front half
+            } else {
+                long[] grown = new long[list.length * 2];
+                System.arraycopy(list, start, grown, 0, live);
+                list = grown;
+                postings[s] = list;
+            }
+            starts[s] = 0;
+            end = live;
+        }
+        list[end] = seq;
+        ends[s] = end + 1;
+    }
+
+    /** Returns the slot holding {@code key}, or the empty slot where it belongs. */
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        int s = (int) mix(key) & mask;
+        long marked = key | USED;
+        while (keys[s] != 0 && keys[s] != marked) {
+            s = (s + 1) & mask;
+        }
+        return s;
+    }
+
+    /** Doubles the table, or rebuilds it at the same size if dropping emptied keys frees enough room. */
+    private void rehash() {
+        long[] oldKeys = keys;
+        long[][] oldPostings = postings;
+        int[] oldStarts = starts;
+        int[] oldEnds = ends;
+        int live = 0;
+        for (long[] list : oldPostings) {
+            if (list != null) {
+                live++;
+            }
+        }
+        int slots = live * 4 > oldKeys.length ? oldKeys.length * 2 : oldKeys.length;
+        keys = new long[slots];
+        postings = new long[slots][];
+        starts = new int[slots];
+        ends = new int[slots];
+        occupied = live;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldPostings[i] != null) {
+                int s = slot(oldKeys[i] & ~USED);
+                keys[s] = oldKeys[i];
+                postings[s] = oldPostings[i];
+                starts[s] = oldStarts[i];
+                ends[s] = oldEnds[i];
+            }
+        }
+    }
+
+    /** Fills {@link #text} with the code points of {@code line}, skipping CONTINUATION cells; returns the count. */
+    private int codePoints(Line line) {
+        if (text.length < line.width) {
+            text = new int[line.width];
+        }
+        int n = 0;
+        for (int col = 0; col < line.width; col++) {
+            long word = line.cells[col];
+            if (!Cell.isContinuation(word)) {
+                text[n++] = Cell.codePoint(word);
+            }
+        }
+        return n;
+    }
+
+    /** Returns whether the trigram ending at {@code codePoints[i]} contains a space. */
+    private static boolean hasSpace(int[] codePoints, int i) {
+        return codePoints[i - 2] == ' ' || codePoints[i - 1] == ' ' || codePoints[i] == ' ';
+    }
+
+    private static long key(int a, int b, int c) {
+        return ((long) a << (2 * CP_BITS)) | ((long) b << CP_BITS) | c;
+    }
+
+    private static long mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+}
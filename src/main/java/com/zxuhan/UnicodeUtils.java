@@ -1,28 +1,62 @@
 package com.zxuhan;
 
-/** Determines terminal display width of Unicode code points based on East Asian Width ranges. */
+/**
+ * Determines terminal display width of Unicode code points.
+ * Widths come from {@link WidthTable}, generated at build time from the UCD files in {@code src/main/unicode}:
+ * East_Asian_Width W/F is 2 columns, nonspacing/enclosing marks and format characters are 0, the rest is 1.
+ */
 class UnicodeUtils {
 
     private UnicodeUtils() {}
 
+    /**
+     * Returns the number of columns {@code cp} occupies: 0, 1 or 2.
+     * Printable ASCII returns 1 without touching the table; invalid code points are treated as narrow.
+     */
+    static int width(int cp) {
+        if (cp >= 0x20 && cp < 0x7F) {
+            return 1;
+        }
+        if (cp < 0 || cp > Character.MAX_CODE_POINT) {
+            return 1;
+        }
+        return WidthTable.STAGE2[(WidthTable.STAGE1[cp >>> 8] << 8) | (cp & 0xFF)];
+    }
+
     /** Returns {@code true} if {@code cp} occupies two terminal columns (CJK, emoji, fullwidth). */
     static boolean isWide(int cp) {
-        return (cp >= 0x1100  && cp <= 0x115F)
-            || (cp >= 0x2E80  && cp <= 0x303E)
-            || (cp >= 0x3041  && cp <= 0x33FF)
-            || (cp >= 0x3400  && cp <= 0x4DBF)
-            || (cp >= 0x4E00  && cp <= 0x9FFF)
-            || (cp >= 0xA000  && cp <= 0xA4CF)
-            || (cp >= 0xAC00  && cp <= 0xD7AF)
-            || (cp >= 0xF900  && cp <= 0xFAFF)
-            || (cp >= 0xFE10  && cp <= 0xFE6F)
-            || (cp >= 0xFF01  && cp <= 0xFF60)
-            || (cp >= 0xFFE0  && cp <= 0xFFE6)
-            || (cp >= 0x1B000 && cp <= 0x1B77F)
-            || (cp >= 0x1F300 && cp <= 0x1F9FF)
-            || (cp >= 0x20000 && cp <= 0x2A6DF)
-            || (cp >= 0x2A700 && cp <= 0x2CEAF)
-            || (cp >= 0x2CEB0 && cp <= 0x2EBEF)
-            || (cp >= 0x30000 && cp <= 0x3134F);
+        return width(cp) == 2;
+    }
+
+    /**
+     * Returns the end of the run of chars starting at {@code from} that are each a whole narrow code point:
+     * no surrogate and not wide. ASCII is accepted without a table lookup.
+     */
+    static int narrowRunEnd(CharSequence text, int from, int end) {
+        int i = from;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (c >= 0x80 && (Character.isSurrogate(c) || isWide(c))) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the code point starting at {@code index}, pairing a high surrogate with the following low
+     * surrogate only if it lies before {@code end}. Unpaired surrogates are returned as-is, matching
+     * {@link String#codePoints()}.
+     */
+    static int codePointAt(CharSequence text, int index, int end) {
+        char c = text.charAt(index);
+        if (Character.isHighSurrogate(c) && index + 1 < end) {
+            char low = text.charAt(index + 1);
+            if (Character.isLowSurrogate(low)) {
+                return Character.toCodePoint(c, low);
+            }
+        }
+        return c;
     }
 }
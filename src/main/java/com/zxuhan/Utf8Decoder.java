@@ -0,0 +1,91 @@
+package com.zxuhan;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Incremental UTF-8 decoder that keeps its state between calls, so a multi-byte sequence may be split
+ * across reads. Follows the WHATWG decoding algorithm: overlongs, surrogates and code points above
+ * U+10FFFF are rejected, and each maximal invalid subpart decodes to one U+FFFD.
+ */
+final class Utf8Decoder {
+
+    static final int REPLACEMENT = 0xFFFD;
+    /** {@link #feed} result: the byte was consumed, the sequence is not complete yet. */
+    static final int NEED_MORE = -1;
+    /**
+     * {@link #feed} result: the byte broke the pending sequence. The caller emits {@link #REPLACEMENT}
+     * and feeds the same byte again; the decoder is idle by then.
+     */
+    static final int RETRY = -2;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private int codePoint;
+    private int remaining;
+    private int lower = 0x80;
+    private int upper = 0xBF;
+
+    /** Returns {@code true} if no multi-byte sequence is pending. */
+    boolean idle() {
+        return remaining == 0;
+    }
+
+    /** Feeds one byte ({@code 0..255}); returns a code point, {@link #NEED_MORE} or {@link #RETRY}. */
+    int feed(int b) {
+        if (remaining == 0) {
+            if (b < 0x80) {
+                return b;
+            } else if (b >= 0xC2 && b <= 0xDF) {
+                remaining = 1;
+                codePoint = b & 0x1F;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                if (b == 0xE0) lower = 0xA0;
+                if (b == 0xED) upper = 0x9F;
+                remaining = 2;
+                codePoint = b & 0x0F;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                if (b == 0xF0) lower = 0x90;
+                if (b == 0xF4) upper = 0x8F;
+                remaining = 3;
+                codePoint = b & 0x07;
+            } else {
+                return REPLACEMENT;
+            }
+            return NEED_MORE;
+        }
+        if (b < lower || b > upper) {
+            reset();
+            return RETRY;
+        }
+        lower = 0x80;
+        upper = 0xBF;
+        codePoint = (codePoint << 6) | (b & 0x3F);
+        if (--remaining > 0) {
+            return NEED_MORE;
+        }
+        return codePoint;
+    }
+
+    /** Drops any pending partial sequence. */
+    void reset() {
+        codePoint = 0;
+        remaining = 0;
+        lower = 0x80;
+        upper = 0xBF;
+    }
+
+    /** Returns the end of the run of ASCII bytes starting at {@code from}, testing eight bytes per step. */
+    static int asciiRunEnd(byte[] bytes, int from, int to) {
+        int i = from;
+        while (i + Long.BYTES <= to && ((long) LONGS.get(bytes, i) & HIGH_BITS) == 0) {
+            i += Long.BYTES;
+        }
+        while (i < to && bytes[i] >= 0) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,438 @@
+package com.zxuhan;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Streaming VT/ANSI escape-sequence parser that drives a {@link TerminalBuffer} from a UTF-8 byte stream.
+ *
+ * The state machine follows Paul Williams' DEC-compatible parser, encoded as a {@code state × byte}
+ * transition table: each entry packs the action in the high nibble and the next state in the low nibble.
+ * C1 controls (0x80–0x9F) are not recognized, since in UTF-8 those bytes are continuation bytes.
+ *
+ * Printable bytes in the ground state are coalesced: a whole run up to the next control byte is passed
+ * to {@link TerminalBuffer#writeBytes(byte[], int, int)} in one call. All parser state lives in fields,
+ * so sequences (and UTF-8 characters) split across {@code feed} calls are handled, and nothing is
+ * allocated per byte. A control byte arriving inside a UTF-8 character ends it: the incomplete sequence is
+ * written as U+FFFD before the control takes effect, as a UTF-8 decoder treats any ASCII byte there.
+ *
+ * Supported: BS, HT, LF/VT/FF, CR; CSI A B C D E F G H d f J K S m; CSI ? 7 h/l (autowrap); ESC 7 8 D E M c.
+ * DCS, OSC, SOS/PM/APC strings are parsed and discarded; other private-marker CSI sequences are ignored.
+ */
+public class VtParser {
+
+    // States
+    private static final int GROUND = 0;
+    private static final int ESCAPE = 1;
+    private static final int ESCAPE_INTERMEDIATE = 2;
+    private static final int CSI_ENTRY = 3;
+    private static final int CSI_PARAM = 4;
+    private static final int CSI_INTERMEDIATE = 5;
+    private static final int CSI_IGNORE = 6;
+    private static final int DCS_ENTRY = 7;
+    private static final int DCS_PARAM = 8;
+    private static final int DCS_INTERMEDIATE = 9;
+    private static final int DCS_PASSTHROUGH = 10;
+    private static final int DCS_IGNORE = 11;
+    private static final int OSC_STRING = 12;
+    private static final int SOS_PM_APC_STRING = 13;
+    private static final int STATE_COUNT = 14;
+
+    // Actions
+    private static final int IGNORE = 0;
+    private static final int EXECUTE = 1;
+    /** Entry action of ESCAPE, CSI_ENTRY and DCS_ENTRY: forget intermediates and parameters. */
+    private static final int CLEAR = 2;
+    private static final int COLLECT = 3;
+    private static final int PARAM = 4;
+    private static final int ESC_DISPATCH = 5;
+    private static final int CSI_DISPATCH = 6;
+
+    private static final byte[] TABLE = buildTable();
+    private static final Color[] COLORS = Color.values();
+
+    private static final int MAX_PARAMS = 16;
+    private static final int MAX_PARAM_VALUE = 65535;
+    private static final int TAB_WIDTH = 8;
+
+    private final TerminalBuffer target;
+
+    private int state = GROUND;
+    private final int[] params = new int[MAX_PARAMS];
+    private int paramCount;
+    /** Intermediate and private-marker bytes (0x20–0x2F, 0x3C–0x3F), at most two, packed low byte first. */
+    private int intermediates;
+    private int intermediateCount;
+
+    // DECSC / DECRC
+    private int savedCol;
+    private int savedRow;
+
+    // Staging array for direct buffers; allocated on first use
+    private byte[] staging;
+
+    public VtParser(TerminalBuffer target) {
+        this.target = target;
+    }
+
+    /** Parses the remaining bytes of {@code src}, which is consumed. */
+    public void feed(ByteBuffer src) {
+        if (src.hasArray()) {
+            int from = src.arrayOffset() + src.position();
+            feed(src.array(), from, src.remaining());
+            src.position(src.limit());
+            return;
+        }
+        if (staging == null) {
+            staging = new byte[4096];
+        }
+        while (src.hasRemaining()) {
+            int n = Math.min(src.remaining(), staging.length);
+            src.get(staging, 0, n);
+            feed(staging, 0, n);
+        }
+    }
+
+    /** Parses {@code bytes[offset, offset+length)}. */
+    public void feed(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            int b = bytes[i] & 0xFF;
+            if (state == GROUND && b >= 0x20 && b != 0x7F) {
+                int runEnd = printableRunEnd(bytes, i + 1, end);
+                target.writeBytes(bytes, i, runEnd - i);
+                i = runEnd;
+                continue;
+            }
+            if (state == GROUND) {
+                target.endBytes(); // a control byte breaks a UTF-8 sequence the last run left incomplete
+            }
+            int entry = TABLE[(state << 8) | b];
+            state = entry & 0x0F;
+            perform(entry >>> 4, b);
+            i++;
+        }
+    }
+
+    /** Returns the index of the first control byte (C0 or DEL) at or after {@code from}. */
+    private static int printableRunEnd(byte[] bytes, int from, int end) {
+        int i = from;
+        while (i < end) {
+            int b = bytes[i];
+            // bytes >= 0x80 are negative here: UTF-8 lead/continuation bytes, printable
+            if (b >= 0 && (b < 0x20 || b == 0x7F)) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private void perform(int action, int b) {
+        switch (action) {
+            case EXECUTE -> execute(b);
+            case CLEAR -> {
+                paramCount = 0;
+                params[0] = 0;
+                intermediates = 0;
+                intermediateCount = 0;
+            }
+            case COLLECT -> {
+                if (intermediateCount < 2) {
+                    intermediates |= b << (8 * intermediateCount);
+                }
+                intermediateCount++;
+            }
+            case PARAM -> {
+                if (paramCount == 0) {
+                    paramCount = 1;
+                }
+                if (b == ';') {
+                    if (paramCount < MAX_PARAMS) {
+                        params[paramCount++] = 0;
+                    }
+                } else {
+                    int p = paramCount - 1;
+                    params[p] = Math.min(MAX_PARAM_VALUE, params[p] * 10 + (b - '0'));
+                }
+            }
+            case ESC_DISPATCH -> escDispatch(b);
+            case CSI_DISPATCH -> csiDispatch(b);
+            default -> { }
+        }
+    }
+
+    private void execute(int b) {
+        switch (b) {
+            case 0x08 -> target.moveCursorLeft(1);
+            case 0x09 -> target.setCursor((target.getCursorCol() / TAB_WIDTH + 1) * TAB_WIDTH, target.getCursorRow());
+            case 0x0A, 0x0B, 0x0C -> lineFeed();
+            case 0x0D -> target.setCursor(0, target.getCursorRow());
+            default -> { }
+        }
+    }
+
+    private void lineFeed() {
+        if (target.getCursorRow() == target.height - 1) {
+            target.insertEmptyLineAtBottom();
+        } else {
+            target.moveCursorDown(1);
+        }
+    }
+
+    private void escDispatch(int b) {
+        if (intermediateCount != 0) {
+            return; // charset designations and the like: nothing to map them to
+        }
+        switch (b) {
+            case '7' -> {
+                savedCol = target.getCursorCol();
+                savedRow = target.getCursorRow();
+            }
+            case '8' -> target.setCursor(savedCol, savedRow);
+            case 'D' -> lineFeed();
+            case 'E' -> {
+                target.setCursor(0, target.getCursorRow());
+                lineFeed();
+            }
+            case 'M' -> target.moveCursorUp(1);
+            case 'c' -> {
+                target.resetAttributes();
+                target.setAutowrap(false);
+                target.clearScreenAndScrollback();
+                savedCol = 0;
+                savedRow = 0;
+            }
+            default -> { }
+        }
+    }
+
+    private void csiDispatch(int b) {
+        if (intermediateCount == 1 && intermediates == '?' && (b == 'h' || b == 'l')) {
+            for (int i = 0; i < paramCount; i++) {
+                if (params[i] == 7) {
+                    target.setAutowrap(b == 'h'); // DECAWM
+                }
+            }
+            return;
+        }
+        if (intermediateCount != 0) {
+            return; // other private markers (DEC modes) and intermediates are not supported
+        }
+        int col = target.getCursorCol();
+        int row = target.getCursorRow();
+        switch (b) {
+            case 'A' -> target.moveCursorUp(count(0));
+            case 'B' -> target.moveCursorDown(count(0));
+            case 'C' -> target.moveCursorRight(count(0));
+            case 'D' -> target.moveCursorLeft(count(0));
+            case 'E' -> target.setCursor(0, row + count(0));
+            case 'F' -> target.setCursor(0, row - count(0));
+            case 'G' -> target.setCursor(count(0) - 1, row);
+            case 'd' -> target.setCursor(col, count(0) - 1);
+            case 'H', 'f' -> target.setCursor(count(1) - 1, count(0) - 1);
+            case 'J' -> eraseInDisplay(param(0));
+            case 'K' -> eraseInLine(param(0));
+            case 'S' -> {
+                for (int i = count(0); i > 0; i--) {
+                    target.insertEmptyLineAtBottom();
+                }
+            }
+            case 'm' -> selectGraphicRendition();
+            default -> { }
+        }
+    }
+
+    private void eraseInDisplay(int mode) {
+        int col = target.getCursorCol();
+        int row = target.getCursorRow();
+        switch (mode) {
+            case 0 -> {
+                target.eraseCells(col, target.width);
+                for (int r = row + 1; r < target.height; r++) {
+                    target.setCursor(0, r);
+                    target.fillLine(null);
+                }
+            }
+            case 1 -> {
+                for (int r = 0; r < row; r++) {
+                    target.setCursor(0, r);
+                    target.fillLine(null);
+                }
+                target.setCursor(col, row);
+                target.eraseCells(0, col + 1);
+            }
+            case 2 -> target.clearScreen();
+            case 3 -> target.clearScreenAndScrollback();
+            default -> { }
+        }
+        target.setCursor(col, row);
+    }
+
+    private void eraseInLine(int mode) {
+        int col = target.getCursorCol();
+        switch (mode) {
+            case 0 -> target.eraseCells(col, target.width);
+            case 1 -> target.eraseCells(0, col + 1);
+            case 2 -> target.fillLine(null);
+            default -> { }
+        }
+    }
+
+    private void selectGraphicRendition() {
+        if (paramCount == 0) {
+            target.resetAttributes();
+            return;
+        }
+        for (int i = 0; i < paramCount; i++) {
+            int p = params[i];
+            switch (p) {
+                case 0 -> target.resetAttributes();
+                case 1 -> target.setBold(true);
+                case 3 -> target.setItalic(true);
+                case 4 -> target.setUnderline(true);
+                case 22 -> target.setBold(false);
+                case 23 -> target.setItalic(false);
+                case 24 -> target.setUnderline(false);
+                case 39 -> target.setForeground(Color.DEFAULT);
+                case 49 -> target.setBackground(Color.DEFAULT);
+                case 38, 48 -> i = extendedColor(i, p == 38);
+                default -> {
+                    if (p >= 30 && p <= 37) target.setForeground(ansiColor(p - 30));
+                    else if (p >= 40 && p <= 47) target.setBackground(ansiColor(p - 40));
+                    else if (p >= 90 && p <= 97) target.setForeground(ansiColor(p - 90 + 8));
+                    else if (p >= 100 && p <= 107) target.setBackground(ansiColor(p - 100 + 8));
+                }
+            }
+        }
+    }
+
+    /**
+     * Handles {@code 38;5;n} / {@code 48;5;n} (mapped when n is one of the 16 standard colors) and skips
+     * {@code 38;2;r;g;b}, which has no equivalent in {@link Color}. Returns the index of the last parameter used.
+     */
+    private int extendedColor(int i, boolean foreground) {
+        if (i + 1 >= paramCount) {
+            return i;
+        }
+        if (params[i + 1] == 5) {
+            if (i + 2 < paramCount && params[i + 2] < 16) {
+                Color color = ansiColor(params[i + 2]);
+                if (foreground) target.setForeground(color);
+                else target.setBackground(color);
+            }
+            return i + 2;
+        }
+        if (params[i + 1] == 2) {
+            return i + 4;
+        }
+        return i + 1;
+    }
+
+    /** Maps an ANSI color index 0–15 to {@link Color}: 0–7 standard, 8–15 bright. */
+    private static Color ansiColor(int index) {
+        return COLORS[Color.BLACK.ordinal() + index];
+    }
+
+    /** Returns parameter {@code i}, 0 if absent. */
+    private int param(int i) {
+        return i < paramCount ? params[i] : 0;
+    }
+
+    /** Returns parameter {@code i} as a count or 1-based position: absent or 0 means 1. */
+    private int count(int i) {
+        return Math.max(1, param(i));
+    }
+
+    // --- Transition table ---
+
+    private static byte[] buildTable() {
+        byte[] table = new byte[STATE_COUNT << 8];
+        for (int s = 0; s < STATE_COUNT; s++) {
+            on(table, s, 0x00, 0xFF, IGNORE, s);
+        }
+
+        on(table, GROUND, 0x00, 0x17, EXECUTE, GROUND);
+        on(table, GROUND, 0x19, 0x19, EXECUTE, GROUND);
+        on(table, GROUND, 0x1C, 0x1F, EXECUTE, GROUND);
+
+        executeC0(table, ESCAPE);
+        on(table, ESCAPE, 0x20, 0x2F, COLLECT, ESCAPE_INTERMEDIATE);
+        on(table, ESCAPE, 0x30, 0x7E, ESC_DISPATCH, GROUND);
+        on(table, ESCAPE, 0x50, 0x50, CLEAR, DCS_ENTRY);
+        on(table, ESCAPE, 0x58, 0x58, IGNORE, SOS_PM_APC_STRING);
+        on(table, ESCAPE, 0x5B, 0x5B, CLEAR, CSI_ENTRY);
+        on(table, ESCAPE, 0x5D, 0x5D, IGNORE, OSC_STRING);
+        on(table, ESCAPE, 0x5E, 0x5F, IGNORE, SOS_PM_APC_STRING);
+
+        executeC0(table, ESCAPE_INTERMEDIATE);
+        on(table, ESCAPE_INTERMEDIATE, 0x20, 0x2F, COLLECT, ESCAPE_INTERMEDIATE);
+        on(table, ESCAPE_INTERMEDIATE, 0x30, 0x7E, ESC_DISPATCH, GROUND);
+
+        executeC0(table, CSI_ENTRY);
+        on(table, CSI_ENTRY, 0x20, 0x2F, COLLECT, CSI_INTERMEDIATE);
+        on(table, CSI_ENTRY, 0x30, 0x39, PARAM, CSI_PARAM);
+        on(table, CSI_ENTRY, 0x3A, 0x3A, IGNORE, CSI_IGNORE);
+        on(table, CSI_ENTRY, 0x3B, 0x3B, PARAM, CSI_PARAM);
+        on(table, CSI_ENTRY, 0x3C, 0x3F, COLLECT, CSI_PARAM);
+        on(table, CSI_ENTRY, 0x40, 0x7E, CSI_DISPATCH, GROUND);
+
+        executeC0(table, CSI_PARAM);
+        on(table, CSI_PARAM, 0x20, 0x2F, COLLECT, CSI_INTERMEDIATE);
+        on(table, CSI_PARAM, 0x30, 0x39, PARAM, CSI_PARAM);
+        on(table, CSI_PARAM, 0x3A, 0x3A, IGNORE, CSI_IGNORE);
+        on(table, CSI_PARAM, 0x3B, 0x3B, PARAM, CSI_PARAM);
+        on(table, CSI_PARAM, 0x3C, 0x3F, IGNORE, CSI_IGNORE);
+        on(table, CSI_PARAM, 0x40, 0x7E, CSI_DISPATCH, GROUND);
+
+        executeC0(table, CSI_INTERMEDIATE);
+        on(table, CSI_INTERMEDIATE, 0x20, 0x2F, COLLECT, CSI_INTERMEDIATE);
+        on(table, CSI_INTERMEDIATE, 0x30, 0x3F, IGNORE, CSI_IGNORE);
+        on(table, CSI_INTERMEDIATE, 0x40, 0x7E, CSI_DISPATCH, GROUND);
+
+        executeC0(table, CSI_IGNORE);
+        on(table, CSI_IGNORE, 0x40, 0x7E, IGNORE, GROUND);
+
+        on(table, DCS_ENTRY, 0x20, 0x2F, COLLECT, DCS_INTERMEDIATE);
+        on(table, DCS_ENTRY, 0x30, 0x39, PARAM, DCS_PARAM);
+        on(table, DCS_ENTRY, 0x3A, 0x3A, IGNORE, DCS_IGNORE);
+        on(table, DCS_ENTRY, 0x3B, 0x3B, PARAM, DCS_PARAM);
+        on(table, DCS_ENTRY, 0x3C, 0x3F, COLLECT, DCS_PARAM);
+        on(table, DCS_ENTRY, 0x40, 0x7E, IGNORE, DCS_PASSTHROUGH);
+
+        on(table, DCS_PARAM, 0x20, 0x2F, COLLECT, DCS_INTERMEDIATE);
+        on(table, DCS_PARAM, 0x30, 0x39, PARAM, DCS_PARAM);
+        on(table, DCS_PARAM, 0x3A, 0x3A, IGNORE, DCS_IGNORE);
+        on(table, DCS_PARAM, 0x3B, 0x3B, PARAM, DCS_PARAM);
+        on(table, DCS_PARAM, 0x3C, 0x3F, IGNORE, DCS_IGNORE);
+        on(table, DCS_PARAM, 0x40, 0x7E, IGNORE, DCS_PASSTHROUGH);
+
+        on(table, DCS_INTERMEDIATE, 0x20, 0x2F, COLLECT, DCS_INTERMEDIATE);
+        on(table, DCS_INTERMEDIATE, 0x30, 0x3F, IGNORE, DCS_IGNORE);
+        on(table, DCS_INTERMEDIATE, 0x40, 0x7E, IGNORE, DCS_PASSTHROUGH);
+
+        // xterm also ends OSC with BEL
+        on(table, OSC_STRING, 0x07, 0x07, IGNORE, GROUND);
+
+        // "Anywhere" transitions override everything: CAN and SUB abort, ESC starts a new sequence.
+        // ESC inside a DCS/OSC/SOS string begins the ST terminator (ESC \), which ESCAPE then dispatches.
+        for (int s = 0; s < STATE_COUNT; s++) {
+            on(table, s, 0x18, 0x18, EXECUTE, GROUND);
+            on(table, s, 0x1A, 0x1A, EXECUTE, GROUND);
+            on(table, s, 0x1B, 0x1B, CLEAR, ESCAPE);
+        }
+        return table;
+    }
+
+    private static void executeC0(byte[] table, int state) {
+        on(table, state, 0x00, 0x17, EXECUTE, state);
+        on(table, state, 0x19, 0x19, EXECUTE, state);
+        on(table, state, 0x1C, 0x1F, EXECUTE, state);
+    }
+
+    private static void on(byte[] table, int state, int from, int to, int action, int next) {
+        for (int b = from; b <= to; b++) {
+            table[(state << 8) | b] = (byte) ((action << 4) | next);
+        }
+    }
+}
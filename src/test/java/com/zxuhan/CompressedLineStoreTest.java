@@ -0,0 +1,125 @@
+package com.zxuhan;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressedLineStoreTest {
+
+    private CompressedLineStore store;
+
+    @BeforeEach
+    void setUp() {
+        // Blocks of 4 lines and a 2-block cache, so sealing and cache eviction are exercised constantly
+        store = new CompressedLineStore(4, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    private static Line line(String text) {
+        Line line = new Line(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            line.set(i, Cell.pack(text.charAt(i), Color.values()[i % 17], Color.DEFAULT, i % 2 == 0, false, false));
+        }
+        return line;
+    }
+
+    private String read(int index) {
+        StringBuilder sb = new StringBuilder();
+        for (int col = 0; col < store.width(index); col++) {
+            sb.append((char) Cell.codePoint(store.word(index, col)));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    void append_manyLinesAcrossBlocks_readBackByIndex() {
+        for (int i = 0; i < 25; i++) {
+            store.append(line(String.format("%04d", i)));
+        }
+        assertEquals(25, store.size());
+        // Jump between blocks in both directions to force decoding and eviction
+        for (int i = 24; i >= 0; i -= 3) {
+            assertEquals(String.format("%04d", i), read(i));
+        }
+        for (int i = 0; i < 25; i++) {
+            assertEquals(String.format("%04d", i), read(i));
+        }
+    }
+
+    @Test
+    void word_preservesEveryPackedField_afterSealing() {
+        Line src = line("abcd");
+        src.set(1, Cell.pack(0x1F600, Color.RED, Color.BLUE, true, true, true) | Cell.WIDE_BITS);
+        src.set(2, Cell.CONTINUATION);
+        store.append(src);
+        for (int i = 0; i < 3; i++) {
+            store.append(line("wxyz"));
+        }
+        for (int col = 0; col < 4; col++) {
+            assertEquals(src.get(col), store.word(0, col));
+        }
+    }
+
+    @Test
+    void append_copiesCells_lineMayBeReused() {
+        Line reused = line("aaaa");
+        store.append(reused);
+        reused.clear();
+        assertEquals("aaaa", read(0));
+    }
+
+    @Test
+    void append_widthChanges_eachLineKeepsItsWidth() {
+        store.append(line("abcd"));
+        store.append(line("abcdef"));
+        store.append(line(""));
+        store.append(line("xy"));
+        store.append(line("wxyz"));
+        assertAll(
+                () -> assertEquals("abcd", read(0)),
+                () -> assertEquals("abcdef", read(1)),
+                () -> assertEquals("", read(2)),
+                () -> assertEquals("xy", read(3)),
+                () -> assertEquals("wxyz", read(4)),
+                () -> assertEquals(6, store.width(1))
+        );
+    }
+
+    @Test
+    void clear_thenAppend_startsOver() {
+        for (int i = 0; i < 10; i++) {
+            store.append(line("old" + i));
+        }
+        read(0);
+        store.clear();
+        assertEquals(0, store.size());
+        for (int i = 0; i < 5; i++) {
+            store.append(line("new" + i));
+        }
+        assertEquals("new0", read(0));
+        assertEquals("new4", read(4));
+    }
+
+    @Test
+    void sealedBlocks_muchSmallerThanPackedWords() {
+        CompressedLineStore big = new CompressedLineStore();
+        Line text = new Line(80);
+        for (int i = 0; i < 10_000; i++) {
+            text.clear();
+            String s = "$ ls -la /var/log/syslog." + i + " # typical shell output";
+            for (int col = 0; col < s.length(); col++) {
+                text.set(col, Cell.pack(s.charAt(col), Color.GREEN, Color.DEFAULT, false, false, false));
+            }
+            big.append(text);
+        }
+        long packedBytes = 10_000L * 80 * Long.BYTES;
+        assertTrue(big.sealedBytes() * 20 < packedBytes, "sealed " + big.sealedBytes() + " of " + packedBytes);
+        big.close();
+    }
+}
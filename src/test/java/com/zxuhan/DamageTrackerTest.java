@@ -0,0 +1,51 @@
+package com.zxuhan;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DamageTrackerTest {
+
+    @Test
+    void new_everyRowFullyDirty() {
+        DamageTracker damage = new DamageTracker(2, 3);
+        assertEquals(List.of(new DirtyRange(0, 0, 3), new DirtyRange(1, 0, 3)), damage.collect());
+    }
+
+    @Test
+    void collect_clearsAllRows() {
+        DamageTracker damage = new DamageTracker(2, 3);
+        damage.collect();
+        assertEquals(List.of(), damage.collect());
+    }
+
+    @Test
+    void add_widensToCoverEveryRange() {
+        DamageTracker damage = new DamageTracker(3, 10);
+        damage.collect();
+        damage.add(1, 4, 5);
+        damage.add(1, 2, 3);
+        damage.add(1, 7, 9);
+        assertEquals(List.of(new DirtyRange(1, 2, 9)), damage.collect());
+    }
+
+    @Test
+    void addRows_marksFullWidth() {
+        DamageTracker damage = new DamageTracker(4, 5);
+        damage.collect();
+        damage.add(0, 1, 2);
+        damage.addRows(1, 3, 5);
+        assertEquals(List.of(new DirtyRange(0, 1, 2), new DirtyRange(1, 0, 5), new DirtyRange(2, 0, 5)),
+                damage.collect());
+    }
+
+    @Test
+    void reset_newGeometryFullyDirty() {
+        DamageTracker damage = new DamageTracker(2, 3);
+        damage.collect();
+        damage.reset(1, 7);
+        assertEquals(List.of(new DirtyRange(0, 0, 7)), damage.collect());
+    }
+}
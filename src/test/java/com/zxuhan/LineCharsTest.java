@@ -0,0 +1,132 @@
+package com.zxuhan;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LineCharsTest {
+
+    private static final long WIDE = Cell.pack('中', Color.DEFAULT, Color.DEFAULT, false, false, false) | Cell.WIDE_BITS;
+    private static final long EMOJI = Cell.pack(0x1F600, Color.DEFAULT, Color.DEFAULT, false, false, false) | Cell.WIDE_BITS;
+
+    private static Line line(String text) {
+        Line line = new Line(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            line.set(i, Cell.pack(text.charAt(i), Color.DEFAULT, Color.DEFAULT, false, false, false));
+        }
+        return line;
+    }
+
+    @Test
+    void reset_narrowLine_charsAreCells() {
+        LineChars chars = new LineChars().reset(line("ab c"));
+        assertAll(
+                () -> assertEquals(4, chars.length()),
+                () -> assertEquals('c', chars.charAt(3)),
+                () -> assertEquals("ab c", chars.toString()),
+                () -> assertEquals(2, chars.column(2)),
+                () -> assertEquals(4, chars.column(4)),
+                () -> assertEquals(3, chars.index(3))
+        );
+    }
+
+    @Test
+    void reset_wideCharacter_skipsContinuation() {
+        Line line = line("a  b");
+        line.set(1, WIDE);
+        line.set(2, Cell.CONTINUATION);
+        LineChars chars = new LineChars().reset(line);
+        assertAll(
+                () -> assertEquals("a中b", chars.toString()),
+                () -> assertEquals(line.toString(), chars.toString()),
+                () -> assertEquals(3, chars.column(2)),
+                () -> assertEquals(4, chars.column(3)),
+                () -> assertEquals(2, chars.index(2), "a continuation column maps to the char after its wide"),
+                () -> assertEquals(1, chars.index(1))
+        );
+    }
+
+    @Test
+    void reset_supplementaryCodePoint_readsAsSurrogatePair() {
+        Line line = line("x  y");
+        line.set(1, EMOJI);
+        line.set(2, Cell.CONTINUATION);
+        LineChars chars = new LineChars().reset(line);
+        assertAll(
+                () -> assertEquals("x😀y", chars.toString()),
+                () -> assertEquals(4, chars.length()),
+                () -> assertTrue(Character.isHighSurrogate(chars.charAt(1))),
+                () -> assertTrue(Character.isLowSurrogate(chars.charAt(2))),
+                () -> assertEquals(1, chars.column(2)),
+                () -> assertEquals(3, chars.column(3)),
+                () -> assertEquals("😀y", chars.subSequence(1, 4).toString())
+        );
+    }
+
+    @Test
+    void reset_reusedForShorterLine_forgetsPreviousText() {
+        LineChars chars = new LineChars();
+        Line wide = line("  ");
+        wide.set(0, WIDE);
+        wide.set(1, Cell.CONTINUATION);
+        chars.reset(line("abcdef"));
+        chars.reset(wide);
+        assertEquals("中", chars.toString());
+        chars.reset(line("xy"));
+        assertEquals("xy", chars.toString());
+        assertEquals(1, chars.column(1));
+    }
+
+    @Test
+    void matcher_runsOverView() {
+        Line line = line("id   =42");
+        line.set(2, WIDE);
+        line.set(3, Cell.CONTINUATION);
+        LineChars chars = new LineChars().reset(line);
+        Matcher m = Pattern.compile("中 =(\\d+)").matcher(chars);
+        assertTrue(m.find());
+        assertEquals("42", m.group(1));
+        assertEquals(2, chars.column(m.start()));
+        assertEquals(8, chars.column(m.end()));
+    }
+
+    @Test
+    void append_continuesTextOnNextLine() {
+        Line second = line("c  d");
+        second.set(1, EMOJI);
+        second.set(2, Cell.CONTINUATION);
+        LineChars chars = new LineChars().reset(line("ab")).append(second);
+        assertAll(
+                () -> assertEquals("abc😀d", chars.toString()),
+                () -> assertEquals(0, chars.row(1)),
+                () -> assertEquals(1, chars.row(2)),
+                () -> assertEquals(0, chars.column(2)),
+                () -> assertEquals(1, chars.column(4)),
+                () -> assertEquals(3, chars.column(5)),
+                () -> assertEquals(1, chars.row(6)),
+                () -> assertEquals(4, chars.column(6)),
+                () -> assertEquals(2, chars.index(5), "index() looks at the first line only")
+        );
+    }
+
+    @Test
+    void append_afterPaddedLine_leavesOutItsPaddingCell() {
+        Line first = line("ab ");
+        first.wrapped = true;
+        first.padded = true;
+        Line second = line("  ");
+        second.set(0, WIDE);
+        second.set(1, Cell.CONTINUATION);
+        LineChars chars = new LineChars().reset(first);
+        assertEquals("ab ", chars.toString(), "kept while no line follows");
+        chars.append(second);
+        assertAll(
+                () -> assertEquals("ab中", chars.toString()),
+                () -> assertEquals(1, chars.row(2)),
+                () -> assertEquals(0, chars.column(2))
+        );
+    }
+}
@@ -3,6 +3,9 @@ package com.zxuhan;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class LineTest {
@@ -19,7 +22,7 @@ class LineTest {
     @Test
     void constructor_allCells_initializedToBlank() {
         for (int col = 0; col < 5; col++) {
-            Cell cell = line.cells[col];
+            Cell cell = line.getCell(col);
             final int c = col;
             assertAll("col " + c,
                     () -> assertNotNull(cell,                  "cell at col " + c + " should not be null"),
@@ -41,9 +44,26 @@ class LineTest {
     // --- getCell ---
 
     @Test
-    void getCell_returnsLiveReferenceMutationsVisibleInCellsArray() {
+    void getCell_returnsDetachedViewMutationsNotVisibleInLine() {
         line.getCell(0).ch = 'X';
-        assertEquals('X', line.cells[0].ch, "mutation through getCell reference should be visible in cells array");
+        assertEquals(' ', line.getCell(0).ch, "getCell returns a decoded view; mutating it must not change the line");
+    }
+
+    @Test
+    void getCell_roundTripsEveryField() {
+        Cell original = new Cell(0x1F600, Color.BRIGHT_WHITE, Color.BRIGHT_CYAN, true, true, true);
+        original.type = CellType.WIDE;
+        line.setCell(2, original);
+        Cell read = line.getCell(2);
+        assertAll(
+                () -> assertEquals(0x1F600, read.ch),
+                () -> assertEquals(Color.BRIGHT_WHITE, read.fg),
+                () -> assertEquals(Color.BRIGHT_CYAN, read.bg),
+                () -> assertTrue(read.bold),
+                () -> assertTrue(read.italic),
+                () -> assertTrue(read.underline),
+                () -> assertEquals(CellType.WIDE, read.type)
+        );
     }
 
     // --- setCell ---
@@ -133,6 +153,16 @@ class LineTest {
         assertEquals('A', line.getCell(0).ch, "mutating copy cell should not affect original");
     }
 
+    @Test
+    void copy_keepsSoftWrapFlag_clearResetsIt() {
+        line.wrapped = true;
+        Line copy = line.copy();
+        assertTrue(copy.wrapped, "copy should keep the soft-wrap flag");
+        copy.clear();
+        assertFalse(copy.wrapped, "clear should reset the soft-wrap flag");
+        assertTrue(line.wrapped);
+    }
+
     // --- toString ---
 
     @Test
@@ -163,6 +193,163 @@ class LineTest {
         assertEquals(expected, line.toString(), "code points above U+FFFF should render correctly via appendCodePoint");
     }
 
+    @Test
+    void getChars_matchesToString() {
+        line.setCell(0, new Cell(0x1F600, Color.DEFAULT, Color.DEFAULT, false, false, false));
+        Cell wide = new Cell('中', Color.DEFAULT, Color.DEFAULT, false, false, false);
+        wide.type = CellType.WIDE;
+        line.setCell(1, wide);
+        line.setCell(2, Cell.continuation());
+        line.setCell(3, new Cell('x', Color.DEFAULT, Color.DEFAULT, false, false, false));
+        char[] dst = new char[2 * line.width];
+        int n = line.getChars(dst);
+        assertEquals(line.toString(), new String(dst, 0, n));
+    }
+
+    @Test
+    void toString_cachedUntilNextWrite() {
+        String first = line.toString();
+        assertSame(first, line.toString(), "an unchanged line should return its cached string");
+        assertSame(first, line.cachedText());
+        line.set(0, Cell.pack('A', Color.DEFAULT, Color.DEFAULT, false, false, false));
+        assertNull(line.cachedText(), "set should drop the cached string");
+        assertEquals("A    ", line.toString());
+    }
+
+    @Test
+    void toString_everyWritePathDropsTheCache() {
+        line.toString();
+        line.setCell(1, new Cell('B', Color.DEFAULT, Color.DEFAULT, false, false, false));
+        assertEquals(" B   ", line.toString());
+        line.fill(2, 4, Cell.pack('-', Color.DEFAULT, Color.DEFAULT, false, false, false));
+        assertEquals(" B-- ", line.toString());
+        line.cells[4] = Cell.pack('!', Color.DEFAULT, Color.DEFAULT, false, false, false);
+        line.narrowWritten(4, 5);
+        assertEquals(" B--!", line.toString());
+        Line source = new Line(5);
+        source.set(0, Cell.pack('?', Color.DEFAULT, Color.DEFAULT, false, false, false));
+        line.copyFrom(source, 0, 1, 1);
+        assertEquals(" ?--!", line.toString());
+        line.clear();
+        assertEquals("     ", line.toString());
+    }
+
+    @Test
+    void toString_copyKeepsCachedText_writesToCopyDoNotReachOriginal() {
+        String text = line.toString();
+        Line copy = line.copy();
+        assertSame(text, copy.cachedText());
+        copy.set(0, Cell.pack('Z', Color.DEFAULT, Color.DEFAULT, false, false, false));
+        assertEquals("Z    ", copy.toString());
+        assertSame(text, line.toString());
+    }
+
+    @Test
+    void cachedText_neverBuildsTheString() {
+        assertNull(line.cachedText());
+        char[] dst = new char[2 * line.width];
+        line.getChars(dst);
+        assertNull(line.cachedText(), "getChars should not fill the cache");
+    }
+
+    // --- Occupancy ---
+
+    private static final long X = Cell.pack('x', Color.DEFAULT, Color.DEFAULT, false, false, false);
+    private static final long WIDE = Cell.pack('中', Color.DEFAULT, Color.DEFAULT, false, false, false) | Cell.WIDE_BITS;
+
+    @Test
+    void contentEnd_followsWritesAndBlankingOfTheLastCell() {
+        assertEquals(0, line.contentEnd());
+        line.set(1, X);
+        line.set(3, X);
+        assertEquals(4, line.contentEnd());
+        line.set(3, Cell.BLANK);
+        assertEquals(2, line.contentEnd(), "blanking the last cell falls back to the previous content");
+        line.fill(0, 5, X);
+        assertEquals(5, line.contentEnd());
+        line.fill(2, 5, Cell.BLANK);
+        assertEquals(2, line.contentEnd());
+        line.clear();
+        assertEquals(0, line.contentEnd());
+    }
+
+    @Test
+    void contentEnd_styledBlankAndContinuationCountAsContent() {
+        line.setCell(2, new Cell(' ', Color.DEFAULT, Color.RED, false, false, false));
+        assertEquals(3, line.contentEnd());
+        line.set(4, Cell.CONTINUATION);
+        assertEquals(5, line.contentEnd());
+    }
+
+    @Test
+    void hasWide_setByWideWrites_clearedOnlyByClear() {
+        assertFalse(line.hasWide());
+        line.set(0, X);
+        assertFalse(line.hasWide());
+        line.set(1, WIDE);
+        assertTrue(line.hasWide());
+        line.set(1, X);
+        assertTrue(line.hasWide(), "the flag is conservative: overwriting the WIDE does not clear it");
+        line.clear();
+        assertFalse(line.hasWide());
+    }
+
+    @Test
+    void copyAndCopyFrom_carryOccupancy() {
+        line.set(2, WIDE);
+        Line copy = line.copy();
+        assertEquals(3, copy.contentEnd());
+        assertTrue(copy.hasWide());
+        Line target = new Line(5);
+        target.copyFrom(line, 1, 0, 4);
+        assertEquals(2, target.contentEnd());
+        assertTrue(target.hasWide());
+    }
+
+    @Test
+    void occupancy_randomWrites_matchFullScan() {
+        Random random = new Random(24);
+        long[] words = {Cell.BLANK, X, WIDE, Cell.CONTINUATION};
+        Line other = new Line(5);
+        for (int step = 0; step < 20_000; step++) {
+            int from = random.nextInt(6);
+            int to = from + random.nextInt(6 - from);
+            long word = words[random.nextInt(words.length)];
+            switch (random.nextInt(6)) {
+                case 0, 1 -> line.set(Math.min(from, 4), word);
+                case 2 -> line.fill(from, to, word);
+                case 3 -> {
+                    for (int col = from; col < to; col++) {
+                        line.cells[col] = random.nextBoolean() ? X : Cell.BLANK;
+                    }
+                    line.narrowWritten(from, to);
+                }
+                case 4 -> {
+                    other.set(random.nextInt(5), word);
+                    int n = to - from;
+                    line.copyFrom(random.nextBoolean() ? other : line, random.nextInt(6 - n), from, n);
+                }
+                default -> {
+                    if (random.nextInt(10) == 0) {
+                        line.clear();
+                    }
+                }
+            }
+            int end = 5;
+            while (end > 0 && line.cells[end - 1] == Cell.BLANK) {
+                end--;
+            }
+            assertEquals(end, line.contentEnd(), "step " + step);
+            boolean wide = false;
+            for (long w : line.cells) {
+                wide |= Cell.isWide(w);
+            }
+            if (wide) {
+                assertTrue(line.hasWide(), "step " + step);
+            }
+        }
+    }
+
     // --- toString: wide char ---
 
     @Nested
@@ -174,10 +361,10 @@ class LineTest {
             Line l = new Line(4);
             Cell wide = new Cell(0x4E2D, Color.DEFAULT, Color.DEFAULT, false, false, false); // 中
             wide.type = CellType.WIDE;
-            l.cells[0] = wide;
-            l.cells[1] = Cell.continuation();
-            l.cells[2] = new Cell('B', Color.DEFAULT, Color.DEFAULT, false, false, false);
-            l.cells[3] = new Cell('C', Color.DEFAULT, Color.DEFAULT, false, false, false);
+            l.setCell(0, wide);
+            l.setCell(1, Cell.continuation());
+            l.setCell(2, new Cell('B', Color.DEFAULT, Color.DEFAULT, false, false, false));
+            l.setCell(3, new Cell('C', Color.DEFAULT, Color.DEFAULT, false, false, false));
             String result = l.toString();
             assertEquals(3, result.length(), "CONTINUATION cell should be skipped");
             assertEquals("中BC", result);
@@ -191,8 +378,8 @@ class LineTest {
             for (int col = 0; col < 4; col += 2) {
                 Cell wide = new Cell(cjk, Color.DEFAULT, Color.DEFAULT, false, false, false);
                 wide.type = CellType.WIDE;
-                l.cells[col] = wide;
-                l.cells[col + 1] = Cell.continuation();
+                l.setCell(col, wide);
+                l.setCell(col + 1, Cell.continuation());
             }
             assertEquals(2, l.toString().length());
         }
@@ -205,10 +392,10 @@ class LineTest {
             for (int col = 0; col + 1 < 5; col += 2) {
                 Cell wide = new Cell(cjk, Color.DEFAULT, Color.DEFAULT, false, false, false);
                 wide.type = CellType.WIDE;
-                l.cells[col] = wide;
-                l.cells[col + 1] = Cell.continuation();
+                l.setCell(col, wide);
+                l.setCell(col + 1, Cell.continuation());
             }
-            l.cells[4] = Cell.blank();
+            l.setCell(4, Cell.blank());
             assertEquals(3, l.toString().length());
         }
     }
@@ -0,0 +1,110 @@
+package com.zxuhan;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedLineStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private MappedLineStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // 64-byte chunks: two 4-column records per chunk, so chunk boundaries are exercised constantly
+        store = new MappedLineStore(dir.resolve("spill"), 64);
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    private static Line line(String text) {
+        Line line = new Line(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            line.set(i, Cell.pack(text.charAt(i), Color.values()[i % 17], Color.DEFAULT, i % 2 == 0, false, false));
+        }
+        return line;
+    }
+
+    private String read(int index) {
+        StringBuilder sb = new StringBuilder();
+        for (int col = 0; col < store.width(index); col++) {
+            sb.append((char) Cell.codePoint(store.word(index, col)));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    void append_manyLinesAcrossChunks_readBackByIndex() {
+        for (int i = 0; i < 25; i++) {
+            store.append(line(String.format("%04d", i)));
+        }
+        assertEquals(25, store.size());
+        for (int i = 0; i < 25; i++) {
+            assertEquals(String.format("%04d", i), read(i));
+        }
+    }
+
+    @Test
+    void word_preservesEveryPackedField() {
+        Line src = line("abcd");
+        src.set(1, Cell.pack('中', Color.RED, Color.BLUE, true, true, true) | Cell.WIDE_BITS);
+        src.set(2, Cell.CONTINUATION);
+        store.append(src);
+        for (int col = 0; col < 4; col++) {
+            assertEquals(src.get(col), store.word(0, col));
+        }
+    }
+
+    @Test
+    void append_copiesCells_lineMayBeReused() {
+        Line reused = line("aaaa");
+        store.append(reused);
+        reused.clear();
+        assertEquals("aaaa", read(0));
+    }
+
+    @Test
+    void append_widthChanges_eachLineKeepsItsWidth() {
+        store.append(line("abcd"));
+        store.append(line("abcdef"));
+        store.append(line("ab"));
+        store.append(line("xy"));
+        store.append(line("wxyz"));
+        assertAll(
+                () -> assertEquals("abcd", read(0)),
+                () -> assertEquals("abcdef", read(1)),
+                () -> assertEquals("ab", read(2)),
+                () -> assertEquals("xy", read(3)),
+                () -> assertEquals("wxyz", read(4)),
+                () -> assertEquals(6, store.width(1))
+        );
+    }
+
+    @Test
+    void clear_thenAppend_reusesMappedSpace() {
+        for (int i = 0; i < 10; i++) {
+            store.append(line("old" + i % 10));
+        }
+        store.clear();
+        assertEquals(0, store.size());
+        store.append(line("new0"));
+        assertEquals(1, store.size());
+        assertEquals("new0", read(0));
+    }
+
+    @Test
+    void append_lineWiderThanChunk_throws() {
+        assertThrows(IllegalArgumentException.class, () -> store.append(new Line(9)));
+    }
+}
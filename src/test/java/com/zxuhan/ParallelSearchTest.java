@@ -0,0 +1,146 @@
+package com.zxuhan;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelSearchTest {
+
+    private static final int CHUNK = ParallelSearch.CHUNK_ROWS;
+
+    private static Line line(String text) {
+        Line line = new Line(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            line.set(i, Cell.pack(text.charAt(i), Color.DEFAULT, Color.DEFAULT, false, false, false));
+        }
+        return line;
+    }
+
+    private static Line[] rows(int count, String text) {
+        Line[] rows = new Line[count];
+        for (int i = 0; i < count; i++) {
+            rows[i] = line(text);
+        }
+        return rows;
+    }
+
+    private static List<SearchHit> search(Line[] rows, Pattern pattern, boolean overlapping, int limit) {
+        return new ParallelSearch(rows.length, task -> task.accept(i -> rows[i]), pattern, overlapping, limit)
+                .run(ForkJoinPool.commonPool());
+    }
+
+    @Test
+    void run_manyChunks_returnsHitsInRowOrder() {
+        Random random = new Random(19);
+        Line[] rows = new Line[10 * CHUNK + 17];
+        List<SearchHit> expected = new ArrayList<>();
+        for (int i = 0; i < rows.length; i++) {
+            int at = random.nextInt(3) == 0 ? random.nextInt(6) : -1;
+            StringBuilder text = new StringBuilder("..........");
+            if (at >= 0) {
+                text.replace(at, at + 3, "xyz");
+                expected.add(new SearchHit(i, at));
+            }
+            rows[i] = line(text.toString());
+        }
+        assertEquals(expected, search(rows, Pattern.compile("xyz"), false, Integer.MAX_VALUE));
+    }
+
+    @Test
+    void run_matchAcrossSoftWrapAtChunkBoundary_isFound() {
+        Line[] rows = rows(3 * CHUNK, "....");
+        rows[CHUNK - 2].wrapped = true;
+        rows[CHUNK - 1] = line("..ab");
+        rows[CHUNK - 1].wrapped = true;
+        rows[CHUNK] = line("cd..");
+        assertEquals(List.of(new SearchHit(CHUNK - 1, 2)), search(rows, Pattern.compile("abcd"), false, 10));
+    }
+
+    @Test
+    void run_limit_keepsEarliestHits() {
+        Line[] rows = rows(5 * CHUNK, "a.a.");
+        List<SearchHit> all = search(rows, Pattern.compile("a"), false, Integer.MAX_VALUE);
+        assertEquals(2 * rows.length, all.size());
+        assertEquals(all.subList(0, 3), search(rows, Pattern.compile("a"), false, 3));
+        assertEquals(all.subList(0, 2 * CHUNK + 1), search(rows, Pattern.compile("a"), false, 2 * CHUNK + 1));
+    }
+
+    @Test
+    void run_enoughHitsInFirstChunk_laterChunksStop() {
+        Line[] rows = rows(20 * CHUNK, "hit.");
+        AtomicInteger reads = new AtomicInteger();
+        ParallelSearch search = new ParallelSearch(rows.length, task -> task.accept(i -> {
+            reads.incrementAndGet();
+            return rows[i];
+        }), Pattern.compile("hit"), false, 5);
+        // One worker runs the first chunk before any other, so every later one finds it done and is skipped
+        ForkJoinPool single = new ForkJoinPool(1);
+        try {
+            assertEquals(5, search.run(single).size());
+        } finally {
+            single.shutdown();
+        }
+        assertTrue(reads.get() < 2 * CHUNK, "rows read: " + reads.get());
+    }
+
+    @Test
+    void run_readsRowsOneChunkPerRead() {
+        Line[] rows = rows(10 * CHUNK + 17, "....");
+        rows[CHUNK - 1].wrapped = true;
+        List<int[]> reads = Collections.synchronizedList(new ArrayList<>());
+        ParallelSearch search = new ParallelSearch(rows.length, task -> {
+            int[] span = {Integer.MAX_VALUE, -1};
+            task.accept(i -> {
+                span[0] = Math.min(span[0], i);
+                span[1] = Math.max(span[1], i);
+                return rows[i];
+            });
+            reads.add(span);
+        }, Pattern.compile("x"), false, 10);
+        assertTrue(search.run(ForkJoinPool.commonPool()).isEmpty());
+        // One read to cut the chunks, then one per chunk, each within its own chunk
+        assertEquals(1 + 11, reads.size());
+        for (int[] span : reads.subList(1, reads.size())) {
+            assertTrue(span[1] - span[0] < CHUNK + 1, "rows read: " + span[0] + ".." + span[1]);
+        }
+    }
+
+    @Test
+    void run_rowsGoneBeforeTheirChunk_areSkipped() {
+        Line[] rows = rows(3 * CHUNK, "hit.");
+        ParallelSearch.Rows gone = task -> task.accept(i -> i < CHUNK + 5 ? null : rows[i]);
+        List<SearchHit> hits = new ParallelSearch(rows.length, gone, Pattern.compile("hit"), false, Integer.MAX_VALUE)
+                .run(ForkJoinPool.commonPool());
+        assertEquals(2 * CHUNK - 5, hits.size());
+        assertEquals(new SearchHit(CHUNK + 5, 0), hits.get(0));
+    }
+
+    @Test
+    void run_overlapping_reportsEveryStart() {
+        Line[] rows = {line("aaaa")};
+        assertEquals(3, search(rows, Pattern.compile("aa", Pattern.LITERAL), true, 10).size());
+        assertEquals(2, search(rows, Pattern.compile("aa"), false, 10).size());
+    }
+
+    @Test
+    void run_emptyMatchesAroundSupplementaryChar_oneHitPerCell() {
+        Line row = line("a  b");
+        row.set(1, Cell.pack(0x1F600, Color.DEFAULT, Color.DEFAULT, false, false, false) | Cell.WIDE_BITS);
+        row.set(2, Cell.CONTINUATION);
+        List<SearchHit> hits = search(new Line[] {row}, Pattern.compile(""), false, 10);
+        assertEquals(List.of(new SearchHit(0, 0), new SearchHit(0, 1), new SearchHit(0, 3), new SearchHit(0, 4)), hits);
+    }
+
+    @Test
+    void run_noRows_returnsNothing() {
+        assertTrue(search(new Line[0], Pattern.compile("a"), false, 1).isEmpty());
+    }
+}
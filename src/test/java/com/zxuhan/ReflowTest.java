@@ -0,0 +1,126 @@
+package com.zxuhan;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReflowTest {
+
+    private static final long WIDE_A = Cell.pack('中', Color.DEFAULT, Color.DEFAULT, false, false, false) | Cell.WIDE_BITS;
+
+    private static Line line(String text, boolean wrapped) {
+        Line line = new Line(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            line.set(i, Cell.pack(text.charAt(i), Color.DEFAULT, Color.DEFAULT, false, false, false));
+        }
+        line.wrapped = wrapped;
+        return line;
+    }
+
+    private static List<String> texts(Reflow reflow) {
+        return reflow.rows().stream().map(Line::toString).toList();
+    }
+
+    @Test
+    void add_wrappedRunIsRejoinedAndRewrapped() {
+        Reflow reflow = new Reflow(3);
+        reflow.add(line("abcd", true));
+        reflow.add(line("ef  ", false));
+        assertEquals(List.of("abc", "def"), texts(reflow));
+        assertTrue(reflow.rows().get(0).wrapped);
+        assertFalse(reflow.rows().get(1).wrapped);
+    }
+
+    @Test
+    void add_trailingBlanksOfLastLine_produceNoRows() {
+        Reflow reflow = new Reflow(2);
+        reflow.add(line("ab      ", false));
+        assertEquals(List.of("ab"), texts(reflow));
+    }
+
+    @Test
+    void add_blankLine_becomesOneBlankRow() {
+        Reflow reflow = new Reflow(3);
+        reflow.add(line("    ", false));
+        reflow.add(line("x", false));
+        assertEquals(List.of("   ", "x  "), texts(reflow));
+    }
+
+    @Test
+    void add_wideCharAtNewEdge_movesToNextRow() {
+        Line src = line("ab  ", false);
+        src.set(2, WIDE_A);
+        src.set(3, Cell.CONTINUATION);
+        Reflow reflow = new Reflow(3);
+        reflow.add(src);
+        assertEquals(List.of("ab ", "中 "), texts(reflow));
+        assertTrue(Cell.isContinuation(reflow.rows().get(1).get(1)));
+        assertTrue(reflow.rows().get(0).padded);
+    }
+
+    @Test
+    void add_paddedRow_lastCellLeftOut() {
+        Line padded = line("abc ", true);
+        padded.padded = true;
+        Line next = line("  x", false);
+        next.set(0, WIDE_A);
+        next.set(1, Cell.CONTINUATION);
+        Reflow reflow = new Reflow(8);
+        reflow.add(padded);
+        reflow.add(next);
+        assertEquals(List.of("abc中x  "), texts(reflow));
+        assertFalse(reflow.rows().get(0).padded);
+    }
+
+    @Test
+    void add_paddedRowWrittenOver_lastCellKept() {
+        Line padded = line("abcZ", true);
+        padded.padded = true;
+        Reflow reflow = new Reflow(8);
+        reflow.add(padded);
+        reflow.add(line("x", false));
+        assertEquals(List.of("abcZx   "), texts(reflow));
+    }
+
+    @Test
+    void add_wideCharOnOneColumnWidth_becomesBlank() {
+        Line src = line("  a", false);
+        src.set(0, WIDE_A);
+        src.set(1, Cell.CONTINUATION);
+        Reflow reflow = new Reflow(1);
+        reflow.add(src);
+        assertEquals(List.of(" ", "a"), texts(reflow));
+    }
+
+    @Test
+    void add_markedCell_trackedToItsNewPosition() {
+        Reflow reflow = new Reflow(2);
+        reflow.add(line("abc", true));
+        reflow.add(line("de ", false), 1);
+        assertEquals(2, reflow.cursorRow);
+        assertEquals(0, reflow.cursorCol);
+    }
+
+    @Test
+    void add_markedBlankAfterText_keptAsText() {
+        Reflow reflow = new Reflow(4);
+        reflow.add(line("ab      ", false), 5);
+        assertEquals(List.of("ab  ", "    "), texts(reflow));
+        assertEquals(1, reflow.cursorRow);
+        assertEquals(1, reflow.cursorCol);
+    }
+
+    @Test
+    void add_markedContinuation_mapsNextToItsWide() {
+        Line src = line("a   ", false);
+        src.set(1, WIDE_A);
+        src.set(2, Cell.CONTINUATION);
+        Reflow reflow = new Reflow(2);
+        reflow.add(src, 2);
+        assertEquals(List.of("a ", "中"), texts(reflow));
+        assertEquals(1, reflow.cursorRow);
+        assertEquals(1, reflow.cursorCol);
+    }
+}
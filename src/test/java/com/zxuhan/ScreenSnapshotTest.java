@@ -0,0 +1,47 @@
+package com.zxuhan;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScreenSnapshotTest {
+
+    private ScreenSnapshot snap;
+
+    @BeforeEach
+    void setUp() {
+        TerminalBuffer buf = new TerminalBuffer(4, 2, 0);
+        buf.setBold(true);
+        buf.writeText("a中");
+        snap = buf.snapshot();
+    }
+
+    @Test
+    void getChar_continuationCell_returnsWidePartner() {
+        assertEquals('a', snap.getChar(0, 0));
+        assertEquals('中', snap.getChar(1, 0));
+        assertEquals('中', snap.getChar(2, 0));
+    }
+
+    @Test
+    void getAttributes_returnsSharedStyleInstance() {
+        assertTrue(snap.getAttributes(0, 0).bold());
+        assertSame(snap.getAttributes(0, 0), snap.getAttributes(2, 0));
+        assertEquals(snap.getStyleId(0, 0), snap.getStyleId(1, 0));
+    }
+
+    @Test
+    void outOfBounds_returnsDefaults() {
+        assertEquals(' ', snap.getChar(0, 2));
+        assertEquals(' ', snap.getChar(-1, 0));
+        assertEquals(0, snap.getStyleId(0, -1));
+        assertSame(StyleTable.DEFAULT, snap.getAttributes(9, 0));
+        assertEquals("    ", snap.getLine(5));
+    }
+
+    @Test
+    void getContent_everyRowNewlineTerminated() {
+        assertEquals("a中 \n    \n", snap.getContent());
+    }
+}
@@ -0,0 +1,639 @@
+package com.zxuhan;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScrollbackTest {
+
+    private static Line line(String text) {
+        Line line = new Line(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            line.setCell(i, new Cell(text.charAt(i), Color.DEFAULT, Color.DEFAULT, false, false, false));
+        }
+        return line;
+    }
+
+    @Test
+    void new_isEmpty() {
+        Scrollback sb = new Scrollback(3);
+        assertAll(
+                () -> assertTrue(sb.isEmpty()),
+                () -> assertEquals(0, sb.size())
+        );
+    }
+
+    @Test
+    void add_belowCapacity_keepsOldestFirstAndEvictsNothing() {
+        Scrollback sb = new Scrollback(3);
+        assertNull(sb.add(line("A")));
+        assertNull(sb.add(line("B")));
+        assertAll(
+                () -> assertEquals(2, sb.size()),
+                () -> assertEquals("A", sb.get(0).toString()),
+                () -> assertEquals("B", sb.get(1).toString())
+        );
+    }
+
+    @Test
+    void add_atCapacity_returnsEvictedOldestLine() {
+        Scrollback sb = new Scrollback(2);
+        Line a = line("A");
+        sb.add(a);
+        sb.add(line("B"));
+        assertSame(a, sb.add(line("C")));
+        assertAll(
+                () -> assertEquals(2, sb.size()),
+                () -> assertEquals("B", sb.get(0).toString()),
+                () -> assertEquals("C", sb.get(1).toString())
+        );
+    }
+
+    @Test
+    void add_wrapsAroundManyTimes_indexingStaysOldestFirst() {
+        Scrollback sb = new Scrollback(5);
+        for (int i = 0; i < 23; i++) {
+            sb.add(line(Integer.toString(i)));
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals(Integer.toString(18 + i), sb.get(i).toString());
+        }
+    }
+
+    @Test
+    void add_growsPastInitialSlotsAfterWrap_preservesOrder() {
+        // capacity well above the initial slot count: growth must unroll the ring correctly
+        Scrollback sb = new Scrollback(100);
+        for (int i = 0; i < 70; i++) {
+            sb.add(line(Integer.toString(i)));
+        }
+        assertEquals(70, sb.size());
+        for (int i = 0; i < 70; i++) {
+            assertEquals(Integer.toString(i), sb.get(i).toString());
+        }
+    }
+
+    @Test
+    void add_zeroCapacity_keepsNothingAndReturnsAddedLine() {
+        Scrollback sb = new Scrollback(0);
+        Line a = line("A");
+        assertSame(a, sb.add(a));
+        assertTrue(sb.isEmpty());
+    }
+
+    @Test
+    void resized_ringLinesKeepTheirCellsAndAreClippedOnRead() {
+        Scrollback sb = new Scrollback(5, 4, null);
+        Line abcd = line("abcd");
+        sb.add(abcd);
+        sb.resized(2);
+        sb.add(line("ef"));
+        sb.resized(5);
+        sb.add(line("ghijk"));
+        assertAll(
+                () -> assertEquals("abcd", abcd.toString()),
+                () -> assertEquals("ab   ", sb.get(0).toString()),
+                () -> assertEquals("ef   ", sb.get(1).toString()),
+                () -> assertEquals("ghijk", sb.get(2).toString()),
+                () -> assertEquals(Cell.BLANK, sb.word(0, 2)),
+                () -> assertEquals((long) 'b', sb.word(0, 1))
+        );
+    }
+
+    @Test
+    void get_untouchedRingLine_returnedWithoutCopy() {
+        Scrollback sb = new Scrollback(5, 2, null);
+        sb.add(line("ab"));
+        sb.resized(3);
+        Line fresh = line("cde");
+        sb.add(fresh);
+        assertSame(fresh, sb.get(1));
+        assertEquals("ab ", sb.get(0).toString());
+    }
+
+    @Test
+    void resized_ringWideCutAtClip_readsBlank() {
+        Scrollback sb = new Scrollback(5, 3, null);
+        Line wide = line("a  ");
+        wide.set(1, Cell.pack('中', Color.DEFAULT, Color.DEFAULT, false, false, false) | Cell.WIDE_BITS);
+        wide.set(2, Cell.CONTINUATION);
+        sb.add(wide);
+        sb.resized(2);
+        sb.resized(3);
+        assertEquals(Cell.BLANK, sb.word(0, 1));
+        assertEquals("a  ", sb.get(0).toString());
+        assertTrue(Cell.isWide(wide.get(1)));
+    }
+
+    @Test
+    void resized_evictionKeepsClipsAlignedWithLines() {
+        Scrollback sb = new Scrollback(2, 3, null);
+        sb.add(line("abc"));
+        sb.add(line("def"));
+        sb.resized(1);
+        sb.resized(3);
+        sb.add(line("ghi"));
+        assertEquals("d  ", sb.get(0).toString());
+        assertEquals("ghi", sb.get(1).toString());
+    }
+
+    @Test
+    void resized_backToLineWidth_blanksWideLeftInLastColumn() {
+        // "z字字字" at width 6: the last 字 has no room for its CONTINUATION, as a cross-row insertText can leave it
+        long wide = Cell.pack('字', Color.DEFAULT, Color.DEFAULT, false, false, false) | Cell.WIDE_BITS;
+        Line line = line("z     ");
+        for (int col = 1; col < 5; col += 2) {
+            line.set(col, wide);
+            line.set(col + 1, Cell.CONTINUATION);
+        }
+        line.set(5, wide);
+        Scrollback sb = new Scrollback(5, 6, null);
+        sb.add(line);
+        sb.resized(7);
+        assertEquals(wide, sb.word(0, 5));
+        sb.resized(6);
+        assertEquals(Cell.BLANK, sb.word(0, 5));
+        assertEquals("z字字 ", sb.get(0).toString());
+        assertEquals(wide, line.get(5));
+    }
+
+    @Test
+    void resized_randomWidths_matchEagerRebuild() {
+        Random random = new Random(15);
+        Scrollback sb = new Scrollback(6, 5, new CompressedLineStore());
+        List<long[]> eager = new ArrayList<>();
+        int width = 5;
+        for (int step = 0; step < 1500; step++) {
+            if (random.nextInt(3) == 0) {
+                int newWidth = 1 + random.nextInt(8);
+                if (newWidth == width) {
+                    continue;
+                }
+                sb.resized(newWidth);
+                for (int i = 0; i < eager.size(); i++) {
+                    eager.set(i, rebuilt(eager.get(i), newWidth));
+                }
+                width = newWidth;
+            } else {
+                Line line = randomLine(random, width);
+                sb.add(line);
+                eager.add(line.cells.clone());
+            }
+            assertEquals(eager.size(), sb.size());
+            for (int i = 0; i < eager.size(); i++) {
+                long[] expected = eager.get(i);
+                assertArrayEquals(expected, sb.get(i).cells, "step " + step + ", line " + i);
+                for (int col = 0; col < width; col++) {
+                    assertEquals(expected[col], sb.word(i, col), "step " + step + ", line " + i + ", col " + col);
+                }
+            }
+        }
+    }
+
+    /** What a resize did to a line before history was clipped lazily: truncate or pad, then blank a cut WIDE. */
+    private static long[] rebuilt(long[] cells, int newWidth) {
+        long[] rebuilt = new long[newWidth];
+        Arrays.fill(rebuilt, Cell.BLANK);
+        System.arraycopy(cells, 0, rebuilt, 0, Math.min(cells.length, newWidth));
+        if (newWidth < cells.length && Cell.isWide(rebuilt[newWidth - 1])) {
+            rebuilt[newWidth - 1] = Cell.BLANK;
+        }
+        return rebuilt;
+    }
+
+    /** Narrow chars, blanks and wide pairs; a wide char drawn for the last column is left there alone. */
+    private static Line randomLine(Random random, int width) {
+        Line line = new Line(width);
+        for (int col = 0; col < width; col++) {
+            int kind = random.nextInt(4);
+            if (kind == 0) {
+                line.set(col, Cell.pack('中', Color.DEFAULT, Color.DEFAULT, false, false, false) | Cell.WIDE_BITS);
+                if (col + 1 < width) {
+                    line.set(++col, Cell.CONTINUATION);
+                }
+            } else if (kind == 1) {
+                line.set(col, Cell.pack('a' + random.nextInt(3), Color.DEFAULT, Color.DEFAULT, false, false, false));
+            }
+        }
+        return line;
+    }
+
+    @Test
+    void clear_emptiesAndAcceptsNewLines() {
+        Scrollback sb = new Scrollback(2);
+        sb.add(line("A"));
+        sb.add(line("B"));
+        sb.add(line("C"));
+        sb.clear();
+        assertTrue(sb.isEmpty());
+        sb.add(line("D"));
+        assertEquals("D", sb.get(0).toString());
+    }
+
+    // --- Spilling to a LineStore ---
+
+    @TempDir
+    Path dir;
+
+    private Scrollback spilling(int capacity, int width) throws IOException {
+        return new Scrollback(capacity, width, new MappedLineStore(dir.resolve("spill"), 1 << 12));
+    }
+
+    @Test
+    void add_withStore_spillsEvictedLinesInsteadOfDroppingThem() throws IOException {
+        Scrollback sb = spilling(2, 1);
+        Line a = line("A");
+        sb.add(a);
+        sb.add(line("B"));
+        assertSame(a, sb.add(line("C")));
+        sb.add(line("D"));
+        assertAll(
+                () -> assertEquals(4, sb.size()),
+                () -> assertEquals(2, sb.storedSize()),
+                () -> assertEquals("A", sb.get(0).toString()),
+                () -> assertEquals("B", sb.get(1).toString()),
+                () -> assertEquals("C", sb.get(2).toString()),
+                () -> assertEquals("D", sb.get(3).toString()),
+                () -> assertEquals('B', Cell.codePoint(sb.word(1, 0)))
+        );
+        sb.close();
+    }
+
+    @Test
+    void add_zeroCapacityWithStore_everyLineStored() throws IOException {
+        Scrollback sb = spilling(0, 1);
+        sb.add(line("A"));
+        sb.add(line("B"));
+        assertEquals(2, sb.storedSize());
+        assertEquals("B", sb.get(1).toString());
+        sb.close();
+    }
+
+    @Test
+    void resized_storedLinesClippedToNarrowestLaterWidthThenPadded() throws IOException {
+        Scrollback sb = spilling(0, 4);
+        sb.add(line("abcd"));
+        sb.resized(2);
+        sb.add(line("ef"));
+        sb.resized(5);
+        sb.add(line("ghijk"));
+        assertAll(
+                () -> assertEquals("ab   ", sb.get(0).toString()),
+                () -> assertEquals("ef   ", sb.get(1).toString()),
+                () -> assertEquals("ghijk", sb.get(2).toString()),
+                () -> assertEquals(Cell.BLANK, sb.word(0, 3)),
+                () -> assertEquals(Cell.BLANK, sb.word(2, 5))
+        );
+        sb.close();
+    }
+
+    @Test
+    void resized_storedWideCutAtClip_readsBlank() throws IOException {
+        Scrollback sb = spilling(0, 3);
+        Line wide = line("a  ");
+        wide.set(1, Cell.pack('中', Color.DEFAULT, Color.DEFAULT, false, false, false) | Cell.WIDE_BITS);
+        wide.set(2, Cell.CONTINUATION);
+        sb.add(wide);
+        sb.resized(2);
+        sb.resized(3);
+        assertEquals(Cell.BLANK, sb.word(0, 1));
+        assertEquals("a  ", sb.get(0).toString());
+        sb.close();
+    }
+
+    @Test
+    void clear_withStore_dropsStoredLinesAndClips() throws IOException {
+        Scrollback sb = spilling(1, 2);
+        sb.add(line("ab"));
+        sb.add(line("cd"));
+        sb.resized(1);
+        sb.clear();
+        sb.resized(2);
+        sb.add(line("ef"));
+        sb.add(line("gh"));
+        assertEquals(2, sb.size());
+        assertEquals("ef", sb.get(0).toString());
+        sb.close();
+    }
+
+    // --- Reflow ---
+
+    private static Line wrapped(String text) {
+        Line line = line(text);
+        line.wrapped = true;
+        return line;
+    }
+
+    @Test
+    void reflow_ringLinesPendingUntilSettle_thenRewrapped() {
+        Scrollback sb = new Scrollback(10, 4, null);
+        sb.add(wrapped("abcd"));
+        sb.add(line("ef  "));
+        sb.add(line("gh  "));
+        sb.reflow(2);
+        assertTrue(sb.reflowPending());
+        assertEquals("ab", sb.get(0).toString(), "pending lines read clipped");
+        sb.settle();
+        assertFalse(sb.reflowPending());
+        assertEquals(4, sb.size());
+        assertAll(
+                () -> assertEquals("ab", sb.get(0).toString()),
+                () -> assertEquals("cd", sb.get(1).toString()),
+                () -> assertEquals("ef", sb.get(2).toString()),
+                () -> assertEquals("gh", sb.get(3).toString()),
+                () -> assertTrue(sb.get(1).wrapped),
+                () -> assertFalse(sb.get(2).wrapped)
+        );
+    }
+
+    @Test
+    void reflow_widerRejoinsWrappedLines() {
+        Scrollback sb = new Scrollback(10, 2, null);
+        sb.add(wrapped("ab"));
+        sb.add(wrapped("cd"));
+        sb.add(line("e "));
+        sb.reflow(6);
+        sb.settle();
+        assertEquals(1, sb.size());
+        assertEquals("abcde ", sb.get(0).toString());
+    }
+
+    @Test
+    void settle_moreRowsThanCapacity_spillsOldest() throws IOException {
+        Scrollback sb = spilling(3, 4);
+        sb.add(wrapped("abcd"));
+        sb.add(line("efgh"));
+        sb.reflow(2);
+        sb.settle();
+        assertEquals(4, sb.size());
+        assertEquals(1, sb.storedSize());
+        assertEquals("ab", sb.get(0).toString());
+        assertEquals("gh", sb.get(3).toString());
+        sb.close();
+    }
+
+    @Test
+    void add_fullRingWithPendingHead_evictsWholeRewrappedLogicalLine() throws IOException {
+        Scrollback sb = spilling(3, 4);
+        sb.add(wrapped("abcd"));
+        sb.add(line("ef  "));
+        sb.add(line("gh  "));
+        sb.reflow(3);
+        sb.add(line("ijk"));
+        // "abcdef" left the ring as two rows at the new width; "gh" is still pending
+        assertEquals(2, sb.storedSize());
+        sb.settle();
+        assertAll(
+                () -> assertEquals(4, sb.size()),
+                () -> assertEquals("abc", sb.get(0).toString()),
+                () -> assertEquals("def", sb.get(1).toString()),
+                () -> assertEquals("gh ", sb.get(2).toString()),
+                () -> assertEquals("ijk", sb.get(3).toString())
+        );
+        sb.close();
+    }
+
+    @Test
+    void step_rewrapsWholeLogicalLinesAheadOfPendingOnes() {
+        Scrollback sb = new Scrollback(2000, 2, null);
+        sb.add(line("xx"));
+        for (int i = 1; i <= 600; i++) {
+            sb.add(i % 2 == 1 ? wrapped("ab") : line("cd"));
+        }
+        sb.reflow(4);
+        sb.step();
+        // Line 511 wraps, so the step went on to 512: 513 lines became 257 rows, 88 are still pending
+        assertTrue(sb.reflowPending());
+        assertEquals(257 + 88, sb.size());
+        assertEquals("xx  ", sb.get(0).toString());
+        assertEquals("abcd", sb.get(1).toString());
+        assertEquals("abcd", sb.get(256).toString());
+        assertEquals("ab  ", sb.get(257).toString(), "pending lines read clipped");
+        assertTrue(sb.get(257).wrapped);
+        sb.step();
+        assertFalse(sb.reflowPending());
+        assertEquals(301, sb.size());
+        assertEquals("abcd", sb.get(300).toString());
+    }
+
+    @Test
+    void add_fullRingWhileSettling_evictsSettledRowsFirst() {
+        Scrollback sb = new Scrollback(600, 4, null);
+        for (int i = 0; i < 600; i++) {
+            sb.add(line(String.format("%04d", i)));
+        }
+        sb.reflow(2);
+        sb.step();
+        // 512 lines became 1024 rows; the oldest 512 left to make room
+        assertTrue(sb.reflowPending());
+        assertEquals(600, sb.size());
+        assertEquals("02", sb.get(0).toString());
+        assertEquals("02", sb.add(line("nw")).toString(), "the oldest settled row is returned for reuse");
+        assertEquals(600, sb.size());
+        assertEquals("56", sb.get(0).toString());
+        assertEquals("nw", sb.get(599).toString());
+        sb.settle();
+        assertEquals(600, sb.size());
+        assertEquals("00", sb.get(0).toString());
+        assertEquals("99", sb.get(598).toString());
+        assertEquals("nw", sb.get(599).toString());
+    }
+
+    @Test
+    void reflow_whileSettling_rewrapsSettledRowsToo() {
+        Scrollback sb = new Scrollback(2000, 2, null);
+        for (int i = 0; i < 600; i++) {
+            sb.add(i % 2 == 0 ? wrapped("ab") : line("ab"));
+        }
+        sb.reflow(3);
+        sb.step();
+        assertTrue(sb.reflowPending());
+        sb.reflow(4);
+        sb.settle();
+        assertEquals(300, sb.size());
+        assertEquals("abab", sb.get(0).toString());
+        assertEquals("abab", sb.get(299).toString());
+        assertFalse(sb.get(299).wrapped);
+    }
+
+    @Test
+    void step_randomReflowsAndAdds_matchSettlingAtOnce() {
+        Random random = new Random(12);
+        // Ample capacity: nothing leaves the ring, so both histories must end up row for row the same
+        Scrollback stepped = new Scrollback(100_000, 6, null);
+        Scrollback eager = new Scrollback(100_000, 6, null);
+        int width = 6;
+        for (int step = 0; step < 6000; step++) {
+            int op = random.nextInt(100);
+            if (op < 2) {
+                // As the buffer does, take away the lines wrapping into the screen, which it rewraps itself
+                width = 2 + random.nextInt(10);
+                stepped.reflow(width);
+                eager.reflow(width);
+                assertEquals(eager.pollWrappedTail().size(), stepped.pollWrappedTail().size());
+                eager.settle();
+            } else if (op < 12) {
+                stepped.step();
+            } else {
+                Line line = randomLine(random, width);
+                line.wrapped = random.nextInt(3) > 0;
+                if (!line.wrapped && line.cells[width - 1] == Cell.BLANK) {
+                    // Blanks ending a logical line are trimmed by every rewrap, so the first one already decides
+                    line.set(width - 1, Cell.pack('z', Color.DEFAULT, Color.DEFAULT, false, false, false));
+                }
+                stepped.add(line);
+                eager.add(line.copy());
+            }
+            if (step % 500 == 499) {
+                stepped.settle();
+                assertEquals(eager.size(), stepped.size(), "step " + step);
+                for (int i = 0; i < eager.size(); i++) {
+                    assertArrayEquals(eager.get(i).cells, stepped.get(i).cells, "step " + step + ", line " + i);
+                    assertEquals(eager.get(i).wrapped, stepped.get(i).wrapped, "step " + step + ", line " + i);
+                }
+            }
+        }
+    }
+
+    @Test
+    void pollWrappedTail_removesLinesWrappingIntoTheScreen() {
+        Scrollback sb = new Scrollback(10, 2, null);
+        sb.add(line("ab"));
+        sb.add(wrapped("cd"));
+        sb.add(wrapped("ef"));
+        List<Line> tail = sb.pollWrappedTail();
+        assertEquals(2, tail.size());
+        assertEquals("cd", tail.get(0).toString());
+        assertEquals("ef", tail.get(1).toString());
+        assertEquals(1, sb.size());
+        assertTrue(sb.pollWrappedTail().isEmpty());
+    }
+
+    @Test
+    void reflow_earlierClipsAppliedBeforeRewrapping() {
+        Scrollback sb = new Scrollback(10, 4, null);
+        sb.add(line("abcd"));
+        sb.resized(2);
+        sb.resized(4);
+        sb.reflow(8);
+        sb.settle();
+        assertEquals("ab      ", sb.get(0).toString());
+    }
+
+    // --- Search index ---
+
+    private static int[] query(String text) {
+        return text.codePoints().toArray();
+    }
+
+    @Test
+    void add_indexesLineAtOnce() {
+        Scrollback sb = new Scrollback(10, 4, null);
+        sb.add(line("abcd"));
+        sb.add(line("wxyz"));
+        assertFalse(sb.behind());
+        assertArrayEquals(new int[] {0}, sb.candidates(query("abc")));
+        assertNull(sb.candidates(query("ab")));
+    }
+
+    @Test
+    void add_indexesNewLinesAndWithdrawsEvictedOnes() {
+        Scrollback sb = new Scrollback(3, 4, null);
+        sb.add(line("abc1"));
+        for (int i = 2; i <= 5; i++) {
+            sb.add(line("abc" + i));
+        }
+        // Lines "abc3".."abc5" remain, at indices 0..2
+        assertArrayEquals(new int[] {0, 1, 2}, sb.candidates(query("abc")));
+        assertArrayEquals(new int[] {2}, sb.candidates(query("bc5")));
+        assertArrayEquals(new int[0], sb.candidates(query("bc1")));
+    }
+
+    @Test
+    void add_withStore_spilledLinesStayIndexed() throws IOException {
+        Scrollback sb = spilling(2, 4);
+        for (int i = 0; i < 5; i++) {
+            sb.add(line("xyz" + i));
+        }
+        assertEquals(3, sb.storedSize());
+        assertArrayEquals(new int[] {0, 1, 2, 3, 4}, sb.candidates(query("xyz")));
+        assertArrayEquals(new int[] {1}, sb.candidates(query("yz1")));
+        sb.close();
+    }
+
+    @Test
+    void reflow_emptiesIndex_stepsRebuildItForRenumberedLines() {
+        Scrollback sb = new Scrollback(10, 4, null);
+        sb.add(wrapped("abcd"));
+        sb.add(line("efgh"));
+        sb.reflow(3);
+        assertTrue(sb.behind());
+        assertNull(sb.candidates(query("def")), "nothing indexed yet");
+        sb.step();
+        assertTrue(sb.behind(), "pending lines are settled first");
+        sb.settle();
+        sb.step();
+        assertFalse(sb.behind());
+        // "abcdefgh" is now "abc", "def", "gh"
+        assertArrayEquals(new int[] {1}, sb.candidates(query("def")));
+        assertArrayEquals(new int[0], sb.candidates(query("bcd")));
+    }
+
+    @Test
+    void step_indexesAtMostStepLines_restAreCandidates() {
+        Scrollback sb = new Scrollback(2000, 4, null);
+        for (int i = 0; i < 1000; i++) {
+            sb.add(line(i == 700 ? "xyz " : "abcd"));
+        }
+        sb.reflow(5);
+        sb.settle();
+        sb.step();
+        assertTrue(sb.behind());
+        int[] rows = sb.candidates(query("xyz"));
+        assertEquals(1000 - Scrollback.STEP_LINES, rows.length, "every line past the indexed ones");
+        assertEquals(Scrollback.STEP_LINES, rows[0]);
+        sb.step();
+        assertFalse(sb.behind());
+        assertArrayEquals(new int[] {700}, sb.candidates(query("xyz")));
+    }
+
+    @Test
+    void add_whileIndexCatchesUp_indexedByLaterSteps() {
+        Scrollback sb = new Scrollback(3, 4, null);
+        sb.add(line("abc1"));
+        sb.add(line("abc2"));
+        sb.reflow(4);
+        sb.settle();
+        for (int i = 3; i <= 6; i++) {
+            sb.add(line("abc" + i));
+        }
+        while (sb.behind()) {
+            sb.step();
+        }
+        // Lines "abc4".."abc6" remain; the evicted ones were never indexed
+        assertArrayEquals(new int[] {0, 1, 2}, sb.candidates(query("abc")));
+        assertArrayEquals(new int[] {1}, sb.candidates(query("bc5")));
+        sb.add(line("abc7"));
+        assertArrayEquals(new int[] {0, 1, 2}, sb.candidates(query("abc")));
+        assertArrayEquals(new int[0], sb.candidates(query("bc4")));
+    }
+
+    @Test
+    void clear_emptiesIndex() {
+        Scrollback sb = new Scrollback(10, 4, null);
+        sb.add(line("abcd"));
+        sb.clear();
+        assertFalse(sb.behind());
+        sb.add(line("wabc"));
+        assertArrayEquals(new int[] {0}, sb.candidates(query("abc")));
+        assertArrayEquals(new int[0], sb.candidates(query("bcd")));
+    }
+}
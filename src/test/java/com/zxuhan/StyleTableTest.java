@@ -0,0 +1,52 @@
+package com.zxuhan;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StyleTableTest {
+
+    @Test
+    void id_default_isZero() {
+        assertEquals(0, StyleTable.id(Color.DEFAULT, Color.DEFAULT, false, false, false));
+        assertEquals(0, StyleTable.id(Cell.BLANK));
+        assertEquals(new CellAttributes(Color.DEFAULT, Color.DEFAULT, false, false, false), StyleTable.DEFAULT);
+    }
+
+    @Test
+    void id_ignoresCodePointAndCellType() {
+        long word = Cell.pack('x', Color.RED, Color.BLUE, true, false, true);
+        assertEquals(StyleTable.id(word), StyleTable.id(word | Cell.WIDE_BITS));
+        assertEquals(StyleTable.id(Color.RED, Color.BLUE, true, false, true), StyleTable.id(word));
+    }
+
+    @Test
+    void get_everyCombination_distinctIdRoundTripsToSharedInstance() {
+        Set<Integer> ids = new HashSet<>();
+        boolean[] flags = {false, true};
+        for (Color fg : Color.values()) {
+            for (Color bg : Color.values()) {
+                for (boolean bold : flags) {
+                    for (boolean italic : flags) {
+                        for (boolean underline : flags) {
+                            int id = StyleTable.id(fg, bg, bold, italic, underline);
+                            assertTrue(ids.add(id));
+                            CellAttributes attrs = StyleTable.get(id);
+                            assertEquals(new CellAttributes(fg, bg, bold, italic, underline), attrs);
+                            assertSame(attrs, StyleTable.get(id));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void get_outOfRangeId_returnsNull() {
+        assertNull(StyleTable.get(-1));
+        assertNull(StyleTable.get(1 << StyleTable.STYLE_BITS));
+    }
+}
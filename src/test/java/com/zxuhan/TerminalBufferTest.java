@@ -3,13 +3,44 @@ package com.zxuhan;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class TerminalBufferTest {
 
+    /** Overwrites the code point of a cell directly, bypassing the cursor; attributes are kept. */
+    static void setChar(Line line, int col, int ch) {
+        Cell cell = line.getCell(col);
+        cell.ch = ch;
+        line.setCell(col, cell);
+    }
+
+    /** Overwrites the foreground of a cell directly, bypassing the pen; content is kept. */
+    static void setForeground(Line line, int col, Color fg) {
+        Cell cell = line.getCell(col);
+        cell.fg = fg;
+        line.setCell(col, cell);
+    }
+
     @Nested
     class ConstructorTest {
 
@@ -667,7 +698,7 @@ class TerminalBufferTest {
             @Test
             void insertText_shiftsExistingContentRight() {
                 // Pre-fill col 1 with 'Z'
-                buf.screen[0].getCell(1).ch = 'Z';
+                setChar(buf.screen[0], 1, 'Z');
                 buf.setCursor(1, 0);
                 buf.insertText("A");
                 assertAll(
@@ -680,7 +711,7 @@ class TerminalBufferTest {
             void insertText_truncatesTextToAvailableSlots() {
                 // "XXX  " — only 2 trailing blanks, so 5-char input is truncated to 2
                 buf = new TerminalBuffer(5, 1, 10);
-                for (int c = 0; c < 3; c++) buf.screen[0].getCell(c).ch = 'X';
+                for (int c = 0; c < 3; c++) setChar(buf.screen[0], c, 'X');
                 buf.setCursor(0, 0);
                 buf.insertText("ABCDE");
                 assertAll(
@@ -693,9 +724,9 @@ class TerminalBufferTest {
             @Test
             void insertText_screenFull_noOp() {
                 buf = new TerminalBuffer(3, 1, 10);
-                buf.screen[0].getCell(0).ch = 'A';
-                buf.screen[0].getCell(1).ch = 'B';
-                buf.screen[0].getCell(2).ch = 'C';
+                setChar(buf.screen[0], 0, 'A');
+                setChar(buf.screen[0], 1, 'B');
+                setChar(buf.screen[0], 2, 'C');
                 buf.setCursor(0, 0);
                 buf.insertText("X");
                 assertEquals("ABC", buf.getScreenLine(0));
@@ -713,7 +744,7 @@ class TerminalBufferTest {
             void insertText_cursorCanAdvanceToNextRow() {
                 buf = new TerminalBuffer(3, 2, 10);
                 // row 0: "X  ", row 1: "   " → flat: X at 0, blanks 1-5
-                buf.screen[0].getCell(0).ch = 'X';
+                setChar(buf.screen[0], 0, 'X');
                 buf.setCursor(1, 0);
                 buf.insertText("ABCDE");
                 assertAll(
@@ -745,6 +776,7 @@ class TerminalBufferTest {
                 Cell existing = buf.screen[0].getCell(0);
                 existing.ch = 'Z';
                 existing.fg = Color.YELLOW;
+                buf.screen[0].setCell(0, existing);
                 buf.setForeground(Color.RED);
                 buf.setCursor(0, 0);
                 buf.insertText("A");
@@ -757,8 +789,8 @@ class TerminalBufferTest {
             @Test
             void insertText_lastNonBlankFollowedByBlanks_correctSlotCount() {
                 buf = new TerminalBuffer(5, 1, 10);
-                buf.screen[0].getCell(0).ch = 'A';
-                buf.screen[0].getCell(1).ch = 'B';
+                setChar(buf.screen[0], 0, 'A');
+                setChar(buf.screen[0], 1, 'B');
                 // cols 2,3,4 blank → 3 available slots
                 buf.setCursor(2, 0);
                 buf.insertText("XYZ");  // exactly fits
@@ -769,13 +801,32 @@ class TerminalBufferTest {
                 );
             }
 
+            @Test
+            void insertText_contentOnLaterRow_onlyBlanksAfterItAreSlots() {
+                buf = new TerminalBuffer(4, 3, 10);
+                setChar(buf.screen[0], 0, 'A');
+                buf.setBackground(Color.RED);
+                buf.setCursor(1, 1);
+                buf.writeText(" ");  // styled blank: content, not a free slot
+                buf.resetAttributes();
+                // free slots are row 1 cols 2-3 and all of row 2: 6
+                buf.setCursor(1, 0);
+                buf.insertText("1234567");
+                assertAll(
+                        () -> assertEquals("A123", buf.getScreenLine(0)),
+                        () -> assertEquals("456 ", buf.getScreenLine(1)),
+                        () -> assertEquals("    ", buf.getScreenLine(2)),
+                        () -> assertEquals(Color.RED, buf.getScreenAttributes(3, 2).bg(), "styled blank shifted by 6")
+                );
+            }
+
             @Test
             void insertText_nonBlankAtEnd_zeroAvailableSlots() {
                 buf = new TerminalBuffer(5, 1, 10);
-                buf.screen[0].getCell(0).ch = 'A';
-                buf.screen[0].getCell(1).ch = 'B';
+                setChar(buf.screen[0], 0, 'A');
+                setChar(buf.screen[0], 1, 'B');
                 // cols 2,3 blank (middle), col 4 = 'C' (non-blank at end)
-                buf.screen[0].getCell(4).ch = 'C';
+                setChar(buf.screen[0], 4, 'C');
                 buf.setCursor(2, 0);
                 buf.insertText("X");
                 assertAll(
@@ -789,12 +840,221 @@ class TerminalBufferTest {
             }
         }
 
+        @Nested
+        class TextRangeOverloadsTest {
+
+            @Test
+            void writeText_charSequenceRange_writesOnlyTheRange() {
+                buf.writeText(new StringBuilder("xxABCxx"), 2, 5);
+                assertAll(
+                        () -> assertEquals("ABC  ", buf.getScreenLine(0)),
+                        () -> assertEquals(3, buf.getCursorCol())
+                );
+            }
+
+            @Test
+            void writeText_charArrayRange_writesOnlyTheRange() {
+                buf.writeText("xxABCxx".toCharArray(), 2, 3);
+                assertEquals("ABC  ", buf.getScreenLine(0));
+            }
+
+            @Test
+            void writeText_charArraySurrogatePair_decodedAsOneWideCodePoint() {
+                char[] chars = ("A" + new String(Character.toChars(0x1F600))).toCharArray();
+                buf.writeText(chars, 0, chars.length);
+                assertAll(
+                        () -> assertEquals(0x1F600, buf.getScreenChar(1, 0)),
+                        () -> assertEquals(CellType.WIDE, buf.screen[0].getCell(1).type),
+                        () -> assertEquals(3, buf.getCursorCol())
+                );
+            }
+
+            @Test
+            void writeText_rangeEndsBetweenSurrogates_highSurrogateKeptUnpaired() {
+                String emoji = new String(Character.toChars(0x1F600));
+                buf.writeText("A" + emoji, 0, 2);
+                assertEquals(emoji.charAt(0), buf.getScreenChar(1, 0));
+            }
+
+            @Test
+            void writeText_rangeOverloads_matchStringOverload() {
+                String text = "a\u4E2Db\uD83D\uDE00c";
+                TerminalBuffer expected = new TerminalBuffer(8, 1, 0);
+                expected.writeText(text);
+                TerminalBuffer viaSequence = new TerminalBuffer(8, 1, 0);
+                viaSequence.writeText(new StringBuilder(text), 0, text.length());
+                TerminalBuffer viaArray = new TerminalBuffer(8, 1, 0);
+                viaArray.writeText(text.toCharArray(), 0, text.length());
+                assertAll(
+                        () -> assertEquals(expected.getScreenContent(), viaSequence.getScreenContent()),
+                        () -> assertEquals(expected.getScreenContent(), viaArray.getScreenContent()),
+                        () -> assertEquals(expected.getCursorCol(), viaArray.getCursorCol())
+                );
+            }
+
+            @Test
+            void writeText_invalidRange_throwsIndexOutOfBounds() {
+                assertAll(
+                        () -> assertThrows(IndexOutOfBoundsException.class, () -> buf.writeText("abc", 2, 4)),
+                        () -> assertThrows(IndexOutOfBoundsException.class, () -> buf.writeText("abc".toCharArray(), -1, 2)),
+                        () -> assertThrows(IndexOutOfBoundsException.class, () -> buf.insertText("abc".toCharArray(), 1, 3))
+                );
+            }
+
+            @Test
+            void insertText_charSequenceRange_insertsOnlyTheRange() {
+                buf.writeText("Z");
+                buf.setCursor(0, 0);
+                buf.insertText(new StringBuilder("xxABxx"), 2, 4);
+                assertAll(
+                        () -> assertEquals("ABZ  ", buf.getScreenLine(0)),
+                        () -> assertEquals(2, buf.getCursorCol())
+                );
+            }
+
+            @Test
+            void insertText_charArrayRange_insertsOnlyTheRange() {
+                buf.writeText("Z");
+                buf.setCursor(0, 0);
+                buf.insertText("xxABxx".toCharArray(), 2, 2);
+                assertEquals("ABZ  ", buf.getScreenLine(0));
+            }
+
+            @Test
+            void insertText_charArraySurrogatePair_costsTwoSlots() {
+                char[] chars = new String(Character.toChars(0x1F600)).toCharArray();
+                buf.insertText(chars, 0, chars.length);
+                assertAll(
+                        () -> assertEquals(0x1F600, buf.getScreenChar(0, 0)),
+                        () -> assertEquals(CellType.CONTINUATION, buf.screen[0].getCell(1).type),
+                        () -> assertEquals(2, buf.getCursorCol())
+                );
+            }
+        }
+
+        @Nested
+        class WriteBytesTest {
+
+            private byte[] utf8(String text) {
+                return text.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            }
+
+            @Test
+            void writeBytes_ascii_writesCellsAndAdvancesCursor() {
+                buf.writeBytes(utf8("ABC"), 0, 3);
+                assertAll(
+                        () -> assertEquals("ABC  ", buf.getScreenLine(0)),
+                        () -> assertEquals(3, buf.getCursorCol())
+                );
+            }
+
+            @Test
+            void writeBytes_asciiRunHitsRightEdge_restDropped() {
+                buf.setCursor(3, 0);
+                buf.writeBytes(utf8("XYZ"), 0, 3);
+                assertAll(
+                        () -> assertEquals("   XY", buf.getScreenLine(0)),
+                        () -> assertEquals(4, buf.getCursorCol())
+                );
+            }
+
+            @Test
+            void writeBytes_multiByteSequenceSplitAcrossCalls_decodedOnce() {
+                byte[] bytes = utf8("A\u4E2DB");
+                buf.writeBytes(bytes, 0, 2);
+                buf.writeBytes(bytes, 2, 1);
+                buf.writeBytes(bytes, 3, bytes.length - 3);
+                assertAll(
+                        () -> assertEquals("A\u4E2DB ", buf.getScreenLine(0)),
+                        () -> assertEquals(4, buf.getCursorCol())
+                );
+            }
+
+            @Test
+            void writeBytes_byteBuffer_consumesBufferAndWrites() {
+                java.nio.ByteBuffer src = java.nio.ByteBuffer.wrap(utf8("xxHi"));
+                src.position(2);
+                buf.writeBytes(src);
+                assertAll(
+                        () -> assertEquals("Hi   ", buf.getScreenLine(0)),
+                        () -> assertFalse(src.hasRemaining())
+                );
+            }
+
+            @Test
+            void writeBytes_directByteBuffer_sameResultAsHeap() {
+                byte[] bytes = utf8("a\u00E9\u4E2D");
+                java.nio.ByteBuffer direct = java.nio.ByteBuffer.allocateDirect(bytes.length);
+                direct.put(bytes).flip();
+                buf.writeBytes(direct);
+                assertEquals("a\u00E9\u4E2D ", buf.getScreenLine(0));
+            }
+
+            @Test
+            void writeBytes_malformedByte_writtenAsReplacementChar() {
+                buf.writeBytes(new byte[] {'A', (byte) 0xFF, 'B'}, 0, 3);
+                assertEquals("A\uFFFDB  ", buf.getScreenLine(0));
+            }
+
+            @Test
+            void writeBytes_stoppedAtEdge_decoderStateStillTracksTrailingBytes() {
+                // the 3-byte sequence is cut after its first byte; after the edge stop the rest of the call
+                // must still feed the decoder so the next call completes the character instead of garbling it
+                byte[] bytes = utf8("ABCDEFG\u4E2D");
+                buf.writeBytes(bytes, 0, bytes.length - 2);
+                buf.setCursor(0, 1);
+                buf.writeBytes(bytes, bytes.length - 2, 2);
+                assertEquals("\u4E2D   ", buf.getScreenLine(1));
+            }
+
+            @Test
+            void writeBytes_asciiRunOverWidePair_blanksOrphanedContinuationLikeWriteText() {
+                TerminalBuffer viaText = new TerminalBuffer(6, 1, 0);
+                TerminalBuffer viaBytes = new TerminalBuffer(6, 1, 0);
+                for (TerminalBuffer b : new TerminalBuffer[] {viaText, viaBytes}) {
+                    b.writeText("\u4E2D\u5927");
+                    b.setCursor(0, 0);
+                }
+                viaText.writeText("abc");
+                viaBytes.writeBytes(utf8("abc"), 0, 3);
+                assertAll(
+                        () -> assertEquals(viaText.getScreenLine(0), viaBytes.getScreenLine(0)),
+                        () -> assertEquals(CellType.NORMAL, viaBytes.screen[0].getCell(3).type),
+                        () -> assertEquals(viaText.getCursorCol(), viaBytes.getCursorCol())
+                );
+            }
+
+            @Test
+            void writeBytes_randomText_matchesWriteTextOfDecodedString() {
+                java.util.Random random = new java.util.Random(7);
+                int[] alphabet = {'a', 'b', ' ', 0xE9, 0x4E2D, 0x1F600, 0x0301};
+                for (int round = 0; round < 200; round++) {
+                    StringBuilder sb = new StringBuilder();
+                    int len = random.nextInt(12);
+                    for (int i = 0; i < len; i++) sb.appendCodePoint(alphabet[random.nextInt(alphabet.length)]);
+                    TerminalBuffer viaText = new TerminalBuffer(9, 1, 0);
+                    TerminalBuffer viaBytes = new TerminalBuffer(9, 1, 0);
+                    String prefix = random.nextBoolean() ? "\u4E2D\u4E2Dxy" : "";
+                    int col = random.nextInt(9);
+                    for (TerminalBuffer b : new TerminalBuffer[] {viaText, viaBytes}) {
+                        b.writeText(prefix);
+                        b.setCursor(col, 0);
+                    }
+                    viaText.writeText(sb.toString());
+                    byte[] bytes = utf8(sb.toString());
+                    viaBytes.writeBytes(bytes, 0, bytes.length);
+                    assertEquals(viaText.getScreenLine(0), viaBytes.getScreenLine(0), "input " + sb);
+                    assertEquals(viaText.getCursorCol(), viaBytes.getCursorCol(), "input " + sb);
+                }
+            }
+        }
+
         @Nested
         class FillLineTest {
 
             @Test
             void fillLine_nullArg_fillsRowWithBlankCells() {
-                buf.screen[1].getCell(0).ch = 'X';
+                setChar(buf.screen[1], 0, 'X');
                 buf.setCursor(0, 1);
                 buf.fillLine(null);
                 assertEquals("     ", buf.getScreenLine(1));
@@ -823,7 +1083,7 @@ class TerminalBufferTest {
 
             @Test
             void fillLine_nullArg_allAttributesAreDefault() {
-                buf.screen[0].getCell(0).fg = Color.RED;
+                setForeground(buf.screen[0], 0, Color.RED);
                 buf.setCursor(0, 0);
                 buf.fillLine(null);
 
@@ -849,7 +1109,7 @@ class TerminalBufferTest {
 
             @Test
             void fillLine_overwritesExistingContent() {
-                buf.screen[0].getCell(2).ch = 'Q';
+                setChar(buf.screen[0], 2, 'Q');
                 buf.setCursor(0, 0);
                 buf.fillLine((int) 'Z');
                 assertEquals("ZZZZZ", buf.getScreenLine(0));
@@ -952,11 +1212,38 @@ class TerminalBufferTest {
                 buf.insertEmptyLineAtBottom();
 
                 // Mutate what is now screen[0] (was screen[1] before shift)
-                buf.screen[0].getCell(0).ch = 'X';
+                setChar(buf.screen[0], 0, 'X');
 
                 assertEquals("ORIG ", buf.scrollback.get(0).toString());
             }
 
+            @Test
+            void insertEmptyLineAtBottom_movesTopLineIntoScrollbackWithoutCopy() {
+                TerminalBuffer buf = new TerminalBuffer(5, 3, 10);
+                Line top = buf.screen[0];
+
+                buf.insertEmptyLineAtBottom();
+
+                assertSame(top, buf.scrollback.get(0));
+            }
+
+            @Test
+            void insertEmptyLineAtBottom_fullScrollback_reusesEvictedLineAsBlankBottomRow() {
+                TerminalBuffer buf = new TerminalBuffer(5, 2, 1);
+                buf.setCursor(0, 0);
+                buf.writeText("OLD  ");
+                buf.insertEmptyLineAtBottom(); // scrollback: [OLD]
+                Line oldest = buf.scrollback.get(0);
+
+                buf.insertEmptyLineAtBottom(); // evicts OLD
+
+                assertAll(
+                        () -> assertSame(oldest, buf.screen[1]),
+                        () -> assertEquals("     ", buf.getScreenLine(1)),
+                        () -> assertEquals(1, buf.scrollback.size())
+                );
+            }
+
             @Test
             void insertEmptyLineAtBottom_multipleInserts_scrollbackOrderIsOldestFirst() {
                 TerminalBuffer buf = new TerminalBuffer(5, 2, 10);
@@ -1148,6 +1435,7 @@ class TerminalBufferTest {
                 cell.italic = true;
                 cell.underline = true;
                 cell.ch = 'A';
+                buf.screen[1].setCell(1, cell);
 
                 CellAttributes attrs = buf.getScreenAttributes(1, 1);
                 assertAll(
@@ -1158,6 +1446,50 @@ class TerminalBufferTest {
                         () -> assertTrue(attrs.underline())
                 );
             }
+
+            @Test
+            void getScreenAttributes_sameStyle_returnsSharedInstance() {
+                buf.setForeground(Color.GREEN);
+                buf.setBold(true);
+                buf.writeText("ab");
+                buf.setCursor(0, 2);
+                buf.writeText("c");
+
+                assertSame(buf.getScreenAttributes(0, 0), buf.getScreenAttributes(1, 0));
+                assertSame(buf.getScreenAttributes(0, 0), buf.getScreenAttributes(0, 2));
+                assertSame(buf.getScreenAttributes(4, 1), buf.getScreenAttributes(-1, 0));
+            }
+
+            @Test
+            void getScreenStyleId_equalIdsForEqualStyles_defaultIsZero() {
+                buf.setForeground(Color.RED);
+                buf.writeText("a");
+                buf.setItalic(true);
+                buf.writeText("b");
+                buf.setItalic(false);
+                buf.writeText("c");
+
+                assertEquals(0, buf.getScreenStyleId(3, 0));
+                assertEquals(0, buf.getScreenStyleId(0, 99));
+                assertEquals(buf.getScreenStyleId(0, 0), buf.getScreenStyleId(2, 0));
+                assertNotEquals(buf.getScreenStyleId(0, 0), buf.getScreenStyleId(1, 0));
+                assertSame(buf.getScreenAttributes(1, 0), buf.getStyleAttributes(buf.getScreenStyleId(1, 0)));
+            }
+
+            @Test
+            void getScreenStyleId_continuationCell_returnsWidePartnerStyle() {
+                buf.setBackground(Color.CYAN);
+                buf.writeText("中");
+
+                assertEquals(buf.getScreenStyleId(0, 0), buf.getScreenStyleId(1, 0));
+                assertEquals(Color.CYAN, buf.getStyleAttributes(buf.getScreenStyleId(1, 0)).bg());
+            }
+
+            @Test
+            void getStyleAttributes_unknownId_throws() {
+                assertThrows(IllegalArgumentException.class, () -> buf.getStyleAttributes(-1));
+                assertThrows(IllegalArgumentException.class, () -> buf.getStyleAttributes(1 << 13));
+            }
         }
 
         @Nested
@@ -1258,6 +1590,7 @@ class TerminalBufferTest {
                 Cell cell = buf.screen[0].getCell(0);
                 cell.fg = Color.MAGENTA;
                 cell.bold = true;
+                buf.screen[0].setCell(0, cell);
                 buf.insertEmptyLineAtBottom();
 
                 CellAttributes attrs = buf.getScrollbackAttributes(0, 0);
@@ -1269,14 +1602,26 @@ class TerminalBufferTest {
 
             @Test
             void getScrollbackAttributes_mutatingCellAfterScroll_doesNotCorruptScrollback() {
-                buf.screen[0].getCell(0).fg = Color.YELLOW;
+                setForeground(buf.screen[0], 0, Color.YELLOW);
                 buf.insertEmptyLineAtBottom();
 
                 // Mutate the cell that is now on screen
-                buf.screen[0].getCell(0).fg = Color.CYAN;
+                setForeground(buf.screen[0], 0, Color.CYAN);
 
                 assertEquals(Color.YELLOW, buf.getScrollbackAttributes(0, 0).fg());
             }
+
+            @Test
+            void getScrollbackStyleId_matchesStyleBeforeScroll() {
+                buf.setUnderline(true);
+                buf.writeText("u");
+                int id = buf.getScreenStyleId(0, 0);
+                buf.insertEmptyLineAtBottom();
+
+                assertEquals(id, buf.getScrollbackStyleId(0, 0));
+                assertSame(buf.getStyleAttributes(id), buf.getScrollbackAttributes(0, 0));
+                assertEquals(0, buf.getScrollbackStyleId(0, 5));
+            }
         }
 
         @Nested
@@ -1572,8 +1917,8 @@ class TerminalBufferTest {
                 // WIDE(中)@0, CONT@1 — cursor placed on the CONTINUATION
                 Cell wide = new Cell(0x4E2D, Color.DEFAULT, Color.DEFAULT, false, false, false);
                 wide.type = CellType.WIDE;
-                buf.screen[0].cells[0] = wide;
-                buf.screen[0].cells[1] = Cell.continuation();
+                buf.screen[0].setCell(0, wide);
+                buf.screen[0].setCell(1, Cell.continuation());
                 buf.setCursor(1, 0);
                 buf.writeText("A");
                 // snapped to col 0 before write; 'A' overwrites WIDE and orphaned CONT is blanked
@@ -1590,8 +1935,8 @@ class TerminalBufferTest {
                 // WIDE(中)@0, CONT@1, blanks@2-5 — cursor on CONT
                 Cell wide = new Cell(0x4E2D, Color.DEFAULT, Color.DEFAULT, false, false, false);
                 wide.type = CellType.WIDE;
-                buf.screen[0].cells[0] = wide;
-                buf.screen[0].cells[1] = Cell.continuation();
+                buf.screen[0].setCell(0, wide);
+                buf.screen[0].setCell(1, Cell.continuation());
                 buf.setCursor(1, 0);
                 buf.insertText("A");
                 // snapped to col 0; 'A' inserted there, wide pair shifts right
@@ -1603,7 +1948,7 @@ class TerminalBufferTest {
             void writeText_continuationAtCol0_doesNotMoveToNegativeCol() {
                 // CONTINUATION at col 0 is a corrupted state; snap must clamp at 0, not go to -1
                 TerminalBuffer buf = new TerminalBuffer(4, 1, 10);
-                buf.screen[0].cells[0] = Cell.continuation();
+                buf.screen[0].setCell(0, Cell.continuation());
                 buf.setCursor(0, 0);
                 assertDoesNotThrow(() -> buf.writeText("A"));
                 assertEquals('A', buf.screen[0].getCell(0).ch);
@@ -1671,8 +2016,8 @@ class TerminalBufferTest {
                 // Manually place: blank@0, WIDE(中)@1, CONT@2, blanks@3-5
                 Cell wide = new Cell(0x4E2D, Color.DEFAULT, Color.DEFAULT, false, false, false);
                 wide.type = CellType.WIDE;
-                buf.screen[0].cells[1] = wide;
-                buf.screen[0].cells[2] = Cell.continuation();
+                buf.screen[0].setCell(1, wide);
+                buf.screen[0].setCell(2, Cell.continuation());
                 buf.setCursor(0, 0);
                 buf.writeText("\u5927"); // 大 — writes WIDE@0, CONT@1; col 1 was WIDE so col 2 gets blanked
                 assertAll(
@@ -1786,8 +2131,8 @@ class TerminalBufferTest {
                 TerminalBuffer buf = new TerminalBuffer(3, 2, 10);
                 Cell wide = new Cell(0x4E2D, Color.DEFAULT, Color.DEFAULT, false, false, false);
                 wide.type = CellType.WIDE;
-                buf.screen[0].cells[0] = wide;
-                buf.screen[0].cells[1] = Cell.continuation();
+                buf.screen[0].setCell(0, wide);
+                buf.screen[0].setCell(1, Cell.continuation());
                 // cursor at (0,0); only "A" can be inserted (guard shrinks budget from 2 to 1)
                 buf.insertText("AB");
                 assertAll(
@@ -2176,4 +2521,1736 @@ class TerminalBufferTest {
             }
         }
     }
+
+    // -------------------------------------------------------------------------
+
+    @Nested
+    class DamageTrackingTest {
+
+        private TerminalBuffer buf;
+
+        @BeforeEach
+        void setUp() {
+            buf = new TerminalBuffer(6, 3, 5);
+            buf.collectDamage();
+        }
+
+        @Test
+        void collectDamage_newBuffer_everyRowFullyDamaged() {
+            TerminalBuffer fresh = new TerminalBuffer(4, 2, 0);
+            assertEquals(List.of(new DirtyRange(0, 0, 4), new DirtyRange(1, 0, 4)), fresh.collectDamage());
+        }
+
+        @Test
+        void collectDamage_resetsAfterCall() {
+            buf.writeText("a");
+            buf.collectDamage();
+            assertEquals(List.of(), buf.collectDamage());
+        }
+
+        @Test
+        void collectDamage_singleCharEcho_oneCell() {
+            buf.setCursor(3, 1);
+            buf.writeText("x");
+            assertEquals(List.of(new DirtyRange(1, 3, 4)), buf.collectDamage());
+        }
+
+        @Test
+        void collectDamage_cursorAndAttributeChanges_noDamage() {
+            buf.setCursor(2, 2);
+            buf.moveCursorLeft(1);
+            buf.setForeground(Color.RED);
+            assertEquals(List.of(), buf.collectDamage());
+        }
+
+        @Test
+        void collectDamage_separateWritesOnOneRow_mergedIntoOneRange() {
+            buf.setCursor(1, 0);
+            buf.writeText("a");
+            buf.setCursor(4, 0);
+            buf.writeText("b");
+            assertEquals(List.of(new DirtyRange(0, 1, 5)), buf.collectDamage());
+        }
+
+        @Test
+        void collectDamage_wideOverwriteOrphanCleanup_includesBlankedCell() {
+            buf.writeText("中");
+            buf.collectDamage();
+            buf.setCursor(0, 0);
+            buf.writeText("a");
+            assertEquals(List.of(new DirtyRange(0, 0, 2)), buf.collectDamage());
+        }
+
+        @Test
+        void collectDamage_writeBytesAsciiRun_coversRun() {
+            buf.setCursor(2, 2);
+            buf.writeBytes("abc".getBytes(java.nio.charset.StandardCharsets.US_ASCII), 0, 3);
+            assertEquals(List.of(new DirtyRange(2, 2, 5)), buf.collectDamage());
+        }
+
+        @Test
+        void collectDamage_insertText_coversShiftedContentOnly() {
+            buf.writeText("abcdef");
+            buf.setCursor(0, 1);
+            buf.writeText("gh");
+            buf.collectDamage();
+
+            buf.setCursor(4, 0);
+            buf.insertText("XY");
+            // "abcdXY" / "efgh" — row 1 changes up to the end of the shifted content
+            assertEquals(List.of(new DirtyRange(0, 4, 6), new DirtyRange(1, 0, 4)), buf.collectDamage());
+        }
+
+        @Test
+        void collectDamage_fillLine_fullRow() {
+            buf.setCursor(0, 2);
+            buf.fillLine((int) '-');
+            assertEquals(List.of(new DirtyRange(2, 0, 6)), buf.collectDamage());
+        }
+
+        @Test
+        void collectDamage_scrollAndClear_everyRow() {
+            List<DirtyRange> all = List.of(new DirtyRange(0, 0, 6), new DirtyRange(1, 0, 6), new DirtyRange(2, 0, 6));
+            buf.insertEmptyLineAtBottom();
+            assertEquals(all, buf.collectDamage());
+            buf.clearScreen();
+            assertEquals(all, buf.collectDamage());
+            buf.clearScreenAndScrollback();
+            assertEquals(all, buf.collectDamage());
+        }
+
+        @Test
+        void collectDamage_resize_everyRowOfNewGeometry() {
+            buf.resize(4, 2);
+            assertEquals(List.of(new DirtyRange(0, 0, 4), new DirtyRange(1, 0, 4)), buf.collectDamage());
+        }
+    }
+
+    // -------------------------------------------------------------------------
+
+    @Nested
+    class SnapshotTest {
+
+        private TerminalBuffer buf;
+
+        @BeforeEach
+        void setUp() {
+            buf = new TerminalBuffer(6, 3, 5);
+            buf.writeText("abc");
+            buf.setCursor(0, 1);
+            buf.writeText("中de");
+        }
+
+        @Test
+        void snapshot_reflectsScreenAndCursor() {
+            ScreenSnapshot snap = buf.snapshot();
+            assertEquals(buf.getScreenContent(), snap.getContent());
+            assertEquals(4, snap.getCursorCol());
+            assertEquals(1, snap.getCursorRow());
+            assertEquals(6, snap.getWidth());
+            assertEquals(3, snap.getHeight());
+        }
+
+        @Test
+        void snapshot_sharesLinesWithoutCopying() {
+            Line row0 = buf.screen[0];
+            ScreenSnapshot snap = buf.snapshot();
+            assertSame(row0, buf.screen[0]);
+            assertTrue(row0.shared);
+            assertEquals("abc   ", snap.getLine(0));
+        }
+
+        @Test
+        void writeText_afterSnapshot_copiesOnlyTheWrittenRow() {
+            Line row0 = buf.screen[0];
+            Line row1 = buf.screen[1];
+            ScreenSnapshot snap = buf.snapshot();
+
+            buf.setCursor(0, 0);
+            buf.writeText("XY");
+
+            assertEquals("abc   ", snap.getLine(0));
+            assertEquals("XYc   ", buf.getScreenLine(0));
+            assertNotSame(row0, buf.screen[0]);
+            assertFalse(buf.screen[0].shared);
+            assertSame(row1, buf.screen[1]);
+        }
+
+        @Test
+        void secondWriteToCopiedRow_doesNotCopyAgain() {
+            buf.snapshot();
+            buf.setCursor(0, 0);
+            buf.writeText("X");
+            Line copied = buf.screen[0];
+            buf.writeText("Y");
+            assertSame(copied, buf.screen[0]);
+        }
+
+        @Test
+        void everyMutation_leavesSnapshotUnchanged() {
+            ScreenSnapshot snap = buf.snapshot();
+            String content = snap.getContent();
+            CellAttributes attrs = snap.getAttributes(0, 1);
+
+            buf.setForeground(Color.RED);
+            buf.setCursor(1, 0);
+            buf.writeBytes(new byte[] {'Q'}, 0, 1);
+            buf.setCursor(0, 1);
+            buf.insertText("ZZ");
+            buf.setCursor(0, 2);
+            buf.fillLine((int) '#');
+            buf.setCursor(1, 1);
+            buf.eraseCells(0, 3);
+            buf.insertEmptyLineAtBottom();
+            buf.insertEmptyLineAtBottom();
+            buf.resize(4, 2);
+            buf.clearScreen();
+
+            assertEquals(content, snap.getContent());
+            assertSame(attrs, snap.getAttributes(0, 1));
+        }
+
+        @Test
+        void insertText_copiesEveryRowItShifts() {
+            ScreenSnapshot snap = buf.snapshot();
+            buf.setCursor(0, 0);
+            buf.insertText("1234");
+
+            assertEquals("abc   ", snap.getLine(0));
+            assertEquals("中de  ", snap.getLine(1));
+            assertEquals("1234ab", buf.getScreenLine(0));
+        }
+
+        @Test
+        void insertEmptyLineAtBottom_fullScrollback_doesNotRecycleSharedLine() {
+            TerminalBuffer small = new TerminalBuffer(3, 1, 1);
+            small.writeText("old");
+            small.insertEmptyLineAtBottom();
+            ScreenSnapshot snap = small.snapshot();
+            Line onScreen = small.screen[0];
+            small.insertEmptyLineAtBottom(); // evicts "old"; onScreen goes to scrollback
+            small.insertEmptyLineAtBottom(); // evicts onScreen, which the snapshot still holds
+
+            assertNotSame(onScreen, small.screen[0]);
+            assertEquals("   ", snap.getLine(0));
+        }
+
+        @Test
+        void snapshot_readConcurrentlyWithWriter_staysConsistent() throws Exception {
+            TerminalBuffer big = new TerminalBuffer(40, 10, 50);
+            big.fillLine((int) 'a');
+            ScreenSnapshot snap = big.snapshot();
+            String expected = snap.getContent();
+
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    big.setCursor(i % 40, i % 10);
+                    big.writeText("w" + i);
+                    if (i % 50 == 0) {
+                        big.insertEmptyLineAtBottom();
+                    }
+                }
+            });
+            writer.start();
+            for (int i = 0; i < 200; i++) {
+                assertEquals(expected, snap.getContent());
+            }
+            writer.join();
+            assertEquals(expected, snap.getContent());
+        }
+    }
+
+    // -------------------------------------------------------------------------
+
+    @Nested
+    class ConcurrentReadTest {
+
+        private static final int WRITES = 20_000;
+
+        /** Runs {@code writer} on its own thread while {@code reader} runs repeatedly on two others. */
+        private void runConcurrently(Runnable writer, Runnable reader) throws Exception {
+            AtomicBoolean done = new AtomicBoolean();
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            List<Thread> readers = new ArrayList<>();
+            for (int t = 0; t < 2; t++) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        while (!done.get()) {
+                            reader.run();
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                });
+                readers.add(thread);
+                thread.start();
+            }
+            try {
+                writer.run();
+            } finally {
+                done.set(true);
+                for (Thread thread : readers) {
+                    thread.join();
+                }
+            }
+            if (failure.get() != null) {
+                throw new AssertionError(failure.get());
+            }
+        }
+
+        @Test
+        void getScreenLine_duringFillLine_neverSeesHalfWrittenRow() throws Exception {
+            TerminalBuffer buf = new TerminalBuffer(64, 4, 10);
+            runConcurrently(() -> {
+                for (int i = 0; i < WRITES; i++) {
+                    buf.setCursor(0, i % 4);
+                    buf.fillLine('a' + i % 26);
+                }
+            }, () -> {
+                for (int row = 0; row < 4; row++) {
+                    String line = buf.getScreenLine(row);
+                    assertEquals(String.valueOf(line.charAt(0)).repeat(64), line);
+                }
+            });
+        }
+
+        @Test
+        void cellAndCursorReads_duringWrites_stayConsistent() throws Exception {
+            TerminalBuffer buf = new TerminalBuffer(8, 2, 10);
+            runConcurrently(() -> {
+                for (int i = 0; i < WRITES; i++) {
+                    // Every write leaves the cursor at col 2 on a row whose col 0 and 1 hold the same letter
+                    buf.setCursor(0, i % 2);
+                    buf.setBold(i % 3 == 0);
+                    buf.writeText(String.valueOf((char) ('a' + i % 26)).repeat(2));
+                }
+            }, () -> {
+                int row = buf.getCursorRow();
+                assertTrue(row == 0 || row == 1);
+                int ch = buf.getScreenChar(1, row);
+                assertTrue(ch == ' ' || (ch >= 'a' && ch <= 'z'));
+                assertNotNull(buf.getScreenAttributes(0, row));
+            });
+        }
+
+        @Test
+        void reads_duringResizeAndScrolling_neverThrow() throws Exception {
+            TerminalBuffer buf = new TerminalBuffer(20, 6, 50);
+            runConcurrently(() -> {
+                for (int i = 0; i < WRITES / 10; i++) {
+                    buf.resize(10 + i % 20, 3 + i % 6);
+                    buf.writeText("wide中" + i);
+                    buf.insertEmptyLineAtBottom();
+                }
+            }, () -> {
+                buf.getScreenChar(15, 5);
+                buf.getScreenStyleId(19, 2);
+                buf.getScrollbackChar(12, 40);
+                buf.getScrollbackAttributes(3, 10);
+                buf.getScrollbackLine(25);
+                buf.getScreenContent();
+                buf.getFullContent();
+            });
+        }
+
+        @Test
+        void snapshot_fromReaderThread_whileWriting() throws Exception {
+            TerminalBuffer buf = new TerminalBuffer(32, 4, 10);
+            runConcurrently(() -> {
+                for (int i = 0; i < WRITES; i++) {
+                    buf.setCursor(0, i % 4);
+                    buf.fillLine('a' + i % 26);
+                }
+            }, () -> {
+                ScreenSnapshot snap = buf.snapshot();
+                String first = snap.getLine(0);
+                assertEquals(String.valueOf(first.charAt(0)).repeat(32), first);
+                assertEquals(first, snap.getLine(0));
+            });
+        }
+    }
+
+    // -------------------------------------------------------------------------
+
+    @Nested
+    class SpillScrollbackTest {
+
+        @TempDir
+        Path dir;
+
+        @Test
+        void spilledHistory_unboundedAndReadableByIndex() throws IOException {
+            try (TerminalBuffer buf = new TerminalBuffer(8, 2, 3, dir.resolve("spill"))) {
+                for (int i = 0; i < 1000; i++) {
+                    buf.setCursor(0, 1);
+                    buf.writeText("line" + i);
+                    buf.insertEmptyLineAtBottom();
+                }
+                assertEquals(1000, buf.scrollback.size());
+                assertEquals(997, buf.scrollback.storedSize());
+                assertEquals("line0   ", buf.getScrollbackLine(1));
+                assertEquals('8', buf.getScrollbackChar(6, 999));
+                assertEquals("line500 ", buf.getScrollbackLine(501));
+            }
+        }
+
+        @Test
+        void spilledHistory_matchesHeapOnlyBufferThroughResizes() throws IOException {
+            try (TerminalBuffer spill = new TerminalBuffer(10, 3, 4, dir.resolve("spill"))) {
+                assertSameHistoryAsHeapOnly(spill, 13);
+            }
+        }
+
+        @Test
+        void spilledLines_evictedRingLinesAreRecycled() throws IOException {
+            try (TerminalBuffer buf = new TerminalBuffer(4, 1, 1, dir.resolve("spill"))) {
+                buf.insertEmptyLineAtBottom();
+                Line ringLine = buf.screen[0];
+                buf.insertEmptyLineAtBottom();
+                buf.insertEmptyLineAtBottom();
+                assertSame(ringLine, buf.screen[0]);
+            }
+        }
+    }
+
+    // -------------------------------------------------------------------------
+
+    @Nested
+    class CompressedScrollbackTest {
+
+        @Test
+        void compressedHistory_unboundedAndReadableByIndex() {
+            try (TerminalBuffer buf = TerminalBuffer.withCompressedScrollback(8, 2, 3)) {
+                for (int i = 0; i < 1000; i++) {
+                    buf.setCursor(0, 1);
+                    buf.writeText("line" + i);
+                    buf.insertEmptyLineAtBottom();
+                }
+                assertEquals(1000, buf.scrollback.size());
+                assertEquals(997, buf.scrollback.storedSize());
+                assertEquals("line0   ", buf.getScrollbackLine(1));
+                assertEquals('8', buf.getScrollbackChar(6, 999));
+                assertEquals("line500 ", buf.getScrollbackLine(501));
+            }
+        }
+
+        @Test
+        void compressedHistory_matchesHeapOnlyBufferThroughResizes() {
+            // Small blocks and a one-block cache, so sealing, decoding and eviction all run constantly
+            try (TerminalBuffer compressed = new TerminalBuffer(10, 3, 4, new CompressedLineStore(7, 1))) {
+                assertSameHistoryAsHeapOnly(compressed, 14);
+            }
+        }
+    }
+
+    // -------------------------------------------------------------------------
+
+    @Nested
+    class AutowrapTest {
+
+        private TerminalBuffer wrapping(int width, int height) {
+            TerminalBuffer buf = new TerminalBuffer(width, height, 100);
+            buf.setAutowrap(true);
+            return buf;
+        }
+
+        @Test
+        void autowrap_offByDefault() {
+            assertFalse(new TerminalBuffer(5, 2, 0).isAutowrap());
+        }
+
+        @Test
+        void writeText_pastEdge_continuesOnNextLineAndFlagsSoftWrap() {
+            TerminalBuffer buf = wrapping(5, 3);
+            buf.writeText("abcdefgh");
+            assertAll(
+                    () -> assertEquals("abcde", buf.getScreenLine(0)),
+                    () -> assertEquals("fgh  ", buf.getScreenLine(1)),
+                    () -> assertTrue(buf.screen[0].wrapped),
+                    () -> assertFalse(buf.screen[1].wrapped),
+                    () -> assertEquals(3, buf.getCursorCol()),
+                    () -> assertEquals(1, buf.getCursorRow())
+            );
+        }
+
+        @Test
+        void writeText_fillingLastColumn_defersWrapToNextCharacter() {
+            TerminalBuffer buf = wrapping(5, 3);
+            buf.writeText("abcde");
+            assertEquals(4, buf.getCursorCol());
+            assertEquals(0, buf.getCursorRow());
+            assertFalse(buf.screen[0].wrapped);
+            buf.writeText("f");
+            assertEquals("f    ", buf.getScreenLine(1));
+            assertTrue(buf.screen[0].wrapped);
+        }
+
+        @Test
+        void cursorMove_cancelsPendingWrap() {
+            TerminalBuffer buf = wrapping(5, 3);
+            buf.writeText("abcde");
+            buf.setCursor(4, 0);
+            buf.writeText("X");
+            assertEquals("abcdX", buf.getScreenLine(0));
+            assertEquals("     ", buf.getScreenLine(1));
+        }
+
+        @Test
+        void writeText_wideCharWithOneColumnLeft_wrapsWhole() {
+            TerminalBuffer buf = wrapping(5, 3);
+            buf.writeText("abcd中");
+            assertEquals("abcd ", buf.getScreenLine(0));
+            assertEquals("中   ", buf.getScreenLine(1));
+            assertTrue(buf.screen[0].wrapped);
+        }
+
+        @Test
+        void writeText_wideCharFillingLine_wrapsAfterItsContinuation() {
+            TerminalBuffer buf = wrapping(4, 3);
+            buf.writeText("ab中");
+            assertEquals(3, buf.getCursorCol());
+            buf.writeText("c");
+            assertEquals("ab中", buf.getScreenLine(0));
+            assertEquals("c   ", buf.getScreenLine(1));
+        }
+
+        @Test
+        void writeText_onBottomRow_scrollsAndKeepsFlagInScrollback() {
+            TerminalBuffer buf = wrapping(3, 1);
+            buf.writeText("abcdefg");
+            assertEquals("g  ", buf.getScreenLine(0));
+            assertEquals(2, buf.scrollback.size());
+            assertEquals("abc", buf.getScrollbackLine(0));
+            assertTrue(buf.scrollback.get(0).wrapped);
+            assertTrue(buf.scrollback.get(1).wrapped);
+        }
+
+        @Test
+        void writeBytes_matchesWriteText() {
+            Random random = new Random(16);
+            String[] words = {"ab", "中文", "x", "😀", "wide字", "hello ", "\uFFFD"};
+            TerminalBuffer text = wrapping(7, 3);
+            TerminalBuffer bytes = wrapping(7, 3);
+            for (int i = 0; i < 500; i++) {
+                String word = words[random.nextInt(words.length)];
+                text.writeText(word);
+                byte[] utf8 = word.getBytes(StandardCharsets.UTF_8);
+                bytes.writeBytes(utf8, 0, utf8.length);
+            }
+            assertEquals(text.getFullContent(), bytes.getFullContent());
+            assertEquals(text.getCursorCol(), bytes.getCursorCol());
+            assertEquals(text.getCursorRow(), bytes.getCursorRow());
+        }
+    }
+
+    // -------------------------------------------------------------------------
+
+    @Nested
+    class ReflowResizeTest {
+
+        private TerminalBuffer wrapping(int width, int height) {
+            // Ample scrollback: rewrapping narrower must never push history out of the ring
+            TerminalBuffer buf = new TerminalBuffer(width, height, 1_000_000);
+            buf.setAutowrap(true);
+            return buf;
+        }
+
+        @Test
+        void resize_narrower_rewrapsLogicalLine() {
+            TerminalBuffer buf = wrapping(10, 4);
+            buf.writeText("hello world!");
+            buf.resize(5, 4);
+            assertAll(
+                    () -> assertEquals("hello", buf.getScreenLine(0)),
+                    () -> assertEquals(" worl", buf.getScreenLine(1)),
+                    () -> assertEquals("d!   ", buf.getScreenLine(2)),
+                    () -> assertEquals(2, buf.getCursorCol()),
+                    () -> assertEquals(2, buf.getCursorRow())
+            );
+        }
+
+        @Test
+        void resize_wider_rejoinsSoftWrappedRows() {
+            TerminalBuffer buf = wrapping(4, 3);
+            buf.writeText("abcdefgh");
+            buf.resize(8, 3);
+            assertEquals("abcdefgh", buf.getScreenLine(0));
+            assertEquals("        ", buf.getScreenLine(1));
+            assertEquals(7, buf.getCursorCol());
+            assertEquals(0, buf.getCursorRow());
+        }
+
+        @Test
+        void resize_narrowThenBack_restoresScreen() {
+            TerminalBuffer buf = wrapping(8, 4);
+            buf.writeText("abc中defghij");
+            String before = buf.getScreenContent();
+            buf.resize(3, 4);
+            buf.resize(8, 4);
+            assertEquals(before, buf.getScreenContent());
+        }
+
+        @Test
+        void resize_wideCharWrappedWithOneColumnLeft_rejoinsWithoutItsPadding() {
+            TerminalBuffer buf = wrapping(5, 3);
+            buf.writeText("abcd中x");
+            assertTrue(buf.screen[0].padded);
+            buf.resize(10, 3);
+            assertEquals("abcd中x   ", buf.getScreenLine(0));
+            assertEquals(7, buf.getCursorCol());
+            assertEquals(0, buf.getCursorRow());
+        }
+
+        @Test
+        void resize_wideCharWrappedOverOldText_leavesNoStaleCell() {
+            TerminalBuffer buf = wrapping(5, 3);
+            buf.writeText("ZZZZZ");
+            buf.setCursor(0, 0);
+            buf.writeText("abcd中x");
+            assertEquals("abcd ", buf.getScreenLine(0));
+            buf.resize(10, 3);
+            assertEquals("abcd中x   ", buf.getScreenLine(0));
+        }
+
+        @Test
+        void resize_paddingLeftByReflow_droppedByTheNextOne() {
+            TerminalBuffer buf = wrapping(10, 3);
+            buf.writeText("abcd中x");
+            buf.resize(5, 3);
+            assertEquals("abcd ", buf.getScreenLine(0));
+            buf.resize(10, 3);
+            assertEquals("abcd中x   ", buf.getScreenLine(0));
+        }
+
+        @Test
+        void resize_wider_pullsSoftWrappedLinesBackFromScrollback() {
+            TerminalBuffer buf = wrapping(4, 1);
+            buf.writeText("abcdefgh");
+            assertEquals(1, buf.scrollback.size());
+            buf.resize(8, 1);
+            assertEquals("abcdefgh", buf.getScreenLine(0));
+            assertEquals(0, buf.scrollback.size());
+        }
+
+        @Test
+        void resize_narrower_rowsThatNoLongerFitMoveToScrollback() {
+            TerminalBuffer buf = wrapping(6, 2);
+            buf.writeText("abcdefghij");
+            buf.resize(3, 2);
+            assertAll(
+                    () -> assertEquals(List.of("abc", "def"), List.of(buf.getScrollbackLine(0), buf.getScrollbackLine(1))),
+                    () -> assertEquals("ghi", buf.getScreenLine(0)),
+                    () -> assertEquals("j  ", buf.getScreenLine(1)),
+                    () -> assertEquals(1, buf.getCursorRow())
+            );
+        }
+
+        @Test
+        void resize_blankRowsBelowCursorDroppedBeforeOverflow() {
+            TerminalBuffer buf = wrapping(6, 4);
+            buf.writeText("abcdef");
+            buf.resize(3, 4);
+            assertEquals(0, buf.scrollback.size());
+            assertEquals("abc", buf.getScreenLine(0));
+            assertEquals("def", buf.getScreenLine(1));
+        }
+
+        @Test
+        void resize_historyReflowedByLaterWritesNotReads() {
+            TerminalBuffer buf = wrapping(4, 1);
+            for (int i = 0; i < 600; i++) {
+                buf.writeText("abcdefgh");
+                buf.setCursor(0, 0);
+                buf.insertEmptyLineAtBottom();
+            }
+            assertEquals(1200, buf.scrollback.size());
+            buf.resize(8, 1);
+            // The resize rewrapped the first share: 512 rows into 256
+            assertTrue(buf.scrollback.reflowPending());
+            assertEquals(256 + 688, buf.scrollback.size());
+            assertEquals("abcdefgh", buf.getScrollbackLine(0));
+            assertEquals("abcd    ", buf.getScrollbackLine(256), "read clipped until a write reaches it");
+            assertEquals("abcd    ", buf.getFullContent().lines().skip(256).findFirst().orElseThrow());
+            assertTrue(buf.scrollback.reflowPending(), "reads leave it pending");
+            buf.writeText("");
+            buf.writeText("");
+            assertFalse(buf.scrollback.reflowPending());
+            assertEquals(600, buf.scrollback.size());
+            assertEquals("abcdefgh", buf.getScrollbackLine(599));
+        }
+
+        @Test
+        void resize_heightOnly_keepsPendingWrap() {
+            TerminalBuffer buf = wrapping(4, 2);
+            buf.writeText("abcd");
+            buf.resize(4, 4);
+            buf.writeText("e");
+            assertEquals("abcd", buf.getScreenLine(0));
+            assertEquals("e   ", buf.getScreenLine(1));
+        }
+
+        @Test
+        void resize_narrower_lastCharStillAtEdge_keepsPendingWrap() {
+            TerminalBuffer buf = wrapping(4, 3);
+            buf.writeText("abcdefgh");
+            buf.resize(2, 3);
+            buf.writeText("X");
+            assertEquals(List.of("cd", "ef", "gh", "X "), List.of(buf.getScrollbackLine(1), buf.getScreenLine(0),
+                    buf.getScreenLine(1), buf.getScreenLine(2)));
+        }
+
+        @Test
+        void resize_wider_pendingWrapBecomesCursorAfterLastChar() {
+            TerminalBuffer buf = wrapping(4, 3);
+            buf.writeText("abcdefgh");
+            buf.resize(6, 3);
+            assertFalse(buf.wrapPending);
+            buf.writeText("X");
+            assertEquals("abcdef", buf.getScreenLine(0));
+            assertEquals("ghX   ", buf.getScreenLine(1));
+        }
+
+        @Test
+        void resize_wideCharAtEdge_keepsPendingWrap() {
+            TerminalBuffer buf = wrapping(4, 3);
+            buf.writeText("ab中");
+            buf.resize(4, 4);
+            buf.writeText("X");
+            assertEquals("ab中", buf.getScreenLine(0));
+            assertEquals("X   ", buf.getScreenLine(1));
+        }
+
+        @Test
+        void resize_withoutAutowrap_stillTruncates() {
+            TerminalBuffer buf = wrapping(4, 2);
+            buf.writeText("abcdef");
+            buf.setAutowrap(false);
+            buf.resize(2, 2);
+            assertEquals("ab", buf.getScreenLine(0));
+            assertEquals("ef", buf.getScreenLine(1));
+        }
+
+        @Test
+        void resize_randomReflows_preserveTextAndCursorCharacter() {
+            Random random = new Random(1616);
+            String[] words = {"ab", "中文", "x", "😀", "wide字", "hello", "  "};
+            TerminalBuffer buf = wrapping(10, 4);
+            for (int step = 0; step < 2000; step++) {
+                int op = random.nextInt(100);
+                if (op < 60) {
+                    buf.writeText(words[random.nextInt(words.length)]);
+                } else if (op < 75) {
+                    buf.setCursor(0, buf.height - 1);
+                    buf.insertEmptyLineAtBottom();
+                } else {
+                    List<String> before = logicalLines(buf);
+                    // With a wrap pending the cursor is after its character: on it at the edge, else one past
+                    boolean pending = buf.wrapPending;
+                    int cursorChar = buf.getScreenChar(buf.getCursorCol(), buf.getCursorRow());
+                    int newHeight = 1 + random.nextInt(5);
+                    // A height decrease moves the top rows out first; the cursor row may go with them
+                    boolean cursorKept = buf.getCursorRow() >= buf.height - newHeight;
+                    buf.resize(2 + random.nextInt(14), newHeight);
+                    assertEquals(before, logicalLines(buf), "step " + step);
+                    if (cursorKept && cursorChar != ' ') {
+                        int col = pending && !buf.wrapPending ? buf.getCursorCol() - 1 : buf.getCursorCol();
+                        assertEquals(cursorChar, buf.getScreenChar(col, buf.getCursorRow()), "step " + step);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Text of each logical line of the whole history, without trailing empty lines. The blank padding cell
+         * of a padded row and the blanks after a logical line's text are not text; every other space is.
+         */
+        private List<String> logicalLines(TerminalBuffer buf) {
+            buf.scrollback.settle();
+            List<Line> rows = new ArrayList<>();
+            for (int i = 0; i < buf.scrollback.size(); i++) {
+                rows.add(buf.scrollback.get(i));
+            }
+            rows.addAll(List.of(buf.screen));
+            List<String> lines = new ArrayList<>();
+            StringBuilder current = new StringBuilder();
+            for (Line row : rows) {
+                String text = row.toString();
+                if (row.wrapped && row.padded && row.cells[row.width - 1] == Cell.BLANK) {
+                    text = text.substring(0, text.length() - 1);
+                }
+                current.append(text);
+                if (!row.wrapped) {
+                    lines.add(current.toString().replaceAll(" +$", ""));
+                    current.setLength(0);
+                }
+            }
+            if (current.length() > 0) {
+                lines.add(current.toString().replaceAll(" +$", ""));
+            }
+            while (!lines.isEmpty() && lines.get(lines.size() - 1).isEmpty()) {
+                lines.remove(lines.size() - 1);
+            }
+            return lines;
+        }
+    }
+
+    // -------------------------------------------------------------------------
+
+    @Nested
+    class SearchTest {
+
+        /** Writes {@code rows} on the bottom line one after another, scrolling after each. */
+        private void scrollIn(TerminalBuffer buf, String... rows) {
+            for (String row : rows) {
+                buf.setCursor(0, buf.height - 1);
+                buf.writeText(row);
+                buf.insertEmptyLineAtBottom();
+            }
+        }
+
+        @Test
+        void search_findsMatchesInScrollbackAndScreen() {
+            TerminalBuffer buf = new TerminalBuffer(10, 1, 100);
+            scrollIn(buf, "error 1", "ok", "an error");
+            buf.setCursor(0, 0);
+            buf.writeText("error!");
+            assertEquals(List.of(new SearchHit(0, 0), new SearchHit(2, 3), new SearchHit(3, 0)), buf.search("error"));
+        }
+
+        @Test
+        void search_emptyOrAbsentQuery_returnsNoHits() {
+            TerminalBuffer buf = new TerminalBuffer(10, 1, 100);
+            scrollIn(buf, "hello");
+            assertTrue(buf.search("").isEmpty());
+            assertTrue(buf.search("help").isEmpty());
+        }
+
+        @Test
+        void search_shortQuery_checksEveryLine() {
+            TerminalBuffer buf = new TerminalBuffer(10, 1, 100);
+            scrollIn(buf, "xaxa", "b", "ax");
+            assertEquals(List.of(new SearchHit(0, 1), new SearchHit(2, 0)), buf.search("ax"));
+        }
+
+        @Test
+        void search_overlappingMatches_allReported() {
+            TerminalBuffer buf = new TerminalBuffer(10, 1, 100);
+            scrollIn(buf, "aaaaa");
+            assertEquals(List.of(new SearchHit(0, 0), new SearchHit(0, 1), new SearchHit(0, 2)), buf.search("aaa"));
+        }
+
+        @Test
+        void search_afterWideCharacter_reportsCellColumn() {
+            TerminalBuffer buf = new TerminalBuffer(10, 1, 100);
+            scrollIn(buf, "中文abc");
+            assertEquals(List.of(new SearchHit(0, 4)), buf.search("abc"));
+            assertEquals(List.of(new SearchHit(0, 2)), buf.search("文ab"));
+        }
+
+        @Test
+        void search_indexFollowsEviction() {
+            TerminalBuffer buf = new TerminalBuffer(10, 1, 3);
+            scrollIn(buf, "line 0", "line 1");
+            assertEquals(2, buf.search("line").size());
+            scrollIn(buf, "line 2", "line 3", "line 4");
+            assertEquals(List.of(new SearchHit(0, 0), new SearchHit(1, 0), new SearchHit(2, 0)), buf.search("line"));
+            assertEquals(List.of(new SearchHit(2, 0)), buf.search("line 4"));
+            assertTrue(buf.search("line 1").isEmpty());
+        }
+
+        @Test
+        void search_afterReflow_findsRewrappedText() {
+            TerminalBuffer buf = new TerminalBuffer(4, 1, 100);
+            buf.setAutowrap(true);
+            buf.writeText("abcdefgh");
+            assertTrue(buf.search("cde").isEmpty(), "the match spans a soft wrap");
+            buf.resize(8, 1);
+            assertEquals(List.of(new SearchHit(0, 2)), buf.search("cde"));
+        }
+
+        @Test
+        void search_afterReflow_indexRebuiltByLaterWrites() {
+            TerminalBuffer buf = new TerminalBuffer(4, 1, 2000);
+            buf.setAutowrap(true);
+            for (int i = 0; i < 1000; i++) {
+                scrollIn(buf, i == 900 ? "xyz" : "ab");
+            }
+            buf.resize(5, 1);
+            assertTrue(buf.scrollback.behind());
+            assertEquals(List.of(new SearchHit(900, 0)), buf.search("xyz"));
+            // The resize and the next write rewrap the history, the two after that index it
+            buf.writeText("q");
+            buf.writeText("q");
+            assertTrue(buf.scrollback.behind(), "one write indexes a bounded number of lines");
+            assertEquals(List.of(new SearchHit(900, 0)), buf.search("xyz"));
+            buf.writeText("q");
+            assertFalse(buf.scrollback.behind());
+            assertEquals(List.of(new SearchHit(900, 0)), buf.search("xyz"));
+        }
+
+        @Test
+        void search_random_matchesScanOfFullContent() {
+            Random random = new Random(17);
+            String[] words = {"ab", "abc", "bca", "cab", " ", "  ", "c"};
+            List<TerminalBuffer> buffers = List.of(new TerminalBuffer(12, 3, 40), TerminalBuffer.withCompressedScrollback(12, 3, 10));
+            for (TerminalBuffer buf : buffers) {
+                for (int step = 0; step < 3000; step++) {
+                    int op = random.nextInt(100);
+                    if (op < 55) {
+                        buf.setCursor(random.nextInt(buf.width), random.nextInt(buf.height));
+                        buf.writeText(words[random.nextInt(words.length)] + words[random.nextInt(words.length)]);
+                    } else if (op < 85) {
+                        buf.insertEmptyLineAtBottom();
+                    } else if (op < 88) {
+                        buf.setAutowrap(random.nextBoolean());
+                        buf.resize(4 + random.nextInt(12), 1 + random.nextInt(4));
+                    } else if (op < 89) {
+                        buf.clearScreenAndScrollback();
+                    } else {
+                        String query = words[random.nextInt(words.length)] + words[random.nextInt(words.length)];
+                        assertEquals(scan(buf.getFullContent(), query), buf.search(query), "step " + step + " query '" + query + "'");
+                    }
+                }
+            }
+        }
+
+        private List<SearchHit> scan(String content, String query) {
+            List<SearchHit> hits = new ArrayList<>();
+            String[] lines = content.split("\n", -1);
+            for (int row = 0; row < lines.length - 1; row++) {
+                for (int col = lines[row].indexOf(query); col >= 0; col = lines[row].indexOf(query, col + 1)) {
+                    hits.add(new SearchHit(row, col));
+                }
+            }
+            return hits;
+        }
+    }
+
+    // -------------------------------------------------------------------------
+
+    @Nested
+    class FindTest {
+
+        private TerminalBuffer withHistory(String... rows) {
+            TerminalBuffer buf = new TerminalBuffer(10, 1, 100);
+            for (String row : rows) {
+                buf.setCursor(0, 0);
+                buf.writeText(row);
+                buf.insertEmptyLineAtBottom();
+            }
+            return buf;
+        }
+
+        @Test
+        void findAll_matchesInScrollbackAndScreen() {
+            TerminalBuffer buf = withHistory("id=12", "none", "x id=7");
+            buf.setCursor(0, 0);
+            buf.writeText("id=345");
+            assertEquals(List.of(new MatchRange(0, 0, 5), new MatchRange(2, 2, 6), new MatchRange(3, 0, 6)),
+                    buf.findAll(Pattern.compile("id=\\d+")));
+        }
+
+        @Test
+        void findAll_anchorsAtLineBoundaries() {
+            TerminalBuffer buf = withHistory("ab", "cab");
+            assertEquals(List.of(new MatchRange(0, 0, 2)), buf.findAll(Pattern.compile("^ab")));
+            assertEquals(List.of(new MatchRange(0, 8, 10), new MatchRange(1, 8, 10), new MatchRange(2, 8, 10)),
+                    buf.findAll(Pattern.compile("  $")));
+        }
+
+        @Test
+        void findAll_wideCharacters_coverBothCells() {
+            TerminalBuffer buf = withHistory("a中文b😀c");
+            assertAll(
+                    () -> assertEquals(List.of(new MatchRange(0, 1, 5)), buf.findAll(Pattern.compile("中文"))),
+                    () -> assertEquals(List.of(new MatchRange(0, 5, 6)), buf.findAll(Pattern.compile("b"))),
+                    () -> assertEquals(List.of(new MatchRange(0, 6, 9)), buf.findAll(Pattern.compile("😀c")))
+            );
+        }
+
+        @Test
+        void findAll_readsScrollbackStoreWithoutMaterializingHistory() {
+            TerminalBuffer buf = TerminalBuffer.withCompressedScrollback(10, 1, 5);
+            for (int i = 0; i < 1000; i++) {
+                buf.setCursor(0, 0);
+                buf.writeText("n" + i);
+                buf.insertEmptyLineAtBottom();
+            }
+            assertEquals(List.of(new MatchRange(777, 0, 4)), buf.findAll(Pattern.compile("n777")));
+        }
+
+        @Test
+        void findNext_walksMatchesInOrder() {
+            TerminalBuffer buf = withHistory("ab ab", "ab");
+            Pattern ab = Pattern.compile("ab");
+            MatchRange first = buf.findNext(ab, 0, 0);
+            MatchRange second = buf.findNext(ab, first.row(), first.startCol() + 1);
+            MatchRange third = buf.findNext(ab, second.row(), second.startCol() + 1);
+            assertEquals(new MatchRange(0, 0, 2), first);
+            assertEquals(new MatchRange(0, 3, 5), second);
+            assertEquals(new MatchRange(1, 0, 2), third);
+            assertNull(buf.findNext(ab, third.row(), third.startCol() + 1));
+        }
+
+        @Test
+        void findNext_fromInsideWideCharacter_skipsIt() {
+            TerminalBuffer buf = withHistory("中中");
+            assertEquals(new MatchRange(0, 2, 4), buf.findNext(Pattern.compile("中"), 0, 1));
+        }
+
+        @Test
+        void findNext_outOfRangeStart() {
+            TerminalBuffer buf = withHistory("ab");
+            assertEquals(new MatchRange(0, 0, 2), buf.findNext(Pattern.compile("ab"), -5, -5));
+            assertNull(buf.findNext(Pattern.compile("ab"), 2, 0));
+            assertNull(buf.findNext(Pattern.compile("ab"), 0, 50));
+        }
+
+        @Test
+        void findAll_random_matchesRegexOverFullContent() {
+            Random random = new Random(18);
+            String[] words = {"ab", "a", "中", "b😀", "  ", "ba"};
+            Pattern[] patterns = {Pattern.compile("ab"), Pattern.compile("a.b"), Pattern.compile("中+"),
+                    Pattern.compile("😀|b "), Pattern.compile("^\\S+"), Pattern.compile("b*$"), Pattern.compile("")};
+            TerminalBuffer buf = new TerminalBuffer(9, 3, 30);
+            for (int step = 0; step < 2000; step++) {
+                int op = random.nextInt(100);
+                if (op < 60) {
+                    buf.setCursor(random.nextInt(buf.width), random.nextInt(buf.height));
+                    buf.writeText(words[random.nextInt(words.length)] + words[random.nextInt(words.length)]);
+                } else if (op < 90) {
+                    buf.insertEmptyLineAtBottom();
+                } else if (op < 93) {
+                    buf.resize(3 + random.nextInt(10), 1 + random.nextInt(4));
+                } else {
+                    Pattern pattern = patterns[random.nextInt(patterns.length)];
+                    assertEquals(regexOverLines(buf, pattern), buf.findAll(pattern), "step " + step + " " + pattern);
+                }
+            }
+        }
+
+        private List<MatchRange> regexOverLines(TerminalBuffer buf, Pattern pattern) {
+            List<MatchRange> matches = new ArrayList<>();
+            String[] lines = buf.getFullContent().split("\\n", -1);
+            int history = buf.scrollback.size();
+            for (int row = 0; row < lines.length - 1; row++) {
+                Line line = row < history ? buf.scrollback.get(row) : buf.screen[row - history];
+                Matcher m = pattern.matcher(lines[row]);
+                while (m.find()) {
+                    matches.add(new MatchRange(row, column(line, lines[row], m.start()), column(line, lines[row], m.end())));
+                }
+            }
+            return matches;
+        }
+
+        /** Cell column of string index {@code index} of {@code text}, the text of {@code line}. */
+        private int column(Line line, String text, int index) {
+            if (index > 0 && index < text.length() && Character.isLowSurrogate(text.charAt(index))) {
+                index--; // inside a surrogate pair: the column of its code point
+            }
+            int codePoints = text.codePointCount(0, index);
+            int col = 0;
+            while (col < line.width && (codePoints > 0 || Cell.isContinuation(line.cells[col]))) {
+                if (!Cell.isContinuation(line.cells[col])) {
+                    codePoints--;
+                }
+                col++;
+            }
+            return col;
+        }
+    }
+
+    // -------------------------------------------------------------------------
+
+    @Nested
+    class ParallelSearchTest {
+
+        @Test
+        void searchParallel_longHistory_matchesSearch() {
+            TerminalBuffer buf = new TerminalBuffer(12, 3, 5000);
+            for (int i = 0; i < 4000; i++) {
+                buf.setCursor(0, 2);
+                buf.writeText("row " + i + (i % 7 == 0 ? " 中ok" : ""));
+                buf.insertEmptyLineAtBottom();
+            }
+            assertEquals(buf.search("中ok"), buf.searchParallel("中ok", Integer.MAX_VALUE));
+            assertEquals(buf.search("12"), buf.searchParallel("12", Integer.MAX_VALUE));
+            assertEquals(buf.search("12").subList(0, 10), buf.searchParallel("12", 10));
+        }
+
+        @Test
+        void searchParallel_matchContinuesOnSoftWrappedRow_unlikeSearchAndFindAll() {
+            TerminalBuffer buf = new TerminalBuffer(4, 2, 100);
+            buf.setAutowrap(true);
+            buf.writeText("..abcdef");
+            assertTrue(buf.search("abcd").isEmpty());
+            assertTrue(buf.findAll(Pattern.compile("abcd")).isEmpty());
+            assertEquals(List.of(new SearchHit(0, 2)), buf.searchParallel("abcd", 5));
+            assertEquals(List.of(new SearchHit(0, 2)), buf.searchParallel(Pattern.compile("a.*f$"), 5));
+        }
+
+        @Test
+        void searchParallel_queryStartingWithSupplementaryChar_oneHitPerMatch() {
+            TerminalBuffer buf = new TerminalBuffer(10, 2, 10);
+            buf.writeText("x😀bba😀bb");
+            assertEquals(List.of(new SearchHit(0, 1), new SearchHit(0, 6)), buf.searchParallel("😀bb", 5));
+            assertEquals(buf.search("😀bb"), buf.searchParallel("😀bb", 5));
+            assertEquals(List.of(new SearchHit(0, 1)), buf.searchParallel("😀bba", 5));
+        }
+
+        @Test
+        void searchParallel_wideCharWrappedPastPadding_matchesWithoutIt() {
+            TerminalBuffer buf = new TerminalBuffer(3, 2, 10);
+            buf.setAutowrap(true);
+            buf.writeText("ab一");
+            assertTrue(buf.screen[0].padded);
+            assertEquals(List.of(new SearchHit(0, 0)), buf.searchParallel("ab一", 5));
+            assertEquals(List.of(new SearchHit(0, 0)), buf.searchParallel(Pattern.compile("ab一"), 5));
+            assertTrue(buf.searchParallel("ab 一", 5).isEmpty());
+        }
+
+        @Test
+        void searchRows_scrolledAfterSearchStarts_keepTheirNumbersAndEvictedOnesAreGone() {
+            TerminalBuffer buf = new TerminalBuffer(10, 2, 3);
+            for (int i = 0; i < 5; i++) {
+                buf.setCursor(0, 1);
+                buf.writeText("row " + i);
+                buf.insertEmptyLineAtBottom();
+            }
+            List<String> before = buf.getFullContent().lines().toList();
+            TerminalBuffer.SearchRows rows = buf.searchRows();
+            assertEquals(5, rows.count);
+            buf.insertEmptyLineAtBottom();
+            buf.insertEmptyLineAtBottom();
+            rows.read(row -> {
+                assertNull(row.apply(0));
+                assertNull(row.apply(1));
+                for (int i = 2; i < rows.count; i++) {
+                    assertEquals(before.get(i), row.apply(i).toString());
+                }
+            });
+        }
+
+        @Test
+        void searchParallel_storedLines_searchedOneByOne() {
+            TerminalBuffer buf = TerminalBuffer.withCompressedScrollback(4, 1, 10);
+            buf.setAutowrap(true);
+            buf.writeText("x".repeat(100) + "ab");
+            int stored = buf.scrollback.storedSize();
+            assertTrue(stored > 0);
+            // Stored rows lost their soft-wrap flag: six x's only fit across the ring rows, which are still joined
+            List<SearchHit> hits = buf.searchParallel("xxxxxx", 100);
+            assertEquals(new SearchHit(stored, 0), hits.get(0));
+        }
+
+        @Test
+        void searchParallel_regex_findsEachMatchStart() {
+            TerminalBuffer buf = new TerminalBuffer(10, 1, 10);
+            buf.writeText("id=1 id=22");
+            assertEquals(List.of(new SearchHit(0, 0), new SearchHit(0, 5)), buf.searchParallel(Pattern.compile("id=\\d+"), 5));
+        }
+
+        @Test
+        void searchParallel_invalidLimit_throws() {
+            TerminalBuffer buf = new TerminalBuffer(10, 1, 10);
+            assertThrows(IllegalArgumentException.class, () -> buf.searchParallel("a", 0));
+            assertThrows(IllegalArgumentException.class, () -> buf.searchParallel(Pattern.compile("a"), -1));
+            assertTrue(buf.searchParallel("", 3).isEmpty());
+        }
+    }
+
+    // -------------------------------------------------------------------------
+
+    @Nested
+    class ExportTest {
+
+        private TerminalBuffer history(int lines) {
+            TerminalBuffer buf = new TerminalBuffer(30, 3, lines);
+            for (int i = 0; i < lines + 3; i++) {
+                buf.setCursor(0, 2);
+                buf.writeText("line " + i + " 中文 😀 é");
+                buf.insertEmptyLineAtBottom();
+            }
+            return buf;
+        }
+
+        /** Collects whatever is written to it, accepting at most {@code chunk} bytes per write. */
+        private class SlowChannel implements WritableByteChannel {
+            final ByteArrayOutputStream written = new ByteArrayOutputStream();
+            final int chunk;
+
+            SlowChannel(int chunk) {
+                this.chunk = chunk;
+            }
+
+            @Override
+            public int write(ByteBuffer src) {
+                int n = Math.min(chunk, src.remaining());
+                for (int i = 0; i < n; i++) {
+                    written.write(src.get());
+                }
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        }
+
+        @Test
+        void writeFullContent_appendable_matchesGetFullContent() throws IOException {
+            TerminalBuffer buf = history(50);
+            StringBuilder sb = new StringBuilder();
+            buf.writeFullContent(sb);
+            assertEquals(buf.getFullContent(), sb.toString());
+        }
+
+        @Test
+        void writeFullContent_writer_matchesGetFullContent() throws IOException {
+            TerminalBuffer buf = history(50);
+            StringWriter writer = new StringWriter();
+            buf.writeFullContent(writer);
+            assertEquals(buf.getFullContent(), writer.toString());
+        }
+
+        @Test
+        void writeFullContent_channel_encodesEveryLineAcrossBufferRefills() throws IOException {
+            TerminalBuffer buf = history(5000);
+            SlowChannel channel = new SlowChannel(4093);
+            buf.writeFullContent(channel, StandardCharsets.UTF_8);
+            byte[] expected = buf.getFullContent().getBytes(StandardCharsets.UTF_8);
+            assertTrue(expected.length > 2 * TerminalBuffer.EXPORT_BUFFER_BYTES);
+            assertArrayEquals(expected, channel.written.toByteArray());
+        }
+
+        @Test
+        void writeFullContent_channel_unmappableCharactersReplaced() throws IOException {
+            TerminalBuffer buf = new TerminalBuffer(6, 1, 0);
+            buf.writeText("a中b");
+            SlowChannel channel = new SlowChannel(1);
+            buf.writeFullContent(channel, StandardCharsets.US_ASCII);
+            assertEquals("a?b  \n", channel.written.toString(StandardCharsets.US_ASCII));
+        }
+
+        /** Runs {@code write} on another thread and fails unless it finishes promptly. */
+        private void writeOnOtherThread(Runnable write) {
+            Thread writer = new Thread(write);
+            writer.start();
+            try {
+                writer.join(5_000);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            assertFalse(writer.isAlive(), "the writer was blocked by the export");
+        }
+
+        private void scroll(TerminalBuffer buf, int lines) {
+            for (int i = 0; i < lines; i++) {
+                buf.insertEmptyLineAtBottom();
+            }
+        }
+
+        @Test
+        void writeFullContent_appendable_calledWithoutLock_scrollingMeanwhileKeepsEveryLine() throws IOException {
+            TerminalBuffer buf = history(1000);
+            String expected = buf.getFullContent();
+            StringBuilder sb = new StringBuilder();
+            List<Integer> calls = new ArrayList<>();
+            buf.writeFullContent(new Appendable() {
+                @Override
+                public Appendable append(CharSequence csq) {
+                    if (calls.isEmpty()) {
+                        writeOnOtherThread(() -> scroll(buf, 10));
+                    }
+                    calls.add(csq.length());
+                    sb.append(csq);
+                    return this;
+                }
+
+                @Override
+                public Appendable append(CharSequence csq, int start, int end) {
+                    return append(csq.subSequence(start, end));
+                }
+
+                @Override
+                public Appendable append(char c) {
+                    return append(String.valueOf(c));
+                }
+            });
+            assertEquals(expected, sb.toString());
+            int batches = (1003 + TerminalBuffer.EXPORT_BATCH_LINES - 1) / TerminalBuffer.EXPORT_BATCH_LINES;
+            assertEquals(batches, calls.size());
+        }
+
+        @Test
+        void writeFullContent_channel_calledWithoutLock_scrollingMeanwhileKeepsEveryLine() throws IOException {
+            TerminalBuffer buf = history(5000);
+            byte[] expected = buf.getFullContent().getBytes(StandardCharsets.UTF_8);
+            SlowChannel channel = new SlowChannel(4093) {
+                @Override
+                public int write(ByteBuffer src) {
+                    if (written.size() == 0) {
+                        writeOnOtherThread(() -> scroll(buf, 10));
+                    }
+                    return super.write(src);
+                }
+            };
+            buf.writeFullContent(channel, StandardCharsets.UTF_8);
+            assertArrayEquals(expected, channel.written.toByteArray());
+        }
+
+        @Test
+        void writeFullContent_clearedMeanwhile_endsAfterTheBatchesCopiedBefore() throws IOException {
+            TerminalBuffer buf = history(1000);
+            String expected = buf.getFullContent().lines().limit(TerminalBuffer.EXPORT_BATCH_LINES)
+                    .map(line -> line + "\n").collect(Collectors.joining());
+            StringWriter writer = new StringWriter() {
+                @Override
+                public void write(char[] cbuf, int off, int len) {
+                    if (getBuffer().length() == 0) {
+                        writeOnOtherThread(buf::clearScreenAndScrollback);
+                    }
+                    super.write(cbuf, off, len);
+                }
+            };
+            buf.writeFullContent(writer);
+            assertEquals(expected, writer.toString());
+        }
+
+        @Test
+        void writeFullContent_utf16_matchesGetFullContent() throws IOException {
+            TerminalBuffer buf = history(20);
+            SlowChannel channel = new SlowChannel(Integer.MAX_VALUE);
+            buf.writeFullContent(channel, StandardCharsets.UTF_16);
+            assertEquals(buf.getFullContent(), channel.written.toString(StandardCharsets.UTF_16));
+        }
+    }
+
+    // -------------------------------------------------------------------------
+
+    @Nested
+    class LineTextCacheTest {
+
+        /** Reads every screen line, so each has its text cached before the next mutation. */
+        private void readAll(TerminalBuffer buf) {
+            for (int row = 0; row < buf.height; row++) {
+                buf.getScreenLine(row);
+            }
+        }
+
+        @Test
+        void getScreenLine_unchangedRow_returnsCachedString() {
+            TerminalBuffer buf = new TerminalBuffer(8, 2, 0);
+            buf.writeText("abc");
+            String first = buf.getScreenLine(0);
+            assertSame(first, buf.getScreenLine(0));
+            buf.writeText("d");
+            assertEquals("abcd    ", buf.getScreenLine(0));
+        }
+
+        @Test
+        void getScrollbackLine_ringLine_returnsCachedString() {
+            TerminalBuffer buf = new TerminalBuffer(8, 1, 10);
+            buf.writeText("old");
+            buf.insertEmptyLineAtBottom();
+            String first = buf.getScrollbackLine(0);
+            assertEquals("old     ", first);
+            assertSame(first, buf.getScrollbackLine(0));
+        }
+
+        @Test
+        void everyMutationPath_seenAfterCachedReads() {
+            TerminalBuffer buf = new TerminalBuffer(6, 3, 10);
+            buf.writeText("abcdef");
+            readAll(buf);
+
+            buf.setCursor(0, 1);
+            byte[] ascii = "xyz".getBytes(StandardCharsets.US_ASCII);
+            buf.writeBytes(ascii, 0, ascii.length);
+            assertEquals("xyz   ", buf.getScreenLine(1));
+            readAll(buf);
+
+            buf.setCursor(4, 0);
+            buf.insertText("12");
+            assertEquals("abcd12", buf.getScreenLine(0));
+            assertEquals("efxyz ", buf.getScreenLine(1), "insertText shifts cells onto the next row");
+            readAll(buf);
+
+            buf.setCursor(0, 2);
+            buf.fillLine((int) '=');
+            assertEquals("======", buf.getScreenLine(2));
+            readAll(buf);
+
+            buf.setCursor(0, 2);
+            buf.eraseCells(0, 3);
+            assertEquals("   ===", buf.getScreenLine(2));
+            readAll(buf);
+
+            buf.insertEmptyLineAtBottom();
+            assertEquals("abcd12", buf.getScrollbackLine(0));
+            assertEquals("      ", buf.getScreenLine(2), "a recycled line must not keep its old text");
+            readAll(buf);
+
+            buf.resize(4, 3);
+            assertEquals("efxy", buf.getScreenLine(0));
+            assertEquals("abcd", buf.getScrollbackLine(0));
+            readAll(buf);
+
+            buf.clearScreen();
+            assertEquals("    ", buf.getScreenLine(0));
+        }
+
+        @Test
+        void snapshot_copyOnWrite_keepsSnapshotTextAndUpdatesBuffer() {
+            TerminalBuffer buf = new TerminalBuffer(5, 1, 0);
+            buf.writeText("abc");
+            readAll(buf);
+            ScreenSnapshot snapshot = buf.snapshot();
+            buf.setCursor(0, 0);
+            buf.writeText("X");
+            assertEquals("abc  ", snapshot.getLine(0));
+            assertEquals("Xbc  ", buf.getScreenLine(0));
+        }
+
+        @Test
+        void getFullContent_usesCachedTextAndMatchesAfterWrites() {
+            TerminalBuffer buf = new TerminalBuffer(5, 2, 10);
+            buf.writeText("ab中");
+            buf.insertEmptyLineAtBottom();
+            buf.setCursor(0, 0);
+            buf.writeText("cd");
+            readAll(buf);
+            buf.getScrollbackLine(0);
+            assertEquals("ab中 \ncd   \n     \n", buf.getFullContent());
+            buf.setCursor(0, 1);
+            buf.writeText("Z");
+            assertEquals("ab中 \ncd   \nZ    \n", buf.getFullContent());
+        }
+    }
+
+    // -------------------------------------------------------------------------
+
+    @Nested
+    class CrossRowGuardTest {
+
+        /** The guard as insertText ran it before the one-pass version: rescan after every decrement. */
+        private int rescanningGuard(TerminalBuffer buf, int cursorFlat, int insertCount) {
+            int width = buf.width;
+            boolean foundViolation = true;
+            while (insertCount > 0 && foundViolation) {
+                foundViolation = false;
+                for (int i = cursorFlat; i < cursorFlat + insertCount; i++) {
+                    if (Cell.isWide(buf.screen[i / width].cells[i % width])
+                            && (i + insertCount) % width == width - 1) {
+                        insertCount--;
+                        foundViolation = true;
+                        break;
+                    }
+                }
+            }
+            return insertCount;
+        }
+
+        @Test
+        void crossRowGuard_wideLandingOnLastColumn_reducesCount() {
+            TerminalBuffer buf = new TerminalBuffer(4, 2, 0);
+            buf.writeText("中");
+            // shifted by 3 the WIDE at col 0 would sit on col 3 with its CONTINUATION on the next row
+            assertEquals(2, buf.crossRowGuard(0, 3));
+            assertEquals(rescanningGuard(buf, 0, 3), buf.crossRowGuard(0, 3));
+        }
+
+        @Test
+        void crossRowGuard_noWideCells_keepsCount() {
+            TerminalBuffer buf = new TerminalBuffer(5, 3, 0);
+            buf.writeText("abc");
+            assertEquals(14, buf.crossRowGuard(1, 14));
+        }
+
+        @Test
+        void crossRowGuard_randomScreens_matchesRescanningGuard() {
+            Random random = new Random(23);
+            long wide = Cell.pack('中', Color.DEFAULT, Color.DEFAULT, false, false, false) | Cell.WIDE_BITS;
+            long narrow = Cell.pack('a', Color.DEFAULT, Color.DEFAULT, false, false, false);
+            long[] words = {Cell.BLANK, narrow, wide, Cell.CONTINUATION};
+            for (int trial = 0; trial < 20_000; trial++) {
+                int width = 1 + random.nextInt(12);
+                int height = 1 + random.nextInt(6);
+                TerminalBuffer buf = new TerminalBuffer(width, height, 0);
+                int wideOdds = random.nextInt(4);
+                for (int r = 0; r < height; r++) {
+                    for (int c = 0; c < width; c++) {
+                        buf.screen[r].set(c, random.nextInt(4) < wideOdds ? wide : words[random.nextInt(4)]);
+                    }
+                }
+                int total = width * height;
+                int from = random.nextInt(total);
+                int insertCount = random.nextInt(total - from + 1);
+                assertEquals(rescanningGuard(buf, from, insertCount), buf.crossRowGuard(from, insertCount),
+                        "trial " + trial + ": " + width + "x" + height + " from " + from + " count " + insertCount);
+            }
+        }
+
+        @Test
+        void insertText_cjkScreens_matchRescanningGuardEndToEnd() {
+            Random random = new Random(2323);
+            String[] words = {"中", "文字", "a", "bc", "😀", " "};
+            for (int trial = 0; trial < 2_000; trial++) {
+                int width = 2 + random.nextInt(10);
+                TerminalBuffer buf = new TerminalBuffer(width, 4, 0);
+                for (int r = 0; r < 3; r++) {
+                    buf.setCursor(0, r);
+                    for (int k = random.nextInt(2 * width); k > 0; k--) {
+                        buf.writeText(words[random.nextInt(words.length)]);
+                    }
+                }
+                buf.setCursor(random.nextInt(width), random.nextInt(3));
+                String text = words[random.nextInt(words.length)].repeat(1 + random.nextInt(2 * width));
+
+                // The budget insertText will pass to its guard, computed the same way it does
+                int cursorFlat = buf.getCursorRow() * width + buf.getCursorCol();
+                if (Cell.isContinuation(buf.screen[buf.getCursorRow()].get(buf.getCursorCol()))) {
+                    cursorFlat--;
+                }
+                int free = 0;
+                for (int i = 4 * width - 1; i >= cursorFlat && buf.screen[i / width].cells[i % width] == Cell.BLANK; i--) {
+                    free++;
+                }
+                int budget = 0;
+                for (int i = 0; i < text.length(); ) {
+                    int cp = text.codePointAt(i);
+                    i += Character.charCount(cp);
+                    int cost = UnicodeUtils.isWide(cp) ? 2 : 1;
+                    if (budget + cost > free) {
+                        break;
+                    }
+                    budget += cost;
+                }
+                int expected = rescanningGuard(buf, cursorFlat, budget);
+
+                // From the snapped cursor, the cursor advances by exactly the guarded count
+                String before = buf.getScreenContent();
+                buf.insertText(text);
+                int cursor = buf.getCursorRow() * width + buf.getCursorCol();
+                if (expected == 0) {
+                    assertEquals(before, buf.getScreenContent(), "trial " + trial);
+                    assertEquals(cursorFlat, cursor, "trial " + trial);
+                } else {
+                    assertEquals(Math.min(cursorFlat + expected, 4 * width - 1), cursor, "trial " + trial);
+                }
+            }
+        }
+    }
+
+    // -------------------------------------------------------------------------
+
+    @Nested
+    class LineOccupancyTest {
+
+        /** Asserts that every screen line's tracked occupancy matches a scan of its cells. */
+        private void assertOccupancyExact(TerminalBuffer buf, String context) {
+            for (int row = 0; row < buf.height; row++) {
+                Line line = buf.screen[row];
+                int end = line.width;
+                while (end > 0 && line.cells[end - 1] == Cell.BLANK) {
+                    end--;
+                }
+                assertEquals(end, line.contentEnd(), context + ", row " + row);
+                for (long word : line.cells) {
+                    if (Cell.isWide(word)) {
+                        assertTrue(line.hasWide(), context + ", row " + row);
+                    }
+                }
+            }
+        }
+
+        @Test
+        void randomOperations_keepOccupancyExact() {
+            Random random = new Random(2424);
+            String[] words = {"ab", "中文", "x", "😀", "  ", "wide字"};
+            TerminalBuffer buf = new TerminalBuffer(9, 4, 20);
+            for (int step = 0; step < 5_000; step++) {
+                String word = words[random.nextInt(words.length)];
+                switch (random.nextInt(10)) {
+                    case 0, 1 -> buf.writeText(word);
+                    case 2 -> {
+                        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+                        buf.writeBytes(bytes, 0, bytes.length);
+                    }
+                    case 3 -> buf.insertText(word);
+                    case 4 -> buf.fillLine(random.nextBoolean() ? null : (int) '#');
+                    case 5 -> buf.eraseCells(random.nextInt(9), random.nextInt(10));
+                    case 6 -> buf.insertEmptyLineAtBottom();
+                    case 7 -> buf.resize(3 + random.nextInt(10), 1 + random.nextInt(5));
+                    case 8 -> buf.setAutowrap(random.nextBoolean());
+                    default -> buf.setCursor(random.nextInt(buf.width), random.nextInt(buf.height));
+                }
+                assertOccupancyExact(buf, "step " + step);
+            }
+        }
+
+        @Test
+        void insertText_blankTailCountedFromContentEnds() {
+            TerminalBuffer buf = new TerminalBuffer(6, 3, 0);
+            buf.setCursor(0, 1);
+            buf.writeText("abc");
+            buf.setCursor(0, 0);
+            // free: row 1 cols 3-5 and row 2 → 9; everything after the cursor shifts right
+            buf.insertText("0123456789");
+            assertEquals("012345", buf.getScreenLine(0));
+            assertEquals("678   ", buf.getScreenLine(1));
+            assertEquals("   abc", buf.getScreenLine(2));
+        }
+    }
+
+    // -------------------------------------------------------------------------
+
+    @Nested
+    class NarrowRunTest {
+
+        @Test
+        void writeText_narrowRunOverWidePairs_blanksOnlyTheOrphanAtItsEnd() {
+            TerminalBuffer buf = new TerminalBuffer(8, 1, 0);
+            buf.writeText("中文字");
+            buf.setCursor(0, 0);
+            buf.writeText("abc");
+            assertEquals("abc 字  ", buf.getScreenLine(0));
+            assertTrue(Cell.isContinuation(buf.screen[0].get(5)));
+            assertEquals(3, buf.getCursorCol());
+        }
+
+        @Test
+        void writeText_narrowAfterWideAtEdge_overwritesItsContinuationInOneCall() {
+            TerminalBuffer buf = new TerminalBuffer(2, 1, 0);
+            buf.writeText("😀ab");
+            assertTrue(Cell.isWide(buf.screen[0].get(0)));
+            assertEquals('a', buf.getScreenChar(1, 0));
+            assertEquals(1, buf.getCursorCol());
+        }
+
+        @Test
+        void writeText_latinAndCyrillicRun_writtenLikeAscii() {
+            TerminalBuffer buf = new TerminalBuffer(10, 1, 0);
+            buf.writeText("héllo мир");
+            assertEquals("héllo мир ", buf.getScreenLine(0));
+            assertEquals(9, buf.getCursorCol());
+        }
+
+        @Test
+        void writeText_runPastEdgeWithoutAutowrap_stopsAtLastColumn() {
+            TerminalBuffer buf = new TerminalBuffer(4, 2, 0);
+            buf.writeText("abcdef中");
+            assertEquals("abcd", buf.getScreenLine(0));
+            assertEquals("    ", buf.getScreenLine(1));
+            assertEquals(3, buf.getCursorCol());
+        }
+
+        /**
+         * Writes the same text into two identical buffers, in one call and one code point per call (which
+         * never forms a run), and requires identical cells, cursor, wrap state, scrollback and damage.
+         * Without autowrap one call drops everything after the right edge, while separate calls would keep
+         * writing the last column, so those are cut there. After a wide char fills the last column one call
+         * still writes the next char onto its CONTINUATION, where a separate call would snap left first, so
+         * both buffers get the text up to the wide char.
+         */
+        @Test
+        void writeText_randomText_matchesOneCodePointPerCall() {
+            Random random = new Random(25);
+            String[] words = {"ab", "hello ", "中", "文字", "😀", "é", "мир", "\u0301", "\uD800", "x"};
+            Color[] colors = {Color.DEFAULT, Color.RED, Color.GREEN};
+            for (int trial = 0; trial < 1_000; trial++) {
+                int width = 2 + random.nextInt(10);
+                TerminalBuffer runs = new TerminalBuffer(width, 3, 10);
+                TerminalBuffer single = new TerminalBuffer(width, 3, 10);
+                boolean autowrap = random.nextBoolean();
+                runs.setAutowrap(autowrap);
+                single.setAutowrap(autowrap);
+                for (int step = 0; step < 12; step++) {
+                    StringBuilder text = new StringBuilder();
+                    for (int k = random.nextInt(2 * width); k > 0; k--) {
+                        text.append(words[random.nextInt(words.length)]);
+                    }
+                    Color fg = colors[random.nextInt(colors.length)];
+                    int startCol = random.nextInt(width);
+                    int startRow = random.nextInt(3);
+                    for (TerminalBuffer buf : List.of(runs, single)) {
+                        buf.setForeground(fg);
+                        if (step % 3 == 0) {
+                            buf.setCursor(startCol, startRow);
+                        }
+                    }
+                    StringBuilder written = new StringBuilder();
+                    boolean cutAtContinuation = false;
+                    for (int cp : text.codePoints().toArray()) {
+                        int col = single.getCursorCol();
+                        if (!single.wrapPending && Cell.isContinuation(single.screen[single.getCursorRow()].get(col))) {
+                            col = Math.max(0, col - 1); // where the call snaps to before writing
+                        }
+                        boolean lastColumn = !autowrap && col == width - 1;
+                        single.writeText(new String(Character.toChars(cp)));
+                        written.appendCodePoint(cp);
+                        if (lastColumn) {
+                            break;
+                        }
+                        if (!autowrap && Cell.isContinuation(single.screen[single.getCursorRow()].get(single.getCursorCol()))) {
+                            cutAtContinuation = true;
+                            break;
+                        }
+                    }
+                    runs.writeText(cutAtContinuation ? written.toString() : text.toString());
+
+                    String context = "trial " + trial + " step " + step + " \"" + written + "\"";
+                    for (int r = 0; r < 3; r++) {
+                        assertArrayEquals(single.screen[r].cells, runs.screen[r].cells, context + " row " + r);
+                    }
+                    assertEquals(single.getCursorCol(), runs.getCursorCol(), context);
+                    assertEquals(single.getCursorRow(), runs.getCursorRow(), context);
+                    assertEquals(single.wrapPending, runs.wrapPending, context);
+                    assertEquals(single.getFullContent(), runs.getFullContent(), context);
+                    assertEquals(single.collectDamage(), runs.collectDamage(), context);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drives {@code candidate} (a 10x3 buffer with a scrollback store) and an equivalent heap-only buffer
+     * through the same random writes, scrolls, resizes and clears, then compares their whole history.
+     */
+    private static void assertSameHistoryAsHeapOnly(TerminalBuffer candidate, long seed) {
+        Random random = new Random(seed);
+        String[] words = {"ab", "中文", "x", "😀", "wide字", "hello", " "};
+        TerminalBuffer heap = new TerminalBuffer(10, 3, 1_000_000);
+        for (int step = 0; step < 3000; step++) {
+            int op = random.nextInt(100);
+            for (TerminalBuffer buf : List.of(candidate, heap)) {
+                Random same = new Random(step);
+                if (op < 50) {
+                    buf.setForeground(Color.values()[same.nextInt(17)]);
+                    buf.setCursor(same.nextInt(buf.width), same.nextInt(buf.height));
+                    buf.writeText(words[same.nextInt(words.length)] + words[same.nextInt(words.length)]);
+                } else if (op < 90) {
+                    buf.insertEmptyLineAtBottom();
+                } else if (op < 99) {
+                    buf.resize(1 + same.nextInt(14), 1 + same.nextInt(4));
+                } else {
+                    buf.clearScreenAndScrollback();
+                }
+            }
+        }
+        assertEquals(heap.scrollback.size(), candidate.scrollback.size());
+        assertTrue(candidate.scrollback.storedSize() > 0);
+        assertEquals(heap.getFullContent(), candidate.getFullContent());
+        for (int row = 0; row < heap.scrollback.size(); row++) {
+            for (int col = -1; col <= heap.width; col++) {
+                assertEquals(heap.getScrollbackChar(col, row), candidate.getScrollbackChar(col, row));
+                assertSame(heap.getScrollbackAttributes(col, row), candidate.getScrollbackAttributes(col, row));
+            }
+        }
+    }
 }
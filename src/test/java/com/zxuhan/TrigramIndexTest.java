@@ -0,0 +1,101 @@
+package com.zxuhan;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrigramIndexTest {
+
+    private static Line line(String text) {
+        Line line = new Line(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            line.setCell(i, new Cell(text.charAt(i), Color.DEFAULT, Color.DEFAULT, false, false, false));
+        }
+        return line;
+    }
+
+    private static int[] query(String text) {
+        return text.codePoints().toArray();
+    }
+
+    @Test
+    void candidates_intersectsEveryTrigramOfQuery() {
+        TrigramIndex index = new TrigramIndex();
+        index.add(0, line("abcdef"));
+        index.add(1, line("abcxyz"));
+        index.add(2, line("xyzdef"));
+        assertArrayEquals(new long[] {0, 1}, index.candidates(query("abc")));
+        assertArrayEquals(new long[] {0}, index.candidates(query("abcd")));
+        assertArrayEquals(new long[] {2}, index.candidates(query("zdef")));
+        assertArrayEquals(new long[0], index.candidates(query("cde!")));
+    }
+
+    @Test
+    void candidates_queryWithoutTrigram_returnsNull() {
+        TrigramIndex index = new TrigramIndex();
+        index.add(0, line("abc d  "));
+        assertNull(index.candidates(query("ab")));
+        assertNull(index.candidates(query("c d ")), "trigrams with a space are not indexed");
+        assertArrayEquals(new long[] {0}, index.candidates(query("abc d")));
+        assertEquals(0, index.postings('c', ' ', 'd'));
+    }
+
+    @Test
+    void add_repeatedTrigram_postedOncePerLine() {
+        TrigramIndex index = new TrigramIndex();
+        index.add(0, line("aaaaaa"));
+        index.add(1, line("aaa "));
+        assertEquals(2, index.postings('a', 'a', 'a'));
+        assertEquals(0, index.postings('a', 'a', ' '));
+    }
+
+    @Test
+    void add_wideCharacter_skipsItsContinuation() {
+        Line wide = line("a  b");
+        wide.set(1, Cell.pack('中', Color.DEFAULT, Color.DEFAULT, false, false, false) | Cell.WIDE_BITS);
+        wide.set(2, Cell.CONTINUATION);
+        TrigramIndex index = new TrigramIndex();
+        index.add(0, wide);
+        assertArrayEquals(new long[] {0}, index.candidates(query("a中b")));
+    }
+
+    @Test
+    void remove_oldestAndNewest_withdrawLines() {
+        TrigramIndex index = new TrigramIndex();
+        for (int seq = 0; seq < 5; seq++) {
+            index.add(seq, line("abc" + seq));
+        }
+        index.remove(0, line("abc0"));
+        index.remove(4, line("abc4"));
+        assertArrayEquals(new long[] {1, 2, 3}, index.candidates(query("abc")));
+        assertArrayEquals(new long[0], index.candidates(query("bc0")));
+        assertEquals(0, index.postings('b', 'c', '4'));
+    }
+
+    @Test
+    void add_slidingWindow_keepsOnlyLiveLines() {
+        TrigramIndex index = new TrigramIndex();
+        for (int seq = 0; seq < 10_000; seq++) {
+            index.add(seq, line("common " + seq));
+            if (seq >= 100) {
+                index.remove(seq - 100, line("common " + (seq - 100)));
+            }
+        }
+        long[] live = index.candidates(query("common"));
+        assertEquals(100, live.length);
+        assertEquals(9_900, live[0]);
+        assertEquals(9_999, live[99]);
+        assertArrayEquals(new long[] {9_950}, index.candidates(query("on 9950")));
+    }
+
+    @Test
+    void add_manyDistinctTrigrams_growsTable() {
+        TrigramIndex index = new TrigramIndex();
+        for (int seq = 0; seq < 3_000; seq++) {
+            index.add(seq, line(new String(Character.toChars(0x4E00 + seq)) + "xy"));
+        }
+        for (int seq = 0; seq < 3_000; seq += 271) {
+            assertArrayEquals(new long[] {seq}, index.candidates(query(new String(Character.toChars(0x4E00 + seq)) + "xy")));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.zxuhan;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import static org.junit.jupiter.api.Assertions.*;
+
+class UnicodeUtilsTest {
+
+    @ParameterizedTest
+    @ValueSource(ints = {
+            0x1100,  // HANGUL CHOSEONG KIYEOK
+            0x3042,  // HIRAGANA LETTER A
+            0x4E2D,  // CJK 中
+            0x9FFF,  // last of the CJK Unified Ideographs block (default W even where unassigned)
+            0xAC00,  // HANGUL SYLLABLE GA
+            0xFF21,  // FULLWIDTH LATIN CAPITAL LETTER A
+            0x1F600, // 😀
+            0x1F680, // 🚀 — outside the old 1F300..1F9FF emoji range
+            0x1FA70, // 🩰 — Symbols and Pictographs Extended-A
+            0x231A,  // ⌚ WATCH — emoji presentation in the BMP
+            0x20000, // CJK Extension B
+            0x3FFFD  // plane 3 default W
+    })
+    void width_wideCodePoints_returnTwo(int cp) {
+        assertAll(
+                () -> assertEquals(2, UnicodeUtils.width(cp)),
+                () -> assertTrue(UnicodeUtils.isWide(cp))
+        );
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {
+            'A', ' ', '~',
+            0x00E9,  // é precomposed
+            0x0410,  // CYRILLIC CAPITAL LETTER A
+            0x00AD,  // SOFT HYPHEN — Cf, but conventionally visible
+            0xFF61,  // HALFWIDTH IDEOGRAPHIC FULL STOP
+            0x2500,  // BOX DRAWINGS LIGHT HORIZONTAL (ambiguous → narrow)
+            0x1F100  // DIGIT ZERO FULL STOP (ambiguous → narrow)
+    })
+    void width_narrowCodePoints_returnOne(int cp) {
+        assertAll(
+                () -> assertEquals(1, UnicodeUtils.width(cp)),
+                () -> assertFalse(UnicodeUtils.isWide(cp))
+        );
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {
+            0x0301,  // COMBINING ACUTE ACCENT (Mn)
+            0x20DD,  // COMBINING ENCLOSING CIRCLE (Me)
+            0x200B,  // ZERO WIDTH SPACE (Cf)
+            0x200D,  // ZERO WIDTH JOINER (Cf)
+            0xFE0F,  // VARIATION SELECTOR-16 (Mn)
+            0x1160,  // HANGUL JUNGSEONG FILLER — conjoining medial vowel
+            0x11A8,  // HANGUL JONGSEONG KIYEOK — conjoining final consonant
+            0xE0001  // LANGUAGE TAG (Cf)
+    })
+    void width_zeroWidthCodePoints_returnZero(int cp) {
+        assertEquals(0, UnicodeUtils.width(cp));
+    }
+
+    @Test
+    void width_allPrintableAscii_isOne() {
+        for (int cp = 0x20; cp < 0x7F; cp++) {
+            assertEquals(1, UnicodeUtils.width(cp), "cp " + cp);
+        }
+    }
+
+    @Test
+    void width_invalidCodePoints_treatedAsNarrow() {
+        assertAll(
+                () -> assertEquals(1, UnicodeUtils.width(-1)),
+                () -> assertEquals(1, UnicodeUtils.width(Character.MAX_CODE_POINT + 1))
+        );
+    }
+
+    @Test
+    void width_everyCodePoint_isZeroOneOrTwo() {
+        for (int cp = 0; cp <= Character.MAX_CODE_POINT; cp++) {
+            int w = UnicodeUtils.width(cp);
+            assertTrue(w >= 0 && w <= 2, "cp " + Integer.toHexString(cp));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.zxuhan;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Utf8DecoderTest {
+
+    /** Decodes {@code bytes} with the caller protocol used by TerminalBuffer, collecting code points. */
+    private static List<Integer> decode(Utf8Decoder decoder, int... bytes) {
+        List<Integer> out = new ArrayList<>();
+        for (int b : bytes) {
+            int cp = decoder.feed(b);
+            if (cp == Utf8Decoder.RETRY) {
+                out.add(Utf8Decoder.REPLACEMENT);
+                cp = decoder.feed(b);
+            }
+            if (cp >= 0) {
+                out.add(cp);
+            }
+        }
+        return out;
+    }
+
+    @Test
+    void feed_ascii_returnsByteImmediately() {
+        assertEquals(List.of((int) 'A', (int) 'z'), decode(new Utf8Decoder(), 'A', 'z'));
+    }
+
+    @Test
+    void feed_multiByteSequences_decoded() {
+        byte[] bytes = "é中😀".getBytes(StandardCharsets.UTF_8);
+        int[] unsigned = new int[bytes.length];
+        for (int i = 0; i < bytes.length; i++) unsigned[i] = bytes[i] & 0xFF;
+        assertEquals(List.of(0xE9, 0x4E2D, 0x1F600), decode(new Utf8Decoder(), unsigned));
+    }
+
+    @Test
+    void feed_sequenceSplitAcrossCalls_stateIsKept() {
+        Utf8Decoder decoder = new Utf8Decoder();
+        assertEquals(List.of(), decode(decoder, 0xE4, 0xB8));
+        assertFalse(decoder.idle());
+        assertEquals(List.of(0x4E2D), decode(decoder, 0xAD));
+        assertTrue(decoder.idle());
+    }
+
+    @Test
+    void feed_truncatedSequenceFollowedByAscii_replacementThenAscii() {
+        assertEquals(List.of(Utf8Decoder.REPLACEMENT, (int) 'A'), decode(new Utf8Decoder(), 0xE4, 0xB8, 'A'));
+    }
+
+    @Test
+    void feed_invalidLeadBytes_eachReplaced() {
+        assertEquals(List.of(Utf8Decoder.REPLACEMENT, Utf8Decoder.REPLACEMENT, Utf8Decoder.REPLACEMENT),
+                decode(new Utf8Decoder(), 0x80, 0xC0, 0xFF));
+    }
+
+    @Test
+    void feed_overlongAndSurrogateEncodings_rejected() {
+        assertAll(
+                // E0 80 80 — overlong: 80 is outside E0's A0..BF second-byte range
+                () -> assertEquals(List.of(Utf8Decoder.REPLACEMENT, Utf8Decoder.REPLACEMENT, Utf8Decoder.REPLACEMENT),
+                        decode(new Utf8Decoder(), 0xE0, 0x80, 0x80)),
+                // ED A0 80 — UTF-16 surrogate D800
+                () -> assertEquals(List.of(Utf8Decoder.REPLACEMENT, Utf8Decoder.REPLACEMENT, Utf8Decoder.REPLACEMENT),
+                        decode(new Utf8Decoder(), 0xED, 0xA0, 0x80)),
+                // F4 90 80 80 — above U+10FFFF
+                () -> assertEquals(4, decode(new Utf8Decoder(), 0xF4, 0x90, 0x80, 0x80).size())
+        );
+    }
+
+    @Test
+    void feed_malformedInput_matchesJdkDecoder() {
+        byte[] bytes = {(byte) 0xE4, (byte) 0xB8, 'A', (byte) 0xF0, (byte) 0x9F, (byte) 0x98, 'B', (byte) 0xC3};
+        int[] unsigned = new int[bytes.length];
+        for (int i = 0; i < bytes.length; i++) unsigned[i] = bytes[i] & 0xFF;
+        List<Integer> expected = new String(bytes, StandardCharsets.UTF_8).codePoints().boxed().toList();
+        List<Integer> actual = new ArrayList<>(decode(new Utf8Decoder(), unsigned));
+        actual.add(Utf8Decoder.REPLACEMENT); // trailing C3 is still pending; the JDK replaces it at end of input
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void asciiRunEnd_findsFirstNonAsciiByteAcrossWordBoundaries() {
+        byte[] bytes = new byte[40];
+        java.util.Arrays.fill(bytes, (byte) 'a');
+        bytes[19] = (byte) 0xC3;
+        assertAll(
+                () -> assertEquals(19, Utf8Decoder.asciiRunEnd(bytes, 0, bytes.length)),
+                () -> assertEquals(19, Utf8Decoder.asciiRunEnd(bytes, 3, bytes.length)),
+                () -> assertEquals(40, Utf8Decoder.asciiRunEnd(bytes, 20, bytes.length)),
+                () -> assertEquals(12, Utf8Decoder.asciiRunEnd(bytes, 0, 12)),
+                () -> assertEquals(19, Utf8Decoder.asciiRunEnd(bytes, 19, bytes.length))
+        );
+    }
+}
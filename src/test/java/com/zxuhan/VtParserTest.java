@@ -0,0 +1,306 @@
+package com.zxuhan;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VtParserTest {
+
+    private TerminalBuffer buf;
+    private VtParser parser;
+
+    @BeforeEach
+    void setUp() {
+        buf = new TerminalBuffer(10, 4, 10);
+        parser = new VtParser(buf);
+    }
+
+    private void feed(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        parser.feed(bytes, 0, bytes.length);
+    }
+
+    /** Screen row {@code r} without trailing blanks. */
+    private String row(int r) {
+        return buf.getScreenLine(r).stripTrailing();
+    }
+
+    // --- Printing and controls ---
+
+    @Test
+    void feed_printableText_writtenAtCursor() {
+        feed("hello");
+        assertEquals("hello", row(0));
+        assertEquals(5, buf.getCursorCol());
+    }
+
+    @Test
+    void feed_utf8Text_decoded() {
+        feed("a中b");
+        assertEquals("a中b", row(0));
+        assertEquals(4, buf.getCursorCol());
+    }
+
+    @Test
+    void feed_crLf_movesToStartOfNextLine() {
+        feed("ab\r\ncd");
+        assertEquals("ab", row(0));
+        assertEquals("cd", row(1));
+    }
+
+    @Test
+    void feed_lineFeedOnBottomRow_scrollsIntoScrollback() {
+        feed("1\r\n2\r\n3\r\n4\r\n5");
+        assertEquals(1, buf.scrollback.size());
+        assertEquals("1", buf.getScrollbackLine(0).stripTrailing());
+        assertEquals("5", row(3));
+        assertEquals(3, buf.getCursorRow());
+    }
+
+    @Test
+    void feed_backspaceAndTab_moveCursor() {
+        feed("abc\b");
+        assertEquals(2, buf.getCursorCol());
+        feed("\t");
+        assertEquals(8, buf.getCursorCol());
+        feed("\t");
+        assertEquals(9, buf.getCursorCol());
+    }
+
+    @Test
+    void feed_delIgnored() {
+        feed("a\u007fb");
+        assertEquals("ab", row(0));
+    }
+
+    // --- CSI cursor movement ---
+
+    @Test
+    void feed_cup_positionsCursorOneBased() {
+        feed("\u001b[3;5H");
+        assertEquals(4, buf.getCursorCol());
+        assertEquals(2, buf.getCursorRow());
+        feed("\u001b[H");
+        assertEquals(0, buf.getCursorCol());
+        assertEquals(0, buf.getCursorRow());
+    }
+
+    @Test
+    void feed_relativeMoves_defaultToOne() {
+        feed("\u001b[2;2H\u001b[A\u001b[C\u001b[2B\u001b[3D");
+        assertEquals(0, buf.getCursorCol());
+        assertEquals(2, buf.getCursorRow());
+    }
+
+    @Test
+    void feed_chaAndVpa_setSingleCoordinate() {
+        feed("\u001b[7G\u001b[3d");
+        assertEquals(6, buf.getCursorCol());
+        assertEquals(2, buf.getCursorRow());
+    }
+
+    // --- SGR ---
+
+    @Test
+    void feed_sgr_setsPenForFollowingText() {
+        feed("\u001b[1;4;31;42mX\u001b[0mY");
+        assertEquals(new CellAttributes(Color.RED, Color.GREEN, true, false, true), buf.getScreenAttributes(0, 0));
+        assertEquals(new CellAttributes(Color.DEFAULT, Color.DEFAULT, false, false, false), buf.getScreenAttributes(1, 0));
+    }
+
+    @Test
+    void feed_sgrBrightAndResets() {
+        feed("\u001b[3;91;103mX\u001b[23;39;49mY");
+        assertEquals(new CellAttributes(Color.BRIGHT_RED, Color.BRIGHT_YELLOW, false, true, false), buf.getScreenAttributes(0, 0));
+        assertEquals(new CellAttributes(Color.DEFAULT, Color.DEFAULT, false, false, false), buf.getScreenAttributes(1, 0));
+    }
+
+    @Test
+    void feed_sgrEmpty_resets() {
+        feed("\u001b[1;35m\u001b[mX");
+        assertEquals(new CellAttributes(Color.DEFAULT, Color.DEFAULT, false, false, false), buf.getScreenAttributes(0, 0));
+    }
+
+    @Test
+    void feed_sgr256_mapsStandardColorsAndSkipsOthers() {
+        feed("\u001b[38;5;9;48;5;200;4mX");
+        assertEquals(new CellAttributes(Color.BRIGHT_RED, Color.DEFAULT, false, false, true), buf.getScreenAttributes(0, 0));
+    }
+
+    @Test
+    void feed_sgrTrueColor_skippedWithoutConsumingFollowingParams() {
+        feed("\u001b[38;2;10;20;30;1mX");
+        assertEquals(new CellAttributes(Color.DEFAULT, Color.DEFAULT, true, false, false), buf.getScreenAttributes(0, 0));
+    }
+
+    // --- Erase ---
+
+    @Test
+    void feed_eraseInLine_modes() {
+        feed("abcdefghij\u001b[5G\u001b[K");
+        assertEquals("abcd", row(0));
+        feed("\u001b[2G\u001b[1K");
+        assertEquals("  cd", row(0));
+        feed("\u001b[2K");
+        assertEquals("", row(0));
+    }
+
+    @Test
+    void feed_eraseInLine_splitsWideCharAtBoundary() {
+        feed("a中b\u001b[3G\u001b[K");
+        assertEquals("a", row(0));
+        assertEquals(CellType.NORMAL, Cell.type(buf.screen[0].get(1)));
+    }
+
+    @Test
+    void feed_eraseInDisplay_belowAndAbove() {
+        feed("aaaa\r\nbbbb\r\ncccc\r\ndddd\u001b[2;3H\u001b[J");
+        assertEquals("aaaa", row(0));
+        assertEquals("bb", row(1));
+        assertEquals("", row(2));
+        assertEquals("", row(3));
+        feed("\u001b[1J");
+        assertEquals("", row(0));
+        assertEquals("", row(1));
+        assertEquals(2, buf.getCursorCol());
+        assertEquals(1, buf.getCursorRow());
+    }
+
+    @Test
+    void feed_eraseInDisplay2_keepsCursorAndScrollback() {
+        feed("1\r\n2\r\n3\r\n4\r\n5\u001b[2J");
+        assertEquals("", row(3));
+        assertEquals(1, buf.scrollback.size());
+        assertEquals(1, buf.getCursorCol());
+        assertEquals(3, buf.getCursorRow());
+        feed("\u001b[3J");
+        assertTrue(buf.scrollback.isEmpty());
+    }
+
+    // --- ESC sequences ---
+
+    @Test
+    void feed_saveRestoreCursor() {
+        feed("\u001b[2;3H\u001b7\u001b[H\u001b8");
+        assertEquals(2, buf.getCursorCol());
+        assertEquals(1, buf.getCursorRow());
+    }
+
+    @Test
+    void feed_fullReset_clearsEverything() {
+        feed("\u001b[31m1\r\n2\r\n3\r\n4\r\n5\u001bcX");
+        assertEquals("X", row(0));
+        assertTrue(buf.scrollback.isEmpty());
+        assertEquals(Color.DEFAULT, buf.getScreenAttributes(0, 0).fg());
+    }
+
+    @Test
+    void feed_fullReset_turnsAutowrapOff() {
+        feed("\u001b[?7h\u001bc0123456789ab");
+        assertFalse(buf.isAutowrap());
+        assertEquals("0123456789", row(0));
+        assertEquals("", row(1));
+    }
+
+    @Test
+    void feed_controlInsideUtf8Sequence_abortsItWithReplacement() {
+        byte[] bytes = {'a', (byte) 0xE4, (byte) 0xB8, '\r', '\n', (byte) 0xAD, 'b'};
+        parser.feed(bytes, 0, bytes.length);
+        assertEquals("a\uFFFD", row(0));
+        assertEquals("\uFFFDb", row(1));
+    }
+
+    @Test
+    void feed_escapeInsideUtf8Sequence_abortsItBeforeTheSequenceRuns() {
+        byte[] bytes = {(byte) 0xE4, 0x1B, '[', '3', '1', 'm', 'x'};
+        parser.feed(bytes, 0, bytes.length);
+        assertEquals("\uFFFDx", row(0));
+        assertEquals(Color.DEFAULT, buf.getScreenAttributes(0, 0).fg());
+        assertEquals(Color.RED, buf.getScreenAttributes(1, 0).fg());
+    }
+
+    // --- Ignored sequences ---
+
+    @Test
+    void feed_privateModesAndUnknownSequences_ignoredWithoutPrinting() {
+        feed("\u001b[?25l\u001b[?1049h\u001b[5 qA\u001b(BB");
+        assertEquals("AB", row(0));
+    }
+
+    @Test
+    void feed_oscAndDcsStrings_discarded() {
+        feed("\u001b]0;title\u0007A\u001b]2;other\u001b\\B\u001bPq#0;1\u001b\\C");
+        assertEquals("ABC", row(0));
+    }
+
+    @Test
+    void feed_cancelAbortsSequence() {
+        feed("\u001b[31\u0018X");
+        assertEquals("X", row(0));
+        assertEquals(Color.DEFAULT, buf.getScreenAttributes(0, 0).fg());
+    }
+
+    // --- Streaming ---
+
+    @Test
+    void feed_splitAtEveryByteBoundary_sameResultAsWhole() {
+        String stream = "\u001b[1;32mgr中en\u001b[0m\r\n\u001b]0;t\u0007x\u001b[3;4H😀\u001b[K";
+        byte[] bytes = stream.getBytes(StandardCharsets.UTF_8);
+
+        TerminalBuffer whole = new TerminalBuffer(10, 4, 10);
+        new VtParser(whole).feed(bytes, 0, bytes.length);
+
+        for (int split = 1; split < bytes.length; split++) {
+            TerminalBuffer parts = new TerminalBuffer(10, 4, 10);
+            VtParser p = new VtParser(parts);
+            p.feed(ByteBuffer.wrap(bytes, 0, split));
+            p.feed(ByteBuffer.wrap(bytes, split, bytes.length - split));
+            assertEquals(whole.getScreenContent(), parts.getScreenContent(), "split at " + split);
+            for (int col = 0; col < 10; col++) {
+                assertEquals(whole.getScreenAttributes(col, 0), parts.getScreenAttributes(col, 0), "split at " + split);
+            }
+            assertEquals(whole.getCursorCol(), parts.getCursorCol(), "split at " + split);
+            assertEquals(whole.getCursorRow(), parts.getCursorRow(), "split at " + split);
+        }
+    }
+
+    @Test
+    void feed_directByteBuffer_consumedCompletely() {
+        byte[] bytes = "\u001b[2;2Hhi".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+        parser.feed(direct);
+        assertFalse(direct.hasRemaining());
+        assertEquals(" hi", row(1));
+    }
+
+    @Test
+    void feed_heapByteBufferSlice_respectsPositionAndLimit() {
+        byte[] bytes = "xx\u001b[31mAyy".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer src = ByteBuffer.wrap(bytes, 2, bytes.length - 4).slice();
+        parser.feed(src);
+        assertEquals(src.limit(), src.position());
+        assertEquals("A", row(0));
+        assertEquals(Color.RED, buf.getScreenAttributes(0, 0).fg());
+    }
+
+    @Test
+    void feed_tooManyParams_extraIgnored() {
+        feed("\u001b[" + "1;".repeat(40) + "31mX");
+        assertEquals(Color.DEFAULT, buf.getScreenAttributes(0, 0).fg());
+        assertTrue(buf.getScreenAttributes(0, 0).bold());
+    }
+
+    @Test
+    void feed_decawm_togglesAutowrap() {
+        feed("\u001b[?7h0123456789ab");
+        assertTrue(buf.isAutowrap());
+        assertEquals("0123456789", row(0));
+        assertEquals("ab", row(1));
+        feed("\u001b[?7l");
+        assertFalse(buf.isAutowrap());
+    }
+}